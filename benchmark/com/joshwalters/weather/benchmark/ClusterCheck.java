@@ -0,0 +1,221 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.joshwalters.weather.WeatherClusterNode;
+import com.joshwalters.weather.WeatherLookup;
+import com.joshwalters.weather.WeatherLookupException;
+import com.joshwalters.weather.WeatherReport;
+import com.joshwalters.weather.YahooWeatherProvider;
+
+/**
+ * Checks that a cluster of nodes on the loopback address shares lookups the
+ * way WeatherClusterNode promises.
+ * <p>
+ * Three nodes are started against a StubWeatherServer in the same JVM, and
+ * every node looks up every zip code. The stub must see one request per zip
+ * code, and every node must give the same report as the owner. One node is
+ * then stopped while still a member, and the others must still look up its
+ * zip codes, by themselves. Finally it is removed from the ring, and only
+ * the zip codes it owned may change owner.
+ * <p>
+ * Takes --zips, the number of zip codes. Exits with status 1 if any check
+ * fails.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public class ClusterCheck {
+
+    private static final int NODES = 3;
+
+    private final StubWeatherServer server;
+    private final String[] zipCodes;
+    private final List<WeatherClusterNode> nodes = new ArrayList<WeatherClusterNode>();
+    private final List<String> failures = new ArrayList<String>();
+
+    /**
+     * Starts the nodes and makes every one a member of the others' rings.
+     * 
+     * @param server
+     *            the started stub server to look up from
+     * @param zipCodes
+     *            the number of zip codes to look up
+     * @throws IOException
+     *             if a node can not be started
+     */
+    public ClusterCheck(StubWeatherServer server, int zipCodes)
+	    throws IOException {
+	this.server = server;
+	this.zipCodes = new String[zipCodes];
+	for (int i = 0; i < zipCodes; i++)
+	    this.zipCodes[i] = String.format("%05d", 10000 + i);
+
+	List<String> names = new ArrayList<String>();
+	for (int i = 0; i < NODES; i++) {
+	    WeatherClusterNode node = new WeatherClusterNode(
+		    new WeatherLookup(new YahooWeatherProvider(server
+			    .getYahooUrl())), 0);
+	    node.start();
+	    nodes.add(node);
+	    names.add(node.getName());
+	}
+	for (WeatherClusterNode node : nodes)
+	    node.setMembers(names);
+    }
+
+    /**
+     * Runs every check.
+     * 
+     * @return the checks that failed, empty if all passed
+     * @throws WeatherLookupException
+     *             if a lookup fails
+     */
+    public List<String> run() throws WeatherLookupException {
+	checkShared();
+	checkFallback();
+	checkRemoved();
+	return failures;
+    }
+
+    /**
+     * Stops every node.
+     */
+    public void stop() {
+	for (WeatherClusterNode node : nodes)
+	    node.stop();
+    }
+
+    /**
+     * Looks up every zip code on every node, which must fetch each once.
+     */
+    private void checkShared() throws WeatherLookupException {
+	long before = server.getRequestCount();
+	Map<String, WeatherReport> reports = new HashMap<String, WeatherReport>();
+	for (WeatherClusterNode node : nodes) {
+	    for (String zipCode : zipCodes) {
+		WeatherReport report = node.lookupReport(zipCode);
+		WeatherReport first = reports.putIfAbsent(zipCode, report);
+		check(first == null || first.equals(report), node.getName()
+			+ " gave another report for " + zipCode);
+	    }
+	}
+	long fetched = server.getRequestCount() - before;
+	System.out.println(nodes.size() * zipCodes.length + " lookups on "
+		+ nodes.size() + " nodes, " + fetched + " fetches");
+	check(fetched == zipCodes.length, fetched + " fetches for "
+		+ zipCodes.length + " zip codes");
+	for (WeatherClusterNode node : nodes)
+	    check(node.getForwardFailureCount() == 0, node.getName()
+		    + " failed to forward "
+		    + node.getForwardFailureCount() + " lookups");
+    }
+
+    /**
+     * Stops the last node while it is still a member, so the others have to
+     * look up its zip codes themselves.
+     */
+    private void checkFallback() throws WeatherLookupException {
+	WeatherClusterNode stopped = nodes.get(nodes.size() - 1);
+	WeatherClusterNode asker = nodes.get(0);
+	stopped.stop();
+	int owned = 0;
+	long fallbacks = asker.getForwardFailureCount();
+	for (String zipCode : zipCodes) {
+	    if (asker.getOwner(zipCode).equals(stopped.getName()))
+		owned++;
+	    check(asker.lookupReport(zipCode) != null, "No report for "
+		    + zipCode + " with " + stopped.getName() + " stopped");
+	}
+	fallbacks = asker.getForwardFailureCount() - fallbacks;
+	System.out.println(stopped.getName() + " stopped, " + fallbacks
+		+ " of its " + owned + " zip codes looked up by "
+		+ asker.getName());
+	check(fallbacks == owned, fallbacks
+		+ " fallbacks to local lookups for " + owned
+		+ " zip codes of the stopped node");
+    }
+
+    /**
+     * Removes the stopped node from the ring. Only its zip codes may move.
+     */
+    private void checkRemoved() {
+	WeatherClusterNode removed = nodes.get(nodes.size() - 1);
+	WeatherClusterNode remaining = nodes.get(0);
+	String[] owners = new String[zipCodes.length];
+	for (int i = 0; i < zipCodes.length; i++)
+	    owners[i] = remaining.getOwner(zipCodes[i]);
+	for (int i = 0; i < nodes.size() - 1; i++)
+	    nodes.get(i).removeMember(removed.getName());
+
+	int moved = 0;
+	for (int i = 0; i < zipCodes.length; i++) {
+	    String owner = remaining.getOwner(zipCodes[i]);
+	    if (owner.equals(owners[i]))
+		continue;
+	    moved++;
+	    check(owners[i].equals(removed.getName()), zipCodes[i]
+		    + " moved from " + owners[i] + " to " + owner);
+	}
+	for (int i = 0; i < zipCodes.length; i++) {
+	    check(!remaining.getOwner(zipCodes[i]).equals(removed.getName()),
+		    zipCodes[i] + " is still owned by " + removed.getName());
+	}
+	System.out.println(removed.getName() + " removed, " + moved
+		+ " zip codes moved");
+    }
+
+    private void check(boolean passed, String failure) {
+	if (!passed)
+	    failures.add(failure);
+    }
+
+    public static void main(String[] args) throws IOException,
+	    WeatherLookupException {
+	StubWeatherServer.Options options = new StubWeatherServer.Options(args);
+	StubWeatherServer server = new StubWeatherServer();
+	server.start();
+	ClusterCheck check = null;
+	List<String> failures;
+	try {
+	    check = new ClusterCheck(server, options.getInt("zips", 300));
+	    failures = check.run();
+	} finally {
+	    if (check != null)
+		check.stop();
+	    server.stop();
+	}
+	for (String failure : failures.subList(0, Math.min(10, failures
+		.size())))
+	    System.out.println(failure);
+	System.out.println(failures.size() + " checks failed");
+	if (!failures.isEmpty())
+	    System.exit(1);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,89 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.joshwalters.weather.CompactWeatherCondition;
+import com.joshwalters.weather.WeatherCondition;
+
+/**
+ * Measures building weather conditions, in both the String form the parsers
+ * fill in and the compact form reports keep.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConditionBenchmark {
+
+    private WeatherCondition condition;
+    private CompactWeatherCondition compact;
+
+    @Setup
+    public void setUp() {
+	condition = weatherCondition();
+	compact = CompactWeatherCondition.from(condition);
+    }
+
+    @Benchmark
+    public WeatherCondition weatherCondition() {
+	WeatherCondition condition = new WeatherCondition();
+	condition.setLocation("Irvine");
+	condition.setGeneralWeatherCondition("Partly Cloudy");
+	condition.setTempF("72");
+	condition.setTempC("22");
+	condition.setHumidity("45%");
+	condition.setWindCondition("SW at 9 mph");
+	condition.setDayOfWeek("Mon");
+	condition.setLowTemperature("58");
+	condition.setHighTemperature("75");
+	return condition;
+    }
+
+    @Benchmark
+    public CompactWeatherCondition compactFromWeatherCondition() {
+	return CompactWeatherCondition.from(condition);
+    }
+
+    @Benchmark
+    public WeatherCondition compactToWeatherCondition() {
+	return compact.toWeatherCondition();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,92 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of making the XML parser factories, which the DOM path
+ * used to pay on every lookup, against resetting a document builder kept by
+ * the thread, as the feed parsers now do.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FactoryBenchmark {
+
+    @Benchmark
+    public DocumentBuilderFactory documentBuilderFactory() {
+	return DocumentBuilderFactory.newInstance();
+    }
+
+    @Benchmark
+    public DocumentBuilder documentBuilder()
+	    throws ParserConfigurationException {
+	return DocumentBuilderFactory.newInstance().newDocumentBuilder();
+    }
+
+    @Benchmark
+    public DocumentBuilder documentBuilderReset(ThreadBuilder state) {
+	state.builder.reset();
+	return state.builder;
+    }
+
+    @Benchmark
+    public XMLInputFactory xmlInputFactory() {
+	return XMLInputFactory.newInstance();
+    }
+
+    /**
+     * A document builder kept by the benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class ThreadBuilder {
+	DocumentBuilder builder;
+
+	@Setup
+	public void setup() throws ParserConfigurationException {
+	    builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+	}
+    }
+}
\ No newline at end of file
@@ -0,0 +1,224 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import com.joshwalters.weather.WeatherLookupException;
+import com.joshwalters.weather.WeatherLookupService;
+import com.joshwalters.weather.WeatherParserType;
+import com.joshwalters.weather.WeatherProvider;
+import com.joshwalters.weather.WeatherProviders;
+
+/**
+ * Checks that the FAST Yahoo parser gives the same report or the same kind of
+ * failure as the streaming parser it falls back to.
+ * <p>
+ * Both parsers are run on the recorded Yahoo feed, the generated feeds of
+ * StubWeatherServer, and many damaged copies of them: bytes changed or
+ * removed, feeds cut off, and bytes the scan has to notice put in attribute
+ * values or anywhere else, such as invalid UTF-8, control characters,
+ * entities, comments, CDATA and a DOCTYPE. The damage is random but seeded,
+ * so a failure can be repeated with the same options.
+ * <p>
+ * Takes --zips, the number of generated feeds, --mutations, the number of
+ * damaged copies of each feed, --seed, and --show, the most differences to
+ * print. Exits with status 1 if the parsers ever differ.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public class FastParserCheck {
+
+    /**
+     * Bytes put into feeds, each of which the scan must handle or pass on to
+     * the streaming parser.
+     */
+    private static final byte[][] INSERTS = { { (byte) 0xFF },
+	    { (byte) 0x80 }, { (byte) 0xC0, (byte) 0xAF },
+	    { (byte) 0xED, (byte) 0xA0, (byte) 0x80 }, { (byte) 0xE2, (byte) 0x82 },
+	    utf8("\u00e9"), utf8("\u20ac"), utf8("\ud83c\udf27"), { 1 },
+	    { 0x1F }, utf8("\t"), utf8("&amp;"), utf8("&#65;"), utf8("&bogus;"),
+	    utf8("<!-- note -->"), utf8("<![CDATA[x]]>"), utf8("<x>"),
+	    utf8("</x>"), utf8("<x/>"), utf8("\""), utf8("'"), utf8(">"),
+	    utf8("<!DOCTYPE rss>"), utf8("<?pi data?>") };
+
+    private final WeatherProvider yahoo = WeatherProviders
+	    .get(WeatherLookupService.YAHOO);
+    private final Random random;
+    private final int shown;
+    private int parses;
+    private int differences;
+
+    /**
+     * @param seed
+     *            the seed of the damage done to the feeds
+     * @param shown
+     *            the most differences to print
+     */
+    public FastParserCheck(long seed, int shown) {
+	this.random = new Random(seed);
+	this.shown = shown;
+    }
+
+    /**
+     * Compares the parsers on a feed and on damaged copies of it.
+     * 
+     * @param name
+     *            the name of the feed, for reporting differences
+     * @param feed
+     *            the feed
+     * @param mutations
+     *            the number of damaged copies
+     */
+    public void check(String name, byte[] feed, int mutations) {
+	compare(name, feed);
+	for (int i = 0; i < mutations; i++) {
+	    StringBuilder description = new StringBuilder(name);
+	    byte[] damaged = mutate(feed, description);
+	    compare(description.toString(), damaged);
+	}
+    }
+
+    /**
+     * @return the number of feeds both parsers were run on
+     */
+    public int getParses() {
+	return parses;
+    }
+
+    /**
+     * @return the number of feeds the parsers differed on
+     */
+    public int getDifferences() {
+	return differences;
+    }
+
+    private void compare(String description, byte[] feed) {
+	parses++;
+	Object fast = parse(feed, WeatherParserType.FAST);
+	Object streaming = parse(feed, WeatherParserType.STREAMING);
+	if (!fast.equals(streaming)) {
+	    if (differences++ < shown)
+		System.out.println(description + ": fast " + fast
+			+ ", streaming " + streaming);
+	}
+    }
+
+    /**
+     * @return the report, or the category of the failure
+     */
+    private Object parse(byte[] feed, WeatherParserType parserType) {
+	try {
+	    return yahoo.parse(new ByteArrayInputStream(feed), parserType);
+	} catch (WeatherLookupException e) {
+	    return e.getCategory();
+	}
+    }
+
+    /**
+     * Damages a copy of a feed in one of a few ways, and describes how.
+     */
+    private byte[] mutate(byte[] feed, StringBuilder description) {
+	int at = random.nextInt(feed.length);
+	switch (random.nextInt(5)) {
+	case 0:
+	    byte value = (byte) random.nextInt(256);
+	    description.append(" byte ").append(at).append(" set to ").append(
+		    value & 0xFF);
+	    byte[] changed = feed.clone();
+	    changed[at] = value;
+	    return changed;
+	case 1:
+	    description.append(" cut off at ").append(at);
+	    return Arrays.copyOf(feed, at);
+	case 2:
+	    int length = 1 + random.nextInt(Math.min(16, feed.length - at));
+	    description.append(" bytes ").append(at).append(" to ").append(
+		    at + length).append(" removed");
+	    byte[] removed = new byte[feed.length - length];
+	    System.arraycopy(feed, 0, removed, 0, at);
+	    System.arraycopy(feed, at + length, removed, at, removed.length
+		    - at);
+	    return removed;
+	default:
+	    // Half of the inserts go at the start of an attribute value
+	    if (random.nextBoolean()) {
+		int quote = indexOf(feed, (byte) '"', at);
+		if (quote > 0 && feed[quote - 1] == '=')
+		    at = quote + 1;
+	    }
+	    byte[] insert = INSERTS[random.nextInt(INSERTS.length)];
+	    description.append(" ").append(Arrays.toString(insert)).append(
+		    " put at ").append(at);
+	    byte[] inserted = new byte[feed.length + insert.length];
+	    System.arraycopy(feed, 0, inserted, 0, at);
+	    System.arraycopy(insert, 0, inserted, at, insert.length);
+	    System.arraycopy(feed, at, inserted, at + insert.length,
+		    feed.length - at);
+	    return inserted;
+	}
+    }
+
+    private static int indexOf(byte[] bytes, byte b, int from) {
+	for (int i = from; i < bytes.length; i++)
+	    if (bytes[i] == b)
+		return i;
+	return -1;
+    }
+
+    private static byte[] utf8(String string) {
+	return string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static void main(String[] args) throws IOException {
+	StubWeatherServer.Options options = new StubWeatherServer.Options(args);
+	int zipCodes = options.getInt("zips", 50);
+	int mutations = options.getInt("mutations", 200);
+	FastParserCheck check = new FastParserCheck(options.getInt("seed", 1),
+		options.getInt("show", 10));
+
+	List<String> names = new ArrayList<String>();
+	List<byte[]> feeds = new ArrayList<byte[]>();
+	names.add(Fixtures.YAHOO);
+	feeds.add(Fixtures.load(Fixtures.YAHOO));
+	for (int i = 0; i < zipCodes; i++) {
+	    String zipCode = String.format("%05d", 10000 + i);
+	    names.add("yahoo " + zipCode);
+	    feeds.add(utf8(StubWeatherServer.yahooFeed(zipCode)));
+	}
+	for (int i = 0; i < feeds.size(); i++)
+	    check.check(names.get(i), feeds.get(i), mutations);
+
+	System.out.println(check.getParses() + " feeds, "
+		+ check.getDifferences() + " differed");
+	if (check.getDifferences() > 0)
+	    System.exit(1);
+    }
+}
\ No newline at end of file
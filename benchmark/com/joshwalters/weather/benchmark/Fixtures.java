@@ -0,0 +1,64 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Loads the recorded feeds the benchmarks run against. The folder can be
+ * changed with the weather.fixtures system property.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+final class Fixtures {
+
+    /**
+     * The recorded Google feed for Irvine, CA.
+     */
+    static final String GOOGLE = "google-92614.xml";
+
+    /**
+     * The recorded Yahoo feed for Irvine, CA.
+     */
+    static final String YAHOO = "yahoo-92614.xml";
+
+    private Fixtures() {
+    }
+
+    /**
+     * Reads a recorded feed.
+     * 
+     * @param name
+     *            the file name of the feed
+     * @return the feed
+     * @throws IOException
+     */
+    static byte[] load(String name) throws IOException {
+	String folder = System.getProperty("weather.fixtures",
+		"benchmark/fixtures");
+	return Files.readAllBytes(Paths.get(folder, name));
+    }
+}
\ No newline at end of file
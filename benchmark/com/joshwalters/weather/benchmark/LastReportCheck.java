@@ -0,0 +1,163 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.joshwalters.weather.WeatherLookup;
+import com.joshwalters.weather.WeatherLookupException;
+import com.joshwalters.weather.WeatherReport;
+import com.joshwalters.weather.YahooWeatherProvider;
+
+/**
+ * Checks that getLastReport() never hands out a report that is partly one
+ * lookup and partly another, or not yet fully built.
+ * <p>
+ * A WeatherLookup without a cache looks up a few zip codes in turn from a
+ * StubWeatherServer started in the same JVM, so every lookup parses and
+ * publishes a new report. Other threads read getLastReport() as fast as they
+ * can, and every report they see must equal one of the reports the zip codes
+ * gave when looked up one at a time before the run.
+ * <p>
+ * Takes --duration in seconds, --zips, --writers, the threads doing lookups,
+ * and --readers. Exits with status 1 if a reader ever sees another report.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public class LastReportCheck {
+
+    private final WeatherLookup weather;
+    private final String[] zipCodes;
+    private final Set<WeatherReport> reports = new HashSet<WeatherReport>();
+    private final AtomicBoolean stopped = new AtomicBoolean();
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong torn = new AtomicLong();
+
+    /**
+     * Makes a check, looking up each zip code once to learn its report.
+     * 
+     * @param weather
+     *            the lookup to publish reports with
+     * @param zipCodes
+     *            the number of zip codes to look up in turn
+     * @throws WeatherLookupException
+     *             if a zip code can not be looked up
+     */
+    public LastReportCheck(WeatherLookup weather, int zipCodes)
+	    throws WeatherLookupException {
+	this.weather = weather;
+	this.zipCodes = new String[zipCodes];
+	for (int i = 0; i < zipCodes; i++) {
+	    this.zipCodes[i] = String.format("%05d", 10000 + i);
+	    reports.add(weather.lookupReport(this.zipCodes[i]));
+	}
+    }
+
+    /**
+     * Runs lookups and reads for a while.
+     * 
+     * @param seconds
+     *            how long to run
+     * @param writers
+     *            the threads doing lookups
+     * @param readers
+     *            the threads reading the last report
+     * @return the number of reads that saw another report
+     * @throws InterruptedException
+     *             if interrupted while waiting for the threads
+     */
+    public long run(long seconds, int writers, int readers)
+	    throws InterruptedException {
+	List<Thread> threads = new ArrayList<Thread>();
+	for (int i = 0; i < writers; i++) {
+	    final int first = i;
+	    threads.add(new Thread(() -> publish(first), "writer-" + i));
+	}
+	for (int i = 0; i < readers; i++)
+	    threads.add(new Thread(this::read, "reader-" + i));
+	for (Thread thread : threads)
+	    thread.start();
+	Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+	stopped.set(true);
+	for (Thread thread : threads)
+	    thread.join();
+	return torn.get();
+    }
+
+    private void publish(int first) {
+	for (int i = first; !stopped.get(); i++) {
+	    try {
+		weather.lookup(zipCodes[i % zipCodes.length]);
+		lookups.incrementAndGet();
+	    } catch (WeatherLookupException e) {
+		System.out.println("Lookup failed: " + e.getMessage());
+		stopped.set(true);
+	    }
+	}
+    }
+
+    private void read() {
+	long count = 0;
+	while (!stopped.get()) {
+	    WeatherReport report = weather.getLastReport();
+	    if (report != null && !reports.contains(report)) {
+		if (torn.incrementAndGet() <= 10)
+		    System.out.println("Read a report of no lookup, for "
+			    + report.getCompactCurrentWeatherConditions()
+				    .getLocation());
+	    }
+	    count++;
+	}
+	reads.addAndGet(count);
+    }
+
+    public static void main(String[] args) throws IOException,
+	    WeatherLookupException, InterruptedException {
+	StubWeatherServer.Options options = new StubWeatherServer.Options(args);
+	StubWeatherServer server = new StubWeatherServer();
+	server.start();
+	try {
+	    WeatherLookup weather = new WeatherLookup(new YahooWeatherProvider(
+		    server.getYahooUrl()));
+	    LastReportCheck check = new LastReportCheck(weather, options
+		    .getInt("zips", 8));
+	    long torn = check.run(options.getInt("duration", 10), options
+		    .getInt("writers", 1), options.getInt("readers", 1));
+	    System.out.println(check.lookups + " lookups, " + check.reads
+		    + " reads, " + torn + " saw a report of no lookup");
+	    if (torn > 0 || check.lookups.get() == 0)
+		System.exit(1);
+	} finally {
+	    server.stop();
+	}
+    }
+}
\ No newline at end of file
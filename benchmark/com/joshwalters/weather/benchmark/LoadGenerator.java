@@ -0,0 +1,246 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather.benchmark;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.joshwalters.weather.GoogleWeatherProvider;
+import com.joshwalters.weather.LatencyHistogram;
+import com.joshwalters.weather.WeatherLookup;
+import com.joshwalters.weather.WeatherLookupException;
+import com.joshwalters.weather.WeatherLookupService;
+import com.joshwalters.weather.WeatherParserType;
+import com.joshwalters.weather.WeatherProvider;
+import com.joshwalters.weather.YahooWeatherProvider;
+
+/**
+ * Drives lookups at a steady rate and reports throughput and latency.
+ * <p>
+ * Lookups are started on a fixed schedule whether or not earlier ones have
+ * finished, and the latency of each is measured from when it was meant to
+ * start. A slow server then shows up as the queue it builds, instead of
+ * quietly lowering the rate and hiding the slow responses.
+ * <p>
+ * Runs against a StubWeatherServer started in the same JVM, or against any
+ * server given with --url. Takes --service (GOOGLE or YAHOO), --parser (DOM,
+ * STREAMING or FAST), --qps, --duration and --warmup in seconds, --threads, and
+ * --zips, the number of zip codes to spread the lookups over. The embedded
+ * server also takes the --latency, --jitter, --error-rate and --payload
+ * options of StubWeatherServer.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public class LoadGenerator {
+
+    private final WeatherLookup weather;
+    private final String[] zipCodes;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final Map<WeatherLookupException.Category, AtomicLong> failed = new EnumMap<WeatherLookupException.Category, AtomicLong>(
+	    WeatherLookupException.Category.class);
+
+    /**
+     * Makes a load generator.
+     * 
+     * @param weather
+     *            the lookup to drive
+     * @param zipCodes
+     *            the number of zip codes to spread the lookups over
+     */
+    public LoadGenerator(WeatherLookup weather, int zipCodes) {
+	if (zipCodes < 1)
+	    throw new IllegalArgumentException("Need at least one zip code.");
+	this.weather = weather;
+	this.zipCodes = new String[zipCodes];
+	for (int i = 0; i < zipCodes; i++)
+	    this.zipCodes[i] = String.format("%05d", 10000 + i % 90000);
+	for (WeatherLookupException.Category category : WeatherLookupException.Category
+		.values())
+	    failed.put(category, new AtomicLong());
+    }
+
+    /**
+     * Runs lookups at a rate and prints what was measured.
+     * 
+     * @param qps
+     *            the lookups to start each second
+     * @param duration
+     *            how long to measure, in seconds
+     * @param warmup
+     *            how long to run first without measuring, in seconds
+     * @param threads
+     *            the most lookups running at once
+     * @throws InterruptedException
+     *             if interrupted while waiting for lookups to finish
+     */
+    public void run(double qps, long duration, long warmup, int threads)
+	    throws InterruptedException {
+	if (warmup > 0) {
+	    drive(qps, TimeUnit.SECONDS.toNanos(warmup), threads);
+	    reset();
+	}
+	long start = System.nanoTime();
+	long sent = drive(qps, TimeUnit.SECONDS.toNanos(duration), threads);
+	report(sent, qps, System.nanoTime() - start);
+    }
+
+    /**
+     * Starts lookups at their intended times for a while, then waits for
+     * them to finish.
+     * 
+     * @return the number of lookups started
+     */
+    private long drive(double qps, long nanos, int threads)
+	    throws InterruptedException {
+	ExecutorService pool = Executors.newFixedThreadPool(threads);
+	try {
+	    long sent = schedule(pool, qps, nanos);
+	    pool.shutdown();
+	    pool.awaitTermination(1, TimeUnit.HOURS);
+	    return sent;
+	} finally {
+	    pool.shutdownNow();
+	}
+    }
+
+    private long schedule(ExecutorService pool, double qps, long nanos) {
+	double interval = TimeUnit.SECONDS.toNanos(1) / qps;
+	long start = System.nanoTime();
+	long sent = 0;
+	for (;; sent++) {
+	    long offset = (long) (sent * interval);
+	    if (offset >= nanos)
+		return sent;
+	    final long intended = start + offset;
+	    long wait = intended - System.nanoTime();
+	    if (wait > 0)
+		LockSupport.parkNanos(wait);
+	    final String zipCode = zipCodes[(int) (sent % zipCodes.length)];
+	    pool.execute(() -> lookup(zipCode, intended));
+	}
+    }
+
+    private void lookup(String zipCode, long intended) {
+	try {
+	    weather.lookupReport(zipCode);
+	    succeeded.incrementAndGet();
+	} catch (WeatherLookupException e) {
+	    failed.get(e.getCategory()).incrementAndGet();
+	} finally {
+	    latency.record(System.nanoTime() - intended);
+	}
+    }
+
+    private void reset() {
+	latency.reset();
+	succeeded.set(0);
+	for (AtomicLong count : failed.values())
+	    count.set(0);
+    }
+
+    private void report(long sent, double qps, long elapsed) {
+	double seconds = elapsed / 1e9;
+	System.out.printf("Lookups:    %d in %.1f s, %.1f/s (target %.1f/s)%n",
+		sent, seconds, latency.getCount() / seconds, qps);
+	System.out.printf("Succeeded:  %d%n", succeeded.get());
+	StringBuilder failures = new StringBuilder();
+	long failedCount = 0;
+	for (Map.Entry<WeatherLookupException.Category, AtomicLong> entry : failed
+		.entrySet()) {
+	    long count = entry.getValue().get();
+	    if (count > 0) {
+		failures.append(' ').append(entry.getKey()).append(' ').append(
+			count);
+		failedCount += count;
+	    }
+	}
+	System.out.printf("Failed:     %d%s%n", failedCount, failures);
+	System.out.printf("Latency ms: p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f"
+		+ "  max %.2f  mean %.2f%n", millis(latency
+		.getValueAtPercentile(50)), millis(latency
+		.getValueAtPercentile(90)), millis(latency
+		.getValueAtPercentile(99)), millis(latency
+		.getValueAtPercentile(99.9)), millis(latency.getMax()), latency
+		.getMean() / 1e6);
+    }
+
+    private static double millis(long nanos) {
+	return nanos / 1e6;
+    }
+
+    /**
+     * Runs a load test, see the class comment for the options.
+     * 
+     * @param args
+     *            the options
+     * @throws IOException
+     *             if the embedded server can not be started
+     * @throws InterruptedException
+     *             if interrupted while running
+     */
+    public static void main(String[] args) throws IOException,
+	    InterruptedException {
+	if (System.getProperty("sun.net.httpserver.nodelay") == null)
+	    System.setProperty("sun.net.httpserver.nodelay", "true");
+	StubWeatherServer.Options options = new StubWeatherServer.Options(args);
+	WeatherLookupService service = WeatherLookupService.valueOf(options
+		.get("service", "YAHOO"));
+	String url = options.get("url", null);
+
+	StubWeatherServer server = null;
+	if (url == null) {
+	    server = new StubWeatherServer();
+	    options.configure(server);
+	    server.start();
+	    url = service == WeatherLookupService.GOOGLE ? server
+		    .getGoogleUrl() : server.getYahooUrl();
+	}
+	try {
+	    WeatherProvider provider = service == WeatherLookupService.GOOGLE ? new GoogleWeatherProvider(
+		    url)
+		    : new YahooWeatherProvider(url);
+	    WeatherLookup weather = new WeatherLookup(provider);
+	    weather.setParserType(WeatherParserType.valueOf(options.get(
+		    "parser", "STREAMING")));
+	    System.out.println("Load testing " + url);
+	    new LoadGenerator(weather, options.getInt("zips", 1000)).run(
+		    options.getDouble("qps", 100), options.getInt("duration",
+			    30), options.getInt("warmup", 5), options.getInt(
+			    "threads", 64));
+	} finally {
+	    if (server != null) {
+		System.out.printf("Server:     %d requests, %d errors%n",
+			server.getRequestCount(), server.getErrorCount());
+		server.stop();
+	    }
+	}
+    }
+}
\ No newline at end of file
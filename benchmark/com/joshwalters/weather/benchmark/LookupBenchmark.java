@@ -0,0 +1,116 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.joshwalters.weather.WeatherLookup;
+import com.joshwalters.weather.WeatherLookupException;
+import com.joshwalters.weather.WeatherParserType;
+import com.joshwalters.weather.WeatherReport;
+import com.joshwalters.weather.WeatherTransport;
+import com.joshwalters.weather.YahooWeatherProvider;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Measures a whole lookup, fetch and parse, against a local server that
+ * serves the recorded Yahoo feed. The server is run with TCP_NODELAY, without
+ * it every response waits on a delayed ACK and the benchmark only measures
+ * that.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+public class LookupBenchmark {
+
+    @Param( { "DOM", "STREAMING", "FAST" })
+    public WeatherParserType parserType;
+
+    /**
+     * Whether the transport sends conditional requests, which the server
+     * answers with 304.
+     */
+    @Param( { "false", "true" })
+    public boolean conditionalRequests;
+
+    private HttpServer server;
+    private WeatherLookup weather;
+
+    @Setup
+    public void setUp() throws IOException {
+	final byte[] feed = Fixtures.load(Fixtures.YAHOO);
+	server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+	server.createContext("/", exchange -> {
+	    if ("\"fixture\"".equals(exchange.getRequestHeaders().getFirst(
+		    "If-None-Match"))) {
+		exchange.sendResponseHeaders(304, -1);
+	    } else {
+		exchange.getResponseHeaders().add("ETag", "\"fixture\"");
+		exchange.sendResponseHeaders(200, feed.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(feed);
+	    }
+	    exchange.close();
+	});
+	server.start();
+
+	weather = new WeatherLookup(new YahooWeatherProvider("http://127.0.0.1:"
+		+ server.getAddress().getPort() + "/forecastrss"));
+	WeatherTransport transport = new WeatherTransport();
+	transport.setConditionalRequests(conditionalRequests);
+	weather.setTransport(transport);
+	weather.setParserType(parserType);
+    }
+
+    @TearDown
+    public void tearDown() {
+	server.stop(0);
+    }
+
+    @Benchmark
+    public WeatherReport lookup() throws WeatherLookupException {
+	return weather.lookupReport("92614");
+    }
+}
\ No newline at end of file
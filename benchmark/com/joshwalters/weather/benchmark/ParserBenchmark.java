@@ -0,0 +1,88 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.joshwalters.weather.WeatherLookupException;
+import com.joshwalters.weather.WeatherLookupService;
+import com.joshwalters.weather.WeatherParserType;
+import com.joshwalters.weather.WeatherProvider;
+import com.joshwalters.weather.WeatherProviders;
+import com.joshwalters.weather.WeatherReport;
+
+/**
+ * Measures parsing the recorded Google and Yahoo feeds into a report, with
+ * each parser type.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param( { "DOM", "STREAMING", "FAST" })
+    public WeatherParserType parserType;
+
+    private byte[] googleFeed;
+    private byte[] yahooFeed;
+    private WeatherProvider google;
+    private WeatherProvider yahoo;
+
+    @Setup
+    public void setUp() throws IOException {
+	googleFeed = Fixtures.load(Fixtures.GOOGLE);
+	yahooFeed = Fixtures.load(Fixtures.YAHOO);
+	google = WeatherProviders.get(WeatherLookupService.GOOGLE);
+	yahoo = WeatherProviders.get(WeatherLookupService.YAHOO);
+    }
+
+    @Benchmark
+    public WeatherReport google() throws WeatherLookupException {
+	return google.parse(new ByteArrayInputStream(googleFeed), parserType);
+    }
+
+    @Benchmark
+    public WeatherReport yahoo() throws WeatherLookupException {
+	return yahoo.parse(new ByteArrayInputStream(yahooFeed), parserType);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,200 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import com.joshwalters.weather.WeatherLookupException;
+import com.joshwalters.weather.WeatherLookupService;
+import com.joshwalters.weather.WeatherParserType;
+import com.joshwalters.weather.WeatherProvider;
+import com.joshwalters.weather.WeatherProviders;
+
+/**
+ * Checks that reusing an XML parser gives the same reports as a fresh one.
+ * <p>
+ * Each thread keeps its own document builder and resets it before every
+ * parse, so a parse on a thread of its own gets a fresh parser. Every feed is
+ * first parsed that way. The main thread then parses all the feeds again in a
+ * shuffled order, many times over, reusing its parser, and every report or
+ * failure must match the fresh one. The feeds are the recorded fixtures, the
+ * generated feeds of StubWeatherServer, and truncated copies of both and
+ * copies with a malformed UTF-8 byte, so a parser is also reused after it
+ * failed part way through a document.
+ * <p>
+ * Takes --zips, the number of generated feeds of each service, and --rounds.
+ * Exits with status 1 if anything differs, or if any parser prints to stderr
+ * instead of failing quietly.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public class ParserCheck {
+
+    private final List<String> names = new ArrayList<String>();
+    private final List<WeatherProvider> providers = new ArrayList<WeatherProvider>();
+    private final List<byte[]> feeds = new ArrayList<byte[]>();
+
+    /**
+     * Makes a check of the fixtures and of generated feeds.
+     * 
+     * @param zipCodes
+     *            the number of feeds to generate for each service
+     * @throws IOException
+     *             if a fixture can not be read
+     */
+    public ParserCheck(int zipCodes) throws IOException {
+	WeatherProvider google = WeatherProviders
+		.get(WeatherLookupService.GOOGLE);
+	WeatherProvider yahoo = WeatherProviders
+		.get(WeatherLookupService.YAHOO);
+	add(Fixtures.GOOGLE, google, Fixtures.load(Fixtures.GOOGLE));
+	add(Fixtures.YAHOO, yahoo, Fixtures.load(Fixtures.YAHOO));
+	for (int i = 0; i < zipCodes; i++) {
+	    String zipCode = String.format("%05d", 10000 + i);
+	    add("google " + zipCode, google, StubWeatherServer.googleFeed(
+		    zipCode).getBytes(StandardCharsets.UTF_8));
+	    add("yahoo " + zipCode, yahoo, StubWeatherServer.yahooFeed(zipCode)
+		    .getBytes(StandardCharsets.UTF_8));
+	}
+    }
+
+    /**
+     * Adds a feed, a truncated copy of it and a copy with a malformed byte.
+     */
+    private void add(String name, WeatherProvider provider, byte[] feed) {
+	names.add(name);
+	providers.add(provider);
+	feeds.add(feed);
+	names.add(name + " truncated");
+	providers.add(provider);
+	feeds.add(Arrays.copyOf(feed, feed.length / 2));
+	names.add(name + " malformed");
+	providers.add(provider);
+	byte[] malformed = feed.clone();
+	malformed[feed.length / 2] = (byte) 0xFF;
+	feeds.add(malformed);
+    }
+
+    /**
+     * Parses every feed fresh, then reused, with one parser type.
+     * 
+     * @param parserType
+     *            the parser type
+     * @param rounds
+     *            the number of times to parse every feed reused
+     * @return the number of parses that differed
+     * @throws InterruptedException
+     *             if interrupted while parsing fresh
+     */
+    public int run(WeatherParserType parserType, int rounds)
+	    throws InterruptedException {
+	Object[] expected = new Object[feeds.size()];
+	for (int i = 0; i < expected.length; i++)
+	    expected[i] = parseFresh(i, parserType);
+
+	List<Integer> order = new ArrayList<Integer>();
+	for (int i = 0; i < feeds.size(); i++)
+	    order.add(i);
+	Random random = new Random(42);
+	int mismatches = 0;
+	for (int round = 0; round < rounds; round++) {
+	    Collections.shuffle(order, random);
+	    for (int i : order) {
+		Object outcome = parse(i, parserType);
+		if (!outcome.equals(expected[i])) {
+		    if (mismatches++ < 10)
+			System.out.println(parserType + " " + names.get(i)
+				+ ": reused " + outcome + ", fresh "
+				+ expected[i]);
+		}
+	    }
+	}
+	return mismatches;
+    }
+
+    /**
+     * Parses a feed on a new thread, which has no parser yet.
+     */
+    private Object parseFresh(final int index,
+	    final WeatherParserType parserType) throws InterruptedException {
+	final Object[] outcome = new Object[1];
+	Thread thread = new Thread(() -> outcome[0] = parse(index, parserType));
+	thread.start();
+	thread.join();
+	return outcome[0];
+    }
+
+    /**
+     * Parses a feed on the calling thread.
+     * 
+     * @return the report, or the category of the failure
+     */
+    private Object parse(int index, WeatherParserType parserType) {
+	try {
+	    return providers.get(index).parse(
+		    new ByteArrayInputStream(feeds.get(index)), parserType);
+	} catch (WeatherLookupException e) {
+	    return e.getCategory();
+	}
+    }
+
+    public static void main(String[] args) throws Exception {
+	StubWeatherServer.Options options = new StubWeatherServer.Options(args);
+
+	// Catch anything the parsers print, set before any parser is made
+	PrintStream stderr = System.err;
+	ByteArrayOutputStream printed = new ByteArrayOutputStream();
+	System.setErr(new PrintStream(printed, true));
+	int mismatches = 0;
+	try {
+	    ParserCheck check = new ParserCheck(options.getInt("zips", 100));
+	    int rounds = options.getInt("rounds", 20);
+	    for (WeatherParserType parserType : WeatherParserType.values()) {
+		int differed = check.run(parserType, rounds);
+		System.out.println(parserType + ": " + rounds
+			* check.feeds.size() + " reused parses, " + differed
+			+ " differed");
+		mismatches += differed;
+	    }
+	} finally {
+	    System.setErr(stderr);
+	}
+
+	if (printed.size() > 0) {
+	    System.out.println("The parsers printed to stderr:");
+	    System.out.print(printed);
+	}
+	if (mismatches > 0 || printed.size() > 0)
+	    System.exit(1);
+    }
+}
\ No newline at end of file
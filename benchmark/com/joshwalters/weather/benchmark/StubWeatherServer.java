@@ -0,0 +1,483 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.TextStyle;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local server that answers like the Google and Yahoo weather services, to
+ * run lookups offline and under load.
+ * <p>
+ * Each zip code gets its own made up but steady weather: the same zip code
+ * always gets the same city and conditions. Responses can be delayed, fail
+ * with 503 at a given rate, and be padded with an XML comment to a given
+ * size. Delayed responses wait on a timer, not on a thread each, so slow
+ * responses do not limit how many requests the server takes.
+ * <p>
+ * Point a provider at it with getGoogleUrl() or getYahooUrl(), e.g.
+ * new YahooWeatherProvider(server.getYahooUrl()). Run the JVM with
+ * -Dsun.net.httpserver.nodelay=true, or every response waits on a delayed ACK.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public class StubWeatherServer {
+
+    /**
+     * The path of the Google feed, it takes the zip code in "weather".
+     */
+    public static final String GOOGLE_PATH = "/ig/api";
+
+    /**
+     * The path of the Yahoo feed, it takes the zip code in "p".
+     */
+    public static final String YAHOO_PATH = "/forecastrss";
+
+    private static final String[] CITIES = { "Irvine, CA", "Austin, TX",
+	    "Portland, OR", "Denver, CO", "Boston, MA", "Madison, WI",
+	    "Tucson, AZ", "Savannah, GA", "Duluth, MN", "Fresno, CA" };
+
+    /**
+     * Conditions with their Google icon and Yahoo code.
+     */
+    private static final String[][] CONDITIONS = {
+	    { "Sunny", "sunny", "32" },
+	    { "Mostly Sunny", "mostly_sunny", "34" },
+	    { "Partly Cloudy", "partly_cloudy", "30" },
+	    { "Cloudy", "cloudy", "26" },
+	    { "Chance of Rain", "chance_of_rain", "39" },
+	    { "Rain", "rain", "12" }, { "Fog", "fog", "20" },
+	    { "Snow", "snow", "16" } };
+
+    private static final String[] DIRECTIONS = { "N", "NE", "E", "SE", "S",
+	    "SW", "W", "NW" };
+
+    private final int port;
+    private volatile long latencyMillis;
+    private volatile long latencyJitterMillis;
+    private volatile double errorRate;
+    private volatile int payloadSize;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    private HttpServer server;
+    private ScheduledExecutorService timer;
+
+    /**
+     * Makes a server that listens on a free port.
+     */
+    public StubWeatherServer() {
+	this(0);
+    }
+
+    /**
+     * Makes a server.
+     * 
+     * @param port
+     *            the port to listen on, 0 for any free port
+     */
+    public StubWeatherServer(int port) {
+	this.port = port;
+    }
+
+    /**
+     * Starts listening on the loopback address.
+     * 
+     * @throws IOException
+     *             if the port can not be bound
+     */
+    public synchronized void start() throws IOException {
+	if (server != null)
+	    return;
+	timer = Executors.newScheduledThreadPool(2, runnable -> {
+	    Thread thread = new Thread(runnable, "stub-weather-timer");
+	    thread.setDaemon(true);
+	    return thread;
+	});
+	server = HttpServer.create(new InetSocketAddress("127.0.0.1", port),
+		1024);
+	server.createContext(GOOGLE_PATH, exchange -> handle(exchange, true));
+	server.createContext(YAHOO_PATH, exchange -> handle(exchange, false));
+	server.setExecutor(Executors.newFixedThreadPool(Runtime.getRuntime()
+		.availableProcessors(), runnable -> {
+	    Thread thread = new Thread(runnable, "stub-weather");
+	    thread.setDaemon(true);
+	    return thread;
+	}));
+	server.start();
+    }
+
+    /**
+     * Stops the server, dropping delayed responses.
+     */
+    public synchronized void stop() {
+	if (server == null)
+	    return;
+	server.stop(0);
+	timer.shutdownNow();
+	server = null;
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public synchronized int getPort() {
+	if (server == null)
+	    throw new IllegalStateException("Server not started.");
+	return server.getAddress().getPort();
+    }
+
+    /**
+     * @return the base URL of the Google feed, for GoogleWeatherProvider
+     */
+    public String getGoogleUrl() {
+	return "http://127.0.0.1:" + getPort() + GOOGLE_PATH;
+    }
+
+    /**
+     * @return the base URL of the Yahoo feed, for YahooWeatherProvider
+     */
+    public String getYahooUrl() {
+	return "http://127.0.0.1:" + getPort() + YAHOO_PATH;
+    }
+
+    /**
+     * Sets how long each response is delayed.
+     * 
+     * @param latency
+     *            the shortest delay
+     * @param jitter
+     *            the most added to it at random
+     * @param unit
+     *            the unit of both
+     */
+    public void setLatency(long latency, long jitter, TimeUnit unit) {
+	if (latency < 0 || jitter < 0)
+	    throw new IllegalArgumentException("Latency can not be negative.");
+	this.latencyMillis = unit.toMillis(latency);
+	this.latencyJitterMillis = unit.toMillis(jitter);
+    }
+
+    /**
+     * @param errorRate
+     *            the fraction of requests answered with 503, from 0 to 1
+     */
+    public void setErrorRate(double errorRate) {
+	if (errorRate < 0 || errorRate > 1)
+	    throw new IllegalArgumentException("Error rate must be from 0 to 1.");
+	this.errorRate = errorRate;
+    }
+
+    /**
+     * @param payloadSize
+     *            the size in bytes feeds are padded to, 0 for no padding
+     */
+    public void setPayloadSize(int payloadSize) {
+	if (payloadSize < 0)
+	    throw new IllegalArgumentException(
+		    "Payload size can not be negative.");
+	this.payloadSize = payloadSize;
+    }
+
+    /**
+     * @return the number of requests answered
+     */
+    public long getRequestCount() {
+	return requests.get();
+    }
+
+    /**
+     * @return the number of requests answered with an error
+     */
+    public long getErrorCount() {
+	return errors.get();
+    }
+
+    private void handle(final HttpExchange exchange, boolean google)
+	    throws IOException {
+	requests.incrementAndGet();
+	String zipCode = parameter(exchange.getRequestURI().getRawQuery(),
+		google ? "weather" : "p");
+
+	final int status;
+	final byte[] body;
+	ThreadLocalRandom random = ThreadLocalRandom.current();
+	if (zipCode == null) {
+	    status = 400;
+	    body = null;
+	} else if (errorRate > 0 && random.nextDouble() < errorRate) {
+	    errors.incrementAndGet();
+	    status = 503;
+	    body = null;
+	} else {
+	    status = 200;
+	    String feed = google ? googleFeed(zipCode) : yahooFeed(zipCode);
+	    body = pad(feed).getBytes(StandardCharsets.UTF_8);
+	}
+
+	long delay = latencyMillis;
+	if (latencyJitterMillis > 0)
+	    delay += random.nextLong(latencyJitterMillis + 1);
+	if (delay == 0) {
+	    respond(exchange, status, body);
+	    return;
+	}
+	timer.schedule(() -> {
+	    try {
+		respond(exchange, status, body);
+	    } catch (IOException e) {
+		// The client went away
+		exchange.close();
+	    }
+	}, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static void respond(HttpExchange exchange, int status,
+	    byte[] body) throws IOException {
+	try {
+	    if (body == null) {
+		exchange.sendResponseHeaders(status, -1);
+		return;
+	    }
+	    exchange.getResponseHeaders().add("Content-Type",
+		    "text/xml; charset=UTF-8");
+	    exchange.sendResponseHeaders(status, body.length);
+	    OutputStream out = exchange.getResponseBody();
+	    out.write(body);
+	} finally {
+	    exchange.close();
+	}
+    }
+
+    private static String parameter(String query, String name) {
+	if (query == null)
+	    return null;
+	for (String pair : query.split("&")) {
+	    int equals = pair.indexOf('=');
+	    if (equals > 0 && pair.substring(0, equals).equals(name))
+		return pair.substring(equals + 1);
+	}
+	return null;
+    }
+
+    /**
+     * Pads a feed with a comment after its last element.
+     */
+    private String pad(String feed) {
+	int missing = payloadSize - feed.length() - 9;
+	if (missing <= 0)
+	    return feed;
+	StringBuilder padded = new StringBuilder(payloadSize).append(feed)
+		.append("<!-- ");
+	for (int i = 0; i < missing; i++)
+	    padded.append((char) ('a' + i % 26));
+	return padded.append(" -->").toString();
+    }
+
+    /**
+     * Makes a Google feed for a zip code.
+     * 
+     * @param zipCode
+     *            Zip code
+     * @return the feed
+     */
+    static String googleFeed(String zipCode) {
+	Random random = new Random(zipCode.hashCode());
+	String city = CITIES[random.nextInt(CITIES.length)];
+	String[] condition = CONDITIONS[random.nextInt(CONDITIONS.length)];
+	int tempF = 30 + random.nextInt(65);
+	LocalDate today = LocalDate.now();
+
+	StringBuilder feed = new StringBuilder(2048);
+	feed.append("<?xml version=\"1.0\"?><xml_api_reply version=\"1\">")
+		.append("<weather module_id=\"0\" tab_id=\"0\" mobile_row=\"0\"")
+		.append(" mobile_zipped=\"1\" row=\"0\" section=\"0\" >");
+	feed.append("<forecast_information><city data=\"").append(city)
+		.append("\"/><postal_code data=\"").append(zipCode).append(
+			"\"/><latitude_e6 data=\"\"/><longitude_e6 data=\"\"/>")
+		.append("<forecast_date data=\"").append(today).append(
+			"\"/><current_date_time data=\"").append(today).append(
+			" 20:53:00 +0000\"/><unit_system data=\"US\"/>").append(
+			"</forecast_information>");
+	feed.append("<current_conditions><condition data=\"").append(
+		condition[0]).append("\"/><temp_f data=\"").append(tempF)
+		.append("\"/><temp_c data=\"").append(
+			Math.round((tempF - 32) * 5 / 9.0)).append(
+			"\"/><humidity data=\"Humidity: ").append(
+			20 + random.nextInt(70)).append(
+			"%\"/><icon data=\"/ig/images/weather/").append(
+			condition[1]).append(
+			".gif\"/><wind_condition data=\"Wind: ").append(
+			DIRECTIONS[random.nextInt(DIRECTIONS.length)]).append(
+			" at ").append(random.nextInt(25)).append(
+			" mph\"/></current_conditions>");
+	for (int day = 0; day < 4; day++) {
+	    String[] forecast = CONDITIONS[random.nextInt(CONDITIONS.length)];
+	    int low = tempF - 20 + random.nextInt(10);
+	    feed.append("<forecast_conditions><day_of_week data=\"").append(
+		    dayName(today.plusDays(day))).append(
+		    "\"/><low data=\"").append(low).append(
+		    "\"/><high data=\"").append(low + 10 + random.nextInt(15))
+		    .append("\"/><icon data=\"/ig/images/weather/").append(
+			    forecast[1]).append(".gif\"/><condition data=\"")
+		    .append(forecast[0]).append("\"/></forecast_conditions>");
+	}
+	return feed.append("</weather></xml_api_reply>").toString();
+    }
+
+    /**
+     * Makes a Yahoo feed for a zip code.
+     * 
+     * @param zipCode
+     *            Zip code
+     * @return the feed
+     */
+    static String yahooFeed(String zipCode) {
+	Random random = new Random(zipCode.hashCode());
+	String city = CITIES[random.nextInt(CITIES.length)];
+	String town = city.substring(0, city.indexOf(','));
+	String region = city.substring(city.indexOf(',') + 2);
+	String[] condition = CONDITIONS[random.nextInt(CONDITIONS.length)];
+	int temp = 30 + random.nextInt(65);
+	LocalDate today = LocalDate.now();
+
+	StringBuilder feed = new StringBuilder(4096);
+	feed.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\" ?>\n")
+		.append("<rss version=\"2.0\" xmlns:yweather=\"http://xml.weather.yahoo.com/ns/rss/1.0\"")
+		.append(" xmlns:geo=\"http://www.w3.org/2003/01/geo/wgs84_pos#\">\n<channel>\n");
+	feed.append("<title>Yahoo! Weather - ").append(city).append(
+		"</title>\n<description>Yahoo! Weather for ").append(city)
+		.append("</description>\n<language>en-us</language>\n<ttl>60</ttl>\n");
+	feed.append("<yweather:location city=\"").append(town).append(
+		"\" region=\"").append(region).append(
+		"\"   country=\"US\"/>\n");
+	feed.append("<yweather:units temperature=\"F\" distance=\"mi\" pressure=\"in\" speed=\"mph\"/>\n");
+	feed.append("<yweather:wind chill=\"").append(temp).append(
+		"\"   direction=\"").append(random.nextInt(360)).append(
+		"\"   speed=\"").append(random.nextInt(25)).append("\" />\n");
+	feed.append("<yweather:atmosphere humidity=\"").append(
+		20 + random.nextInt(70)).append(
+		"\"  visibility=\"10\"  pressure=\"29.92\"  rising=\"0\" />\n");
+	feed.append("<item>\n<title>Conditions for ").append(city).append(
+		"</title>\n");
+	feed.append("<yweather:condition  text=\"").append(condition[0])
+		.append("\"  code=\"").append(condition[2]).append(
+			"\"  temp=\"").append(temp).append("\" />\n");
+	feed.append("<description><![CDATA[\n<b>Current Conditions:</b><br />\n")
+		.append(condition[0]).append(", ").append(temp).append(
+			" F<BR />\n]]></description>\n");
+	for (int day = 0; day < 2; day++) {
+	    String[] forecast = CONDITIONS[random.nextInt(CONDITIONS.length)];
+	    int low = temp - 20 + random.nextInt(10);
+	    feed.append("<yweather:forecast day=\"").append(
+		    dayName(today.plusDays(day))).append("\" low=\"").append(
+		    low).append("\" high=\"").append(
+		    low + 10 + random.nextInt(15)).append("\" text=\"")
+		    .append(forecast[0]).append("\" code=\"").append(
+			    forecast[2]).append("\" />\n");
+	}
+	return feed.append("</item>\n</channel>\n</rss>\n").toString();
+    }
+
+    private static String dayName(LocalDate date) {
+	return date.getDayOfWeek().getDisplayName(TextStyle.SHORT,
+		Locale.US);
+    }
+
+    /**
+     * Runs a server until the process is stopped. Takes --port, --latency
+     * and --jitter in milliseconds, --error-rate and --payload in bytes.
+     * 
+     * @param args
+     *            the options
+     * @throws IOException
+     *             if the port can not be bound
+     */
+    public static void main(String[] args) throws IOException {
+	if (System.getProperty("sun.net.httpserver.nodelay") == null)
+	    System.setProperty("sun.net.httpserver.nodelay", "true");
+	Options options = new Options(args);
+	StubWeatherServer server = new StubWeatherServer(options.getInt(
+		"port", 8080));
+	options.configure(server);
+	server.start();
+	System.out.println("Google feed at " + server.getGoogleUrl());
+	System.out.println("Yahoo feed at " + server.getYahooUrl());
+    }
+
+    /**
+     * Command line options of the form --name value.
+     */
+    static final class Options {
+	private final String[] args;
+
+	Options(String[] args) {
+	    for (int i = 0; i < args.length; i += 2) {
+		if (!args[i].startsWith("--") || i + 1 == args.length)
+		    throw new IllegalArgumentException("Expected --name value, got "
+			    + args[i]);
+	    }
+	    this.args = args;
+	}
+
+	String get(String name, String defaultValue) {
+	    for (int i = 0; i + 1 < args.length; i += 2)
+		if (args[i].equals("--" + name))
+		    return args[i + 1];
+	    return defaultValue;
+	}
+
+	int getInt(String name, int defaultValue) {
+	    return Integer.parseInt(get(name, Integer.toString(defaultValue)));
+	}
+
+	double getDouble(String name, double defaultValue) {
+	    return Double.parseDouble(get(name, Double.toString(defaultValue)));
+	}
+
+	/**
+	 * Sets the latency, error rate and payload size of a server.
+	 */
+	void configure(StubWeatherServer server) {
+	    server.setLatency(getInt("latency", 0), getInt("jitter", 0),
+		    TimeUnit.MILLISECONDS);
+	    server.setErrorRate(getDouble("error-rate", 0));
+	    server.setPayloadSize(getInt("payload", 0));
+	}
+    }
+}
\ No newline at end of file
@@ -27,14 +27,15 @@ public class ExampleUsage {
 		
 		try {
 			weather.lookup(args[0]); // Use the user supplied zip code
+			WeatherReport report = weather.getLastReport();
 		
 			System.out.println("\nCurrent weather:");
-			printWeatherConditions(weather.currentWeatherConditions);
+			printWeatherConditions(report.getCurrentWeatherConditions());
 
-			Iterator iterator = weather.futureWeatherConditions.iterator();
+			Iterator<WeatherCondition> iterator = report.getFutureWeatherConditions().iterator();
 			System.out.println("Future weather predictions: \n");
 			while(iterator.hasNext()) {
-				printWeatherConditions((WeatherCondition)iterator.next());
+				printWeatherConditions(iterator.next());
 			}
 		
 		} catch (WeatherLookupException e) {
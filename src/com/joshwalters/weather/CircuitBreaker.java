@@ -0,0 +1,210 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops sending lookups to a provider that keeps failing.
+ * <p>
+ * The breaker starts closed and lets every request through. After a number
+ * of failures in a row it opens, and requests are refused until the open
+ * time has passed. Then one trial request is let through: if it succeeds the
+ * breaker closes again, if it fails the breaker stays open for another open
+ * time.
+ * <p>
+ * A breaker is thread safe.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ * @see HedgingPolicy
+ */
+public class CircuitBreaker {
+
+    /**
+     * The states of a breaker.
+     */
+    public enum State {
+	/**
+	 * Requests are let through.
+	 */
+	CLOSED,
+
+	/**
+	 * Requests are refused.
+	 */
+	OPEN,
+
+	/**
+	 * One trial request has been let through and not finished.
+	 */
+	HALF_OPEN
+    }
+
+    /**
+     * The default number of failures in a row that open the breaker.
+     */
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+    /**
+     * The default time the breaker stays open, in seconds.
+     */
+    public static final long DEFAULT_OPEN_SECONDS = 30;
+
+    private volatile int failureThreshold;
+    private volatile long openNanos;
+
+    /**
+     * Stores the state. Guarded by this, as are the fields below.
+     */
+    private State state = State.CLOSED;
+
+    /**
+     * Stores the number of failures in a row.
+     */
+    private int failures;
+
+    /**
+     * Stores when the breaker last opened, from System.nanoTime().
+     */
+    private long openedAt;
+
+    /**
+     * Makes a breaker with the default threshold and open time.
+     */
+    public CircuitBreaker() {
+	this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Makes a breaker.
+     * 
+     * @param failureThreshold
+     *            the number of failures in a row that open the breaker
+     * @param openTime
+     *            the time the breaker stays open before a trial request
+     * @param unit
+     *            the unit of openTime
+     */
+    public CircuitBreaker(int failureThreshold, long openTime, TimeUnit unit) {
+	setFailureThreshold(failureThreshold);
+	setOpenTime(openTime, unit);
+    }
+
+    /**
+     * Asks to send a request. A caller that is allowed must report how the
+     * request ended with recordSuccess(), recordFailure() or
+     * recordCancelled().
+     * 
+     * @return true if the request may be sent
+     */
+    public synchronized boolean allowRequest() {
+	switch (state) {
+	case CLOSED:
+	    return true;
+	case OPEN:
+	    if (System.nanoTime() - openedAt < openNanos)
+		return false;
+	    state = State.HALF_OPEN;
+	    return true;
+	default:
+	    // Only one trial at a time
+	    return false;
+	}
+    }
+
+    /**
+     * Records a request that the provider answered.
+     */
+    public synchronized void recordSuccess() {
+	failures = 0;
+	state = State.CLOSED;
+    }
+
+    /**
+     * Records a request that failed because of the provider.
+     */
+    public synchronized void recordFailure() {
+	failures++;
+	if (state == State.HALF_OPEN || failures >= failureThreshold) {
+	    state = State.OPEN;
+	    openedAt = System.nanoTime();
+	}
+    }
+
+    /**
+     * Records a request that was cancelled before it finished. If it was the
+     * trial request, the next request is let through as a new trial.
+     */
+    public synchronized void recordCancelled() {
+	if (state == State.HALF_OPEN)
+	    state = State.OPEN;
+    }
+
+    /**
+     * @return the state
+     */
+    public synchronized State getState() {
+	return state;
+    }
+
+    /**
+     * @return the number of failures in a row that open the breaker
+     */
+    public int getFailureThreshold() {
+	return failureThreshold;
+    }
+
+    /**
+     * @param failureThreshold
+     *            the number of failures in a row that open the breaker, at
+     *            least 1
+     */
+    public void setFailureThreshold(int failureThreshold) {
+	if (failureThreshold < 1)
+	    throw new IllegalArgumentException(
+		    "Failure threshold must be at least 1.");
+	this.failureThreshold = failureThreshold;
+    }
+
+    /**
+     * @param unit
+     *            the unit of the result
+     * @return the time the breaker stays open before a trial request
+     */
+    public long getOpenTime(TimeUnit unit) {
+	return unit.convert(openNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param openTime
+     *            the time the breaker stays open before a trial request
+     * @param unit
+     *            the unit of openTime
+     */
+    public void setOpenTime(long openTime, TimeUnit unit) {
+	if (openTime < 0)
+	    throw new IllegalArgumentException("Open time can not be negative.");
+	this.openNanos = unit.toNanos(openTime);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,411 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.time.DayOfWeek;
+import java.util.Arrays;
+
+/**
+ * An immutable weather condition with its values stored as numbers and
+ * enums instead of Strings. It takes a fraction of the memory of a
+ * WeatherCondition and can be shared freely between threads.
+ * <p>
+ * Values the feed did not report are returned as MISSING by the int getters
+ * and as null by the others. A value that can not be stored as a number,
+ * such as a temperature of "N/A", is kept as text so nothing is lost when
+ * converting back with toWeatherCondition().
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public final class CompactWeatherCondition {
+
+    /**
+     * Returned by the int getters for a value that was not reported.
+     */
+    public static final int MISSING = Integer.MIN_VALUE;
+
+    /**
+     * Stored in the short fields for a value that was not reported.
+     */
+    private static final short NO_VALUE = Short.MIN_VALUE;
+
+    /**
+     * The abbreviations the feeds use for days, in DayOfWeek order.
+     */
+    private static final String[] DAY_ABBREVIATIONS = { "Mon", "Tue", "Wed",
+	    "Thu", "Fri", "Sat", "Sun" };
+
+    private final String location;
+    private final short conditionCode;
+    private final short tempF;
+    private final short tempC;
+    private final byte humidity;
+    private final CompassDirection windDirection;
+    private final short windSpeed;
+    private final DayOfWeek dayOfWeek;
+    private final short lowTemperature;
+    private final short highTemperature;
+
+    /**
+     * Stores the original text of every field, only when some field could
+     * not be stored as a number. Null otherwise.
+     */
+    private final String[] text;
+
+    private CompactWeatherCondition(String location, short conditionCode,
+	    short tempF, short tempC, byte humidity,
+	    CompassDirection windDirection, short windSpeed,
+	    DayOfWeek dayOfWeek, short lowTemperature, short highTemperature,
+	    String[] text) {
+	this.location = location;
+	this.conditionCode = conditionCode;
+	this.tempF = tempF;
+	this.tempC = tempC;
+	this.humidity = humidity;
+	this.windDirection = windDirection;
+	this.windSpeed = windSpeed;
+	this.dayOfWeek = dayOfWeek;
+	this.lowTemperature = lowTemperature;
+	this.highTemperature = highTemperature;
+	this.text = text;
+    }
+
+    /**
+     * Makes a compact weather condition from its values, as returned by the
+     * getters. Used to read conditions back from a snapshot.
+     * 
+     * @param text
+     *            the original text of every field, or null
+     */
+    static CompactWeatherCondition of(String location,
+	    String generalWeatherCondition, int tempF, int tempC,
+	    int humidity, CompassDirection windDirection, int windSpeed,
+	    DayOfWeek dayOfWeek, int lowTemperature, int highTemperature,
+	    String[] text) {
+	short conditionCode = ConditionCodes.code(generalWeatherCondition);
+	CompactWeatherCondition compact = new CompactWeatherCondition(
+		location, conditionCode, toShort(tempF), toShort(tempC),
+		humidity == MISSING ? -1 : (byte) humidity, windDirection,
+		toShort(windSpeed), dayOfWeek, toShort(lowTemperature),
+		toShort(highTemperature), text);
+	if (text != null || conditionCode != ConditionCodes.NONE
+		|| generalWeatherCondition == null)
+	    return compact;
+
+	// The condition got no code here, so keep it as text
+	String[] fields = fields(compact.toWeatherCondition());
+	fields[1] = generalWeatherCondition;
+	return compact.withText(fields);
+    }
+
+    /**
+     * Makes a compact copy of a weather condition.
+     * 
+     * @param condition
+     *            the weather condition
+     * @return the compact copy
+     */
+    public static CompactWeatherCondition from(WeatherCondition condition) {
+	// Parse the wind condition, e.g. "SW at 9 mph"
+	CompassDirection windDirection = null;
+	short windSpeed = NO_VALUE;
+	boolean exact = true;
+	String wind = condition.getWindCondition();
+	if (wind != null) {
+	    int at = wind.indexOf(" at ");
+	    String speed = null;
+	    if (at > 0 && wind.endsWith(" mph")) {
+		windDirection = CompassDirection.fromLabel(wind
+			.substring(0, at));
+		speed = wind.substring(at + 4, wind.length() - 4);
+		windSpeed = parseShort(speed);
+	    }
+	    exact = windDirection != null && isFormatted(windSpeed, speed);
+	}
+
+	// Parse the humidity, e.g. "45%"
+	String humidityText = condition.getHumidity();
+	int percent = WeatherUnits.parseHumidity(humidityText);
+	byte humidity = percent == WeatherUnits.MISSING ? -1 : (byte) percent;
+
+	String general = condition.getGeneralWeatherCondition();
+	short conditionCode = ConditionCodes.code(general);
+	String day = condition.getDayOfWeek();
+	DayOfWeek dayOfWeek = parseDay(day);
+	short tempF = parseShort(condition.getTempF());
+	short tempC = parseShort(condition.getTempC());
+	short low = parseShort(condition.getLowTemperature());
+	short high = parseShort(condition.getHighTemperature());
+
+	// Keep the text if any field would not convert back the same
+	exact = exact
+		&& (general == null || conditionCode != ConditionCodes.NONE)
+		&& (humidityText == null ? humidity < 0 : humidityText
+			.equals(WeatherUnits.formatHumidity(humidity)))
+		&& (day == null || dayOfWeek != null)
+		&& isFormatted(tempF, condition.getTempF())
+		&& isFormatted(tempC, condition.getTempC())
+		&& isFormatted(low, condition.getLowTemperature())
+		&& isFormatted(high, condition.getHighTemperature());
+	return new CompactWeatherCondition(condition.getLocation(),
+		conditionCode, tempF, tempC, humidity, windDirection,
+		windSpeed, dayOfWeek, low, high, exact ? null
+			: fields(condition));
+    }
+
+    /**
+     * Makes a new WeatherCondition with the same values.
+     * 
+     * @return the weather condition
+     */
+    public WeatherCondition toWeatherCondition() {
+	WeatherCondition condition = new WeatherCondition();
+	if (text != null) {
+	    condition.setLocation(text[0]);
+	    condition.setGeneralWeatherCondition(text[1]);
+	    condition.setTempF(text[2]);
+	    condition.setTempC(text[3]);
+	    condition.setHumidity(text[4]);
+	    condition.setWindCondition(text[5]);
+	    condition.setDayOfWeek(text[6]);
+	    condition.setLowTemperature(text[7]);
+	    condition.setHighTemperature(text[8]);
+	    return condition;
+	}
+
+	condition.setLocation(location);
+	condition.setGeneralWeatherCondition(getGeneralWeatherCondition());
+	condition.setTempF(format(tempF));
+	condition.setTempC(format(tempC));
+	if (humidity >= 0)
+	    condition.setHumidity(humidity + "%");
+	if (windDirection != null && windSpeed != NO_VALUE)
+	    condition.setWindCondition(windDirection + " at " + windSpeed
+		    + " mph");
+	if (dayOfWeek != null)
+	    condition.setDayOfWeek(DAY_ABBREVIATIONS[dayOfWeek.ordinal()]);
+	condition.setLowTemperature(format(lowTemperature));
+	condition.setHighTemperature(format(highTemperature));
+	return condition;
+    }
+
+    /**
+     * @return a copy of this condition that keeps the text of every field
+     */
+    private CompactWeatherCondition withText(String[] text) {
+	return new CompactWeatherCondition(location, conditionCode, tempF,
+		tempC, humidity, windDirection, windSpeed, dayOfWeek,
+		lowTemperature, highTemperature, text);
+    }
+
+    /**
+     * @return the original text of every field, or null if every field was
+     *         stored as a number. Not a copy, must not be modified.
+     */
+    String[] getText() {
+	return text;
+    }
+
+    /**
+     * @return the location
+     */
+    public String getLocation() {
+	return location;
+    }
+
+    /**
+     * @return the code of the general weather condition, see ConditionCodes
+     */
+    public int getConditionCode() {
+	return conditionCode;
+    }
+
+    /**
+     * @return the general weather condition
+     */
+    public String getGeneralWeatherCondition() {
+	return ConditionCodes.condition(conditionCode);
+    }
+
+    /**
+     * @return the temperature in Fahrenheit, or MISSING
+     */
+    public int getTempF() {
+	return value(tempF);
+    }
+
+    /**
+     * @return the temperature in Celsius, or MISSING
+     */
+    public int getTempC() {
+	return value(tempC);
+    }
+
+    /**
+     * @return the humidity as a percentage, or MISSING
+     */
+    public int getHumidity() {
+	return humidity < 0 ? MISSING : humidity;
+    }
+
+    /**
+     * @return the direction of the wind, or null
+     */
+    public CompassDirection getWindDirection() {
+	return windDirection;
+    }
+
+    /**
+     * @return the speed of the wind in mph, or MISSING
+     */
+    public int getWindSpeed() {
+	return value(windSpeed);
+    }
+
+    /**
+     * @return the day of the week, or null
+     */
+    public DayOfWeek getDayOfWeek() {
+	return dayOfWeek;
+    }
+
+    /**
+     * @return the predicted low temperature, or MISSING
+     */
+    public int getLowTemperature() {
+	return value(lowTemperature);
+    }
+
+    /**
+     * @return the predicted high temperature, or MISSING
+     */
+    public int getHighTemperature() {
+	return value(highTemperature);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+	if (this == o)
+	    return true;
+	if (!(o instanceof CompactWeatherCondition))
+	    return false;
+	CompactWeatherCondition other = (CompactWeatherCondition) o;
+	return conditionCode == other.conditionCode && tempF == other.tempF
+		&& tempC == other.tempC && humidity == other.humidity
+		&& windDirection == other.windDirection
+		&& windSpeed == other.windSpeed
+		&& dayOfWeek == other.dayOfWeek
+		&& lowTemperature == other.lowTemperature
+		&& highTemperature == other.highTemperature
+		&& (location == null ? other.location == null : location
+			.equals(other.location))
+		&& Arrays.equals(text, other.text);
+    }
+
+    @Override
+    public int hashCode() {
+	int hash = location == null ? 0 : location.hashCode();
+	hash = 31 * hash + conditionCode;
+	hash = 31 * hash + tempF;
+	hash = 31 * hash + tempC;
+	hash = 31 * hash + humidity;
+	hash = 31 * hash + windSpeed;
+	hash = 31 * hash + lowTemperature;
+	hash = 31 * hash + highTemperature;
+	return 31 * hash + Arrays.hashCode(text);
+    }
+
+    private static String[] fields(WeatherCondition condition) {
+	return new String[] { condition.getLocation(),
+		condition.getGeneralWeatherCondition(), condition.getTempF(),
+		condition.getTempC(), condition.getHumidity(),
+		condition.getWindCondition(), condition.getDayOfWeek(),
+		condition.getLowTemperature(), condition.getHighTemperature() };
+    }
+
+    private static int value(short value) {
+	return value == NO_VALUE ? MISSING : value;
+    }
+
+    private static short toShort(int value) {
+	return value == MISSING ? NO_VALUE : (short) value;
+    }
+
+    private static String format(short value) {
+	return value == NO_VALUE ? null : String.valueOf(value);
+    }
+
+    /**
+     * Checks that a value parsed by parseShort() is written back as the same
+     * text, which it is not for text such as "+5", "05", "-0" or digits other
+     * than ASCII ones.
+     * 
+     * @param value
+     *            the parsed value
+     * @param text
+     *            the text it was parsed from
+     * @return true if format() gives the text back
+     */
+    private static boolean isFormatted(short value, String text) {
+	if (value == NO_VALUE)
+	    return text == null;
+	int i = text.charAt(0) == '-' ? 1 : 0;
+	if (text.charAt(i) == '0' && text.length() > 1)
+	    return false;
+	for (; i < text.length(); i++) {
+	    char c = text.charAt(i);
+	    if (c < '0' || c > '9')
+		return false;
+	}
+	return true;
+    }
+
+    /**
+     * Parses a whole number that fits in a short.
+     * 
+     * @param text
+     *            the number
+     * @return the number, or NO_VALUE if it is missing or not a short
+     */
+    private static short parseShort(String text) {
+	if (text == null || text.length() == 0 || text.length() > 6)
+	    return NO_VALUE;
+	try {
+	    int value = Integer.parseInt(text);
+	    if (value <= NO_VALUE || value > Short.MAX_VALUE)
+		return NO_VALUE;
+	    return (short) value;
+	} catch (NumberFormatException e) {
+	    return NO_VALUE;
+	}
+    }
+
+    private static DayOfWeek parseDay(String text) {
+	for (int i = 0; i < DAY_ABBREVIATIONS.length; i++) {
+	    if (DAY_ABBREVIATIONS[i].equals(text))
+		return DayOfWeek.of(i + 1);
+	}
+	return null;
+    }
+}
\ No newline at end of file
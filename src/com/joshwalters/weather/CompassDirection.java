@@ -0,0 +1,48 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+/**
+ * The points of the compass that wind directions are reported in.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public enum CompassDirection {
+    N, NNE, NE, ENE, E, ESE, SE, SSE, S, SSW, SW, WSW, W, WNW, NW, NNW;
+
+    /**
+     * Gets the direction with a given label, such as "SW".
+     * 
+     * @param label
+     *            the label
+     * @return the direction, or null if the label is not a compass point
+     */
+    public static CompassDirection fromLabel(String label) {
+	for (CompassDirection direction : values()) {
+	    if (direction.name().equals(label))
+		return direction;
+	}
+	return null;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,148 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gives every distinct general weather condition, such as "Partly Cloudy", a
+ * small number. The feeds only use a few dozen conditions, so storing the
+ * number instead of the text saves a String per weather condition.
+ * <p>
+ * Codes are shared by the whole JVM and never freed, so a feed that makes up
+ * a new condition for every report could otherwise fill memory. At most
+ * MAX_CODES conditions of no more than MAX_LENGTH characters get a code.
+ * Any other condition gets NONE, and CompactWeatherCondition keeps it as
+ * text with the report instead, so it is freed with the report.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public final class ConditionCodes {
+
+    /**
+     * The code used when there is no condition.
+     */
+    public static final short NONE = -1;
+
+    /**
+     * The most conditions given a code. The feeds use a few dozen.
+     */
+    public static final int MAX_CODES = 1024;
+
+    /**
+     * The longest condition given a code.
+     */
+    public static final int MAX_LENGTH = 64;
+
+    /**
+     * Stores the code of each condition.
+     */
+    private static final ConcurrentHashMap<String, Short> codes = new ConcurrentHashMap<String, Short>();
+
+    /**
+     * Stores the condition of each code. Replaced, never modified, when it
+     * grows.
+     */
+    private static volatile String[] conditions = new String[64];
+
+    /**
+     * Stores the number of codes handed out. Guarded by the class lock.
+     */
+    private static int count;
+
+    private ConditionCodes() {
+    }
+
+    /**
+     * Gets the code of a condition, giving it a new code if it has none.
+     * 
+     * @param condition
+     *            the condition
+     * @return the code, or NONE if the condition is null, longer than
+     *         MAX_LENGTH, or there are no codes left
+     */
+    public static short code(String condition) {
+	if (condition == null || condition.length() > MAX_LENGTH)
+	    return NONE;
+	Short code = codes.get(condition);
+	if (code != null)
+	    return code;
+	return newCode(condition);
+    }
+
+    /**
+     * Gets the code of a condition without giving it one, for looking up
+     * conditions that come from queries rather than feeds.
+     * 
+     * @param condition
+     *            the condition
+     * @return the code, or NONE if the condition is null or has no code
+     */
+    public static short find(String condition) {
+	if (condition == null)
+	    return NONE;
+	Short code = codes.get(condition);
+	return code == null ? NONE : code;
+    }
+
+    /**
+     * Gets the condition for a code.
+     * 
+     * @param code
+     *            the code
+     * @return the condition, or null for NONE
+     */
+    public static String condition(int code) {
+	if (code < 0)
+	    return null;
+	return conditions[code];
+    }
+
+    /**
+     * @return the number of codes handed out
+     */
+    public static synchronized int size() {
+	return count;
+    }
+
+    private static synchronized short newCode(String condition) {
+	Short code = codes.get(condition);
+	if (code != null)
+	    return code;
+	if (count == MAX_CODES)
+	    return NONE;
+
+	// Publish the text before the code, so readers never see a code
+	// without its text
+	String[] table = conditions;
+	if (count == table.length)
+	    table = Arrays.copyOf(table, table.length * 2);
+	table[count] = condition;
+	conditions = table;
+	code = (short) count++;
+	codes.put(condition, code);
+	return code;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,132 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Assigns keys to members with consistent hashing.
+ * <p>
+ * Each member is hashed onto a ring of 64 bit values at a number of points,
+ * its virtual nodes, and a key belongs to the member at the first point at
+ * or after the key's hash. With enough virtual nodes the keys are spread
+ * evenly, and when a member joins or leaves only the keys of its points
+ * move, about one in the number of members. A ring is never modified, a new
+ * one is made when the members change.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+final class ConsistentHashRing {
+
+    /**
+     * The default number of points of each member.
+     */
+    static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final List<String> members;
+
+    /**
+     * Stores the points in order, and the member of each.
+     */
+    private final long[] points;
+    private final int[] owners;
+
+    /**
+     * Makes a ring.
+     * 
+     * @param members
+     *            the members, duplicates are ignored
+     * @param virtualNodes
+     *            the points of each member
+     */
+    ConsistentHashRing(Collection<String> members, int virtualNodes) {
+	if (virtualNodes < 1)
+	    throw new IllegalArgumentException(
+		    "Need at least one virtual node.");
+	String[] names = new TreeSet<String>(members).toArray(new String[0]);
+	this.members = Collections.unmodifiableList(Arrays.asList(names));
+
+	int count = names.length * virtualNodes;
+	final long[] hashes = new long[count];
+	Integer[] order = new Integer[count];
+	for (int i = 0; i < count; i++) {
+	    hashes[i] = hash(names[i / virtualNodes] + '#' + i % virtualNodes);
+	    order[i] = i;
+	}
+	Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+	points = new long[count];
+	owners = new int[count];
+	for (int i = 0; i < count; i++) {
+	    points[i] = hashes[order[i]];
+	    owners[i] = order[i] / virtualNodes;
+	}
+    }
+
+    /**
+     * Gets the member a key belongs to.
+     * 
+     * @param key
+     *            the key
+     * @return the member, or null if the ring has no members
+     */
+    String getOwner(String key) {
+	if (points.length == 0)
+	    return null;
+	int index = Arrays.binarySearch(points, hash(key));
+	if (index < 0)
+	    index = -index - 1;
+	if (index == points.length)
+	    index = 0;
+	return members.get(owners[index]);
+    }
+
+    /**
+     * @return the members, in order
+     */
+    List<String> getMembers() {
+	return members;
+    }
+
+    /**
+     * Hashes a string to 64 bits, FNV-1a finished with the MurmurHash3 mix
+     * so that similar strings land far apart.
+     */
+    static long hash(String key) {
+	long hash = 0xcbf29ce484222325L;
+	for (int i = 0; i < key.length(); i++) {
+	    hash ^= key.charAt(i);
+	    hash *= 0x100000001b3L;
+	}
+	hash ^= hash >>> 33;
+	hash *= 0xff51afd7ed558ccdL;
+	hash ^= hash >>> 33;
+	hash *= 0xc4ceb9fe1a85ec53L;
+	hash ^= hash >>> 33;
+	return hash;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,123 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The part of the built in providers that is the same for each service: a
+ * base URL the zip code is added to as a query, and a name that tells
+ * servers apart.
+ * <p>
+ * The base URL is checked when the provider is made, so a bad one, such as
+ * a mistyped system property, fails at once rather than as a bad key on
+ * every lookup.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+abstract class FeedWeatherProvider implements WeatherProvider {
+
+    /**
+     * Stores the base URL the zip code is added to.
+     */
+    private final String baseUrl;
+
+    /**
+     * Stores the name, which has the base URL in it when it is not the
+     * service's own.
+     */
+    private final String name;
+
+    /**
+     * Makes a provider.
+     * 
+     * @param service
+     *            the service, which names the provider
+     * @param defaultBaseUrl
+     *            the base URL of the service's own feed
+     * @param baseUrl
+     *            the URL of the feed, without the query
+     * @throws IllegalArgumentException
+     *             if the base URL is null or not a URL
+     */
+    FeedWeatherProvider(WeatherLookupService service, String defaultBaseUrl,
+	    String baseUrl) {
+	if (baseUrl == null)
+	    throw new IllegalArgumentException("Base URL can not be null.");
+	try {
+	    new URL(baseUrl);
+	} catch (MalformedURLException e) {
+	    throw new IllegalArgumentException("Bad " + service
+		    + " base URL \"" + baseUrl + "\": " + e.getMessage(), e);
+	}
+	this.baseUrl = baseUrl;
+	this.name = baseUrl.equals(defaultBaseUrl) ? service.name() : service
+		.name()
+		+ '@' + baseUrl;
+    }
+
+    /**
+     * @return the URL of the feed, without the query
+     */
+    public String getBaseUrl() {
+	return baseUrl;
+    }
+
+    /**
+     * Gets the name of the service, followed by '@' and the base URL when the
+     * feed is fetched from another server, so reports from different servers
+     * are not cached, counted or shared between nodes as the same.
+     * 
+     * @return the name
+     */
+    public String getName() {
+	return name;
+    }
+
+    public URL getFeedUrl(String zipCode) throws WeatherLookupException {
+	if (zipCode == null)
+	    throw new WeatherLookupException(
+		    WeatherLookupException.Category.BAD_KEY,
+		    "Zip code can not be null.");
+	try {
+	    return new URL(baseUrl
+		    + query(URLEncoder.encode(zipCode, StandardCharsets.UTF_8)));
+	} catch (MalformedURLException e) {
+	    throw new WeatherLookupException(
+		    WeatherLookupException.Category.BAD_KEY, e.toString(), e);
+	}
+    }
+
+    /**
+     * Gets the query the feed of a zip code is fetched with.
+     * 
+     * @param zipCode
+     *            the zip code, already URL encoded
+     * @return the query, starting with '?'
+     */
+    abstract String query(String zipCode);
+}
\ No newline at end of file
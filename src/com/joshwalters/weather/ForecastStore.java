@@ -0,0 +1,399 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the forecast history of many zip codes in primitive arrays.
+ * <p>
+ * Each zip code has one column per value: the day, the low, the high and the
+ * condition code, sorted by day with one row per day. A newer forecast for a
+ * day replaces the older one. Range queries find their rows with a binary
+ * search and read only the columns they need, so a year of history for a zip
+ * code takes a few kilobytes and no objects per day.
+ * <p>
+ * The feeds only give the day of the week of each forecast, so reports are
+ * added with the date they were fetched on and each forecast is stored under
+ * the first date on or after it with its day of the week. The current
+ * conditions carry the low and high of the day they were fetched on, and are
+ * stored as that day.
+ * <p>
+ * A store is thread safe. It can be fed by a WeatherRefreshScheduler, as it
+ * is a WeatherChangeListener.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public class ForecastStore implements WeatherChangeListener {
+
+    /**
+     * Returned by the int queries when no value was reported in the range.
+     */
+    public static final int MISSING = CompactWeatherCondition.MISSING;
+
+    /**
+     * Stored in the temperature columns for a value that was not reported.
+     */
+    private static final short NO_VALUE = Short.MIN_VALUE;
+
+    /**
+     * The rows a new series has room for.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Stores the history of each zip code.
+     */
+    private final ConcurrentHashMap<String, Series> series = new ConcurrentHashMap<String, Series>();
+
+    /**
+     * Adds the current conditions and forecasts of a report fetched today.
+     * 
+     * @param zipCode
+     *            Zip code
+     * @param report
+     *            the report
+     */
+    public void add(String zipCode, WeatherReport report) {
+	add(zipCode, LocalDate.now(), report);
+    }
+
+    /**
+     * Adds the current conditions and the forecasts of a report. The current
+     * conditions are stored as the day they are for, and replace a forecast
+     * for the same day in the report.
+     * 
+     * @param zipCode
+     *            Zip code
+     * @param fetched
+     *            the date the report was fetched on
+     * @param report
+     *            the report
+     */
+    public void add(String zipCode, LocalDate fetched, WeatherReport report) {
+	// The current conditions usually give no day, they are for today
+	LocalDate today = null;
+	CompactWeatherCondition current = report
+		.getCompactCurrentWeatherConditions();
+	if (current != null
+		&& (current.getLowTemperature() != MISSING || current
+			.getHighTemperature() != MISSING)) {
+	    DayOfWeek day = current.getDayOfWeek();
+	    today = day == null ? fetched : fetched.with(TemporalAdjusters
+		    .nextOrSame(day));
+	    put(zipCode, today, current.getLowTemperature(), current
+		    .getHighTemperature(), current.getConditionCode());
+	}
+
+	for (CompactWeatherCondition forecast : report
+		.getCompactFutureWeatherConditions()) {
+	    DayOfWeek day = forecast.getDayOfWeek();
+	    if (day == null)
+		continue;
+	    LocalDate date = fetched.with(TemporalAdjusters.nextOrSame(day));
+	    if (date.equals(today))
+		continue;
+	    put(zipCode, date, forecast.getLowTemperature(), forecast
+		    .getHighTemperature(), forecast.getConditionCode());
+	}
+    }
+
+    /**
+     * Stores the forecast of one day, replacing any forecast stored for it.
+     * Adding days in order is fastest.
+     * 
+     * @param zipCode
+     *            Zip code
+     * @param day
+     *            the day
+     * @param lowTemperature
+     *            the low, or MISSING
+     * @param highTemperature
+     *            the high, or MISSING
+     * @param conditionCode
+     *            the code from ConditionCodes, or ConditionCodes.NONE
+     */
+    public void put(String zipCode, LocalDate day, int lowTemperature,
+	    int highTemperature, int conditionCode) {
+	Series history = series.get(zipCode);
+	if (history == null) {
+	    Series created = new Series();
+	    history = series.putIfAbsent(zipCode, created);
+	    if (history == null)
+		history = created;
+	}
+	history.put((int) day.toEpochDay(), toShort(lowTemperature),
+		toShort(highTemperature), (short) conditionCode);
+    }
+
+    /**
+     * Gets the highest high of a zip code over a range of days.
+     * 
+     * @param zipCode
+     *            Zip code
+     * @param from
+     *            the first day, included
+     * @param to
+     *            the last day, included
+     * @return the highest high, or MISSING if none was stored
+     */
+    public int getMaxHigh(String zipCode, LocalDate from, LocalDate to) {
+	Series history = series.get(zipCode);
+	return history == null ? MISSING : history.max(true, from, to);
+    }
+
+    /**
+     * Gets the lowest low of a zip code over a range of days.
+     * 
+     * @param zipCode
+     *            Zip code
+     * @param from
+     *            the first day, included
+     * @param to
+     *            the last day, included
+     * @return the lowest low, or MISSING if none was stored
+     */
+    public int getMinLow(String zipCode, LocalDate from, LocalDate to) {
+	Series history = series.get(zipCode);
+	return history == null ? MISSING : history.min(false, from, to);
+    }
+
+    /**
+     * Gets the mean high of a zip code over a range of days.
+     * 
+     * @param zipCode
+     *            Zip code
+     * @param from
+     *            the first day, included
+     * @param to
+     *            the last day, included
+     * @return the mean, or NaN if no high was stored
+     */
+    public double getMeanHigh(String zipCode, LocalDate from, LocalDate to) {
+	Series history = series.get(zipCode);
+	return history == null ? Double.NaN : history.mean(true, from, to);
+    }
+
+    /**
+     * Gets the mean low of a zip code over a range of days.
+     * 
+     * @param zipCode
+     *            Zip code
+     * @param from
+     *            the first day, included
+     * @param to
+     *            the last day, included
+     * @return the mean, or NaN if no low was stored
+     */
+    public double getMeanLow(String zipCode, LocalDate from, LocalDate to) {
+	Series history = series.get(zipCode);
+	return history == null ? Double.NaN : history.mean(false, from, to);
+    }
+
+    /**
+     * Counts the days of a zip code with a given condition.
+     * 
+     * @param zipCode
+     *            Zip code
+     * @param condition
+     *            the general weather condition, e.g. "Sunny"
+     * @param from
+     *            the first day, included
+     * @param to
+     *            the last day, included
+     * @return the number of days
+     */
+    public int countCondition(String zipCode, String condition,
+	    LocalDate from, LocalDate to) {
+	// Look the code up without giving one to a condition never reported
+	short code = ConditionCodes.find(condition);
+	Series history = series.get(zipCode);
+	if (history == null || code == ConditionCodes.NONE)
+	    return 0;
+	return history.count(code, from, to);
+    }
+
+    /**
+     * Gets the number of days stored for a zip code.
+     * 
+     * @param zipCode
+     *            Zip code
+     * @return the number of days
+     */
+    public int size(String zipCode) {
+	Series history = series.get(zipCode);
+	return history == null ? 0 : history.size();
+    }
+
+    /**
+     * @return the zip codes with history, in order
+     */
+    public Set<String> getZipCodes() {
+	return Collections.unmodifiableSet(new TreeSet<String>(series
+		.keySet()));
+    }
+
+    /**
+     * Drops the history of a zip code.
+     * 
+     * @param zipCode
+     *            Zip code
+     */
+    public void remove(String zipCode) {
+	series.remove(zipCode);
+    }
+
+    /**
+     * Adds the current conditions and forecasts of a refreshed report,
+     * fetched today.
+     */
+    public void weatherChanged(String zipCode, WeatherReport previous,
+	    WeatherReport current) {
+	add(zipCode, current);
+    }
+
+    private static short toShort(int value) {
+	if (value == MISSING || value < Short.MIN_VALUE + 1
+		|| value > Short.MAX_VALUE)
+	    return NO_VALUE;
+	return (short) value;
+    }
+
+    /**
+     * The history of one zip code, sorted by day. Guarded by this.
+     */
+    private static final class Series {
+	private int[] days = new int[INITIAL_CAPACITY];
+	private short[] lows = new short[INITIAL_CAPACITY];
+	private short[] highs = new short[INITIAL_CAPACITY];
+	private short[] codes = new short[INITIAL_CAPACITY];
+	private int size;
+
+	synchronized void put(int day, short low, short high, short code) {
+	    // Usually the days come in order, so look at the end first
+	    int row;
+	    if (size == 0 || days[size - 1] < day)
+		row = -size - 1;
+	    else if (days[size - 1] == day)
+		row = size - 1;
+	    else
+		row = Arrays.binarySearch(days, 0, size, day);
+
+	    if (row < 0) {
+		row = -row - 1;
+		if (size == days.length)
+		    grow();
+		int after = size - row;
+		if (after > 0) {
+		    System.arraycopy(days, row, days, row + 1, after);
+		    System.arraycopy(lows, row, lows, row + 1, after);
+		    System.arraycopy(highs, row, highs, row + 1, after);
+		    System.arraycopy(codes, row, codes, row + 1, after);
+		}
+		size++;
+	    }
+	    days[row] = day;
+	    lows[row] = low;
+	    highs[row] = high;
+	    codes[row] = code;
+	}
+
+	synchronized int size() {
+	    return size;
+	}
+
+	synchronized int max(boolean high, LocalDate from, LocalDate to) {
+	    short[] column = high ? highs : lows;
+	    int max = NO_VALUE;
+	    for (int i = first(from), end = end(to); i < end; i++)
+		if (column[i] > max)
+		    max = column[i];
+	    return max == NO_VALUE ? MISSING : max;
+	}
+
+	synchronized int min(boolean high, LocalDate from, LocalDate to) {
+	    short[] column = high ? highs : lows;
+	    int min = Integer.MAX_VALUE;
+	    for (int i = first(from), end = end(to); i < end; i++)
+		if (column[i] != NO_VALUE && column[i] < min)
+		    min = column[i];
+	    return min == Integer.MAX_VALUE ? MISSING : min;
+	}
+
+	synchronized double mean(boolean high, LocalDate from, LocalDate to) {
+	    short[] column = high ? highs : lows;
+	    long total = 0;
+	    int count = 0;
+	    for (int i = first(from), end = end(to); i < end; i++) {
+		if (column[i] != NO_VALUE) {
+		    total += column[i];
+		    count++;
+		}
+	    }
+	    return count == 0 ? Double.NaN : (double) total / count;
+	}
+
+	synchronized int count(short code, LocalDate from, LocalDate to) {
+	    int count = 0;
+	    for (int i = first(from), end = end(to); i < end; i++)
+		if (codes[i] == code)
+		    count++;
+	    return count;
+	}
+
+	/**
+	 * Gets the first row on or after a day.
+	 */
+	private int first(LocalDate from) {
+	    return lowerBound((int) from.toEpochDay());
+	}
+
+	/**
+	 * Gets the row after the last one on or before a day.
+	 */
+	private int end(LocalDate to) {
+	    return lowerBound((int) to.toEpochDay() + 1);
+	}
+
+	private int lowerBound(int day) {
+	    int row = Arrays.binarySearch(days, 0, size, day);
+	    return row < 0 ? -row - 1 : row;
+	}
+
+	private void grow() {
+	    int capacity = days.length * 2;
+	    days = Arrays.copyOf(days, capacity);
+	    lows = Arrays.copyOf(lows, capacity);
+	    highs = Arrays.copyOf(highs, capacity);
+	    codes = Arrays.copyOf(codes, capacity);
+	}
+    }
+}
\ No newline at end of file
@@ -0,0 +1,349 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import com.joshwalters.weather.WeatherLookupException.Category;
+
+/**
+ * Parses the Google weather feed into a WeatherReport.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+final class GoogleWeatherParser {
+
+    /**
+     * No section of the feed.
+     */
+    private static final int SECTION_NONE = 0;
+
+    /**
+     * Inside current_conditions.
+     */
+    private static final int SECTION_CURRENT = 1;
+
+    /**
+     * Inside forecast_conditions.
+     */
+    private static final int SECTION_FORECAST = 2;
+
+    private GoogleWeatherParser() {
+    }
+
+    /**
+     * Parses the feed by building a DOM tree and searching it.
+     * 
+     * @param in
+     *            the feed
+     * @return the report
+     * @throws WeatherLookupException
+     */
+    static WeatherReport parseDom(InputStream in) throws WeatherLookupException {
+	// Stores the weather conditions as they are parsed
+	WeatherCondition current = new WeatherCondition();
+	List<WeatherCondition> forecasts = new ArrayList<WeatherCondition>();
+
+	try {
+	    // Reuse this thread's document builder
+	    DocumentBuilder builder = XmlParsers.documentBuilder();
+	    Document doc = builder.parse(in);
+
+	    // Check to see that we got a valid report result
+	    NodeList nodes = doc.getElementsByTagName("problem_cause");
+	    if (nodes.getLength() > 0) {
+		// There was an error
+		throw WeatherLookupException.withoutStackTrace(
+			Category.BAD_KEY, "Lookup failed. Possible bad key.");
+	    }
+
+	    // Check to see if we can get the city that the zip code is from
+	    nodes = doc.getElementsByTagName("city");
+	    if (nodes.getLength() > 0) {
+		Element element = (Element) nodes.item(0);
+
+		// Get the location
+		String tokens[] = element.getAttribute("data").split(",");
+		current.setLocation(tokens[0]);
+	    }
+
+	    // Get the current conditions.
+	    nodes = doc.getElementsByTagName("current_conditions");
+	    for (int i = 0; i < nodes.getLength(); i++) {
+		Element element = (Element) nodes.item(i);
+
+		// Get the current general weather condition
+		current.setGeneralWeatherCondition(data(element, "condition"));
+
+		// Get the temperature in F
+		current.setTempF(data(element, "temp_f"));
+
+		// Get the temperature in C
+		current.setTempC(data(element, "temp_c"));
+
+		// Get the humidity
+		current.setHumidity(humidity(afterLabel(data(element,
+			"humidity"))));
+
+		// Get the wind condition
+		current.setWindCondition(WeatherUnits
+			.normalizeWind(afterLabel(data(element,
+				"wind_condition"))));
+	    }
+
+	    // Get the forecast conditions.
+	    nodes = doc.getElementsByTagName("forecast_conditions");
+	    for (int i = 0; i < nodes.getLength(); i++) {
+		Element element = (Element) nodes.item(i);
+
+		if (i == 0) {
+		    // Get the predicted low temperature
+		    current.setLowTemperature(data(element, "low"));
+
+		    // Get the predicted high temperature
+		    current.setHighTemperature(data(element, "high"));
+
+		    // Get the day
+		    current.setDayOfWeek(data(element, "day_of_week"));
+		} else {
+		    // Stores the predicted weather condition
+		    WeatherCondition tempWeatherCondition = new WeatherCondition();
+
+		    // Get the predicted low temperature
+		    tempWeatherCondition.setLowTemperature(data(element, "low"));
+
+		    // Get the predicted high temperature
+		    tempWeatherCondition.setHighTemperature(data(element,
+			    "high"));
+
+		    // Get the day
+		    tempWeatherCondition.setDayOfWeek(data(element,
+			    "day_of_week"));
+
+		    // Get the current general weather condition
+		    tempWeatherCondition.setGeneralWeatherCondition(data(
+			    element, "condition"));
+
+		    // Add to the forecasts
+		    forecasts.add(tempWeatherCondition);
+		}
+	    }
+
+	    // Test to see if there was an error (all fields would be null)
+	    if (current.areAllFieldsNull()) {
+		throw WeatherLookupException.withoutStackTrace(
+			Category.EMPTY_PAYLOAD,
+			"There was an error when obtaining the data.");
+	    }
+
+	    return new WeatherReport(current, forecasts);
+	} catch (IOException e) {
+	    throw WeatherLookupException.fromIOException(e);
+	} catch (ParserConfigurationException e) {
+	    throw WeatherLookupException.withoutStackTrace(Category.PARSE, e);
+	} catch (SAXException e) {
+	    throw WeatherLookupException.withoutStackTrace(Category.PARSE, e);
+	}
+    }
+
+    /**
+     * Parses the feed in a single pass, filling in the weather conditions as
+     * the elements go by. No tree is built.
+     * 
+     * @param in
+     *            the feed
+     * @return the report
+     * @throws WeatherLookupException
+     */
+    static WeatherReport parseStream(InputStream in)
+	    throws WeatherLookupException {
+	// Stores the weather conditions as they are parsed
+	WeatherCondition current = new WeatherCondition();
+	List<WeatherCondition> forecasts = new ArrayList<WeatherCondition>();
+
+	// The forecast being filled in, and how many we have seen
+	WeatherCondition forecast = null;
+	int forecastCount = 0;
+	int section = SECTION_NONE;
+	boolean haveCity = false;
+
+	try {
+	    XMLStreamReader reader = XmlParsers.streamReader(in);
+	    try {
+		while (reader.hasNext()) {
+		    int event = reader.next();
+
+		    if (event == XMLStreamConstants.END_ELEMENT) {
+			String name = reader.getLocalName();
+			if (section == SECTION_CURRENT
+				&& name.equals("current_conditions")) {
+			    section = SECTION_NONE;
+			} else if (section == SECTION_FORECAST
+				&& name.equals("forecast_conditions")) {
+			    // The first forecast is about today
+			    if (forecastCount > 0)
+				forecasts.add(forecast);
+			    forecastCount++;
+			    section = SECTION_NONE;
+			}
+			continue;
+		    }
+		    if (event != XMLStreamConstants.START_ELEMENT)
+			continue;
+
+		    String name = reader.getLocalName();
+		    String data = reader.getAttributeValue(null, "data");
+
+		    if (section == SECTION_CURRENT) {
+			if (name.equals("condition")) {
+			    current.setGeneralWeatherCondition(data);
+			} else if (name.equals("temp_f")) {
+			    current.setTempF(data);
+			} else if (name.equals("temp_c")) {
+			    current.setTempC(data);
+			} else if (name.equals("humidity")) {
+			    // Drop the "Humidity:" label
+			    current.setHumidity(humidity(afterLabel(data)));
+			} else if (name.equals("wind_condition")) {
+			    // Drop the "Wind:" label
+			    current.setWindCondition(WeatherUnits
+				    .normalizeWind(afterLabel(data)));
+			}
+		    } else if (section == SECTION_FORECAST) {
+			if (name.equals("low")) {
+			    forecast.setLowTemperature(data);
+			} else if (name.equals("high")) {
+			    forecast.setHighTemperature(data);
+			} else if (name.equals("day_of_week")) {
+			    forecast.setDayOfWeek(data);
+			} else if (name.equals("condition")
+				&& forecastCount > 0) {
+			    forecast.setGeneralWeatherCondition(data);
+			}
+		    } else if (name.equals("problem_cause")) {
+			// There was an error
+			throw WeatherLookupException.withoutStackTrace(
+				Category.BAD_KEY,
+				"Lookup failed. Possible bad key.");
+		    } else if (name.equals("city") && !haveCity) {
+			// Get the location
+			haveCity = true;
+			if (data != null)
+			    current.setLocation(data.split(",")[0]);
+		    } else if (name.equals("current_conditions")) {
+			section = SECTION_CURRENT;
+		    } else if (name.equals("forecast_conditions")) {
+			section = SECTION_FORECAST;
+			// Today's forecast goes into the current conditions
+			forecast = forecastCount == 0 ? current
+				: new WeatherCondition();
+		    }
+		}
+	    } finally {
+		reader.close();
+	    }
+	} catch (XMLStreamException e) {
+	    throw WeatherLookupException.withoutStackTrace(Category.PARSE, e);
+	}
+
+	// Test to see if there was an error (all fields would be null)
+	if (current.areAllFieldsNull()) {
+	    throw WeatherLookupException.withoutStackTrace(
+		    Category.EMPTY_PAYLOAD,
+		    "There was an error when obtaining the data.");
+	}
+
+	return new WeatherReport(current, forecasts);
+    }
+
+    /**
+     * Gets the shared text of a humidity such as "45%".
+     * 
+     * @param humidity
+     *            the humidity without its label
+     * @return the shared text, or the humidity if it is not a percentage
+     */
+    private static String humidity(String humidity) {
+	int percent = WeatherUnits.parseHumidity(humidity);
+	if (percent == WeatherUnits.MISSING)
+	    return humidity;
+	return WeatherUnits.formatHumidity(percent);
+    }
+
+    /**
+     * Drops the label from a value such as "Humidity: 45%".
+     * 
+     * @param data
+     *            the labelled value
+     * @return the value without its label
+     * @throws WeatherLookupException
+     *             if the value has no label
+     */
+    private static String afterLabel(String data)
+	    throws WeatherLookupException {
+	int space = data == null ? -1 : data.indexOf(' ');
+	if (space < 0) {
+	    throw WeatherLookupException.withoutStackTrace(Category.PARSE,
+		    "Unexpected value: " + data);
+	}
+	return data.substring(space + 1);
+    }
+
+    /**
+     * Gets the data attribute of the first element with a tag name under an
+     * element.
+     * 
+     * @param parent
+     *            the element to search
+     * @param tagName
+     *            the tag name
+     * @return the data attribute
+     * @throws WeatherLookupException
+     *             if there is no such element
+     */
+    private static String data(Element parent, String tagName)
+	    throws WeatherLookupException {
+	Element element = (Element) parent.getElementsByTagName(tagName)
+		.item(0);
+	if (element == null) {
+	    throw WeatherLookupException.withoutStackTrace(Category.PARSE,
+		    "Missing element: " + tagName);
+	}
+	return element.getAttribute("data");
+    }
+}
\ No newline at end of file
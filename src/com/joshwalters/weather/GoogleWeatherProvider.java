@@ -0,0 +1,72 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.io.InputStream;
+
+/**
+ * The Google weather service. The feed is fetched from the service unless
+ * another base URL is given, or set with the weather.google.url system property, such as a
+ * local stub server to test against.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public class GoogleWeatherProvider extends FeedWeatherProvider {
+
+    /**
+     * The base URL of the Google feed.
+     */
+    public static final String DEFAULT_BASE_URL = "http://www.google.com/ig/api";
+
+    /**
+     * Makes a provider for the base URL in the weather.google.url system property, or
+     * the service's own if it is not set.
+     */
+    public GoogleWeatherProvider() {
+	this(System.getProperty("weather.google.url", DEFAULT_BASE_URL));
+    }
+
+    /**
+     * Makes a provider that fetches from another server.
+     * 
+     * @param baseUrl
+     *            the URL of the feed, without the query
+     * @throws IllegalArgumentException
+     *             if the base URL is null or not a URL
+     */
+    public GoogleWeatherProvider(String baseUrl) {
+	super(WeatherLookupService.GOOGLE, DEFAULT_BASE_URL, baseUrl);
+    }
+
+    String query(String zipCode) {
+	return "?weather=" + zipCode;
+    }
+
+    public WeatherReport parse(InputStream in, WeatherParserType parserType)
+	    throws WeatherLookupException {
+	if (parserType == WeatherParserType.DOM)
+	    return GoogleWeatherParser.parseDom(in);
+	return GoogleWeatherParser.parseStream(in);
+    }
+}
\ No newline at end of file
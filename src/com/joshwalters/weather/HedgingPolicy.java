@@ -0,0 +1,407 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.joshwalters.weather.WeatherLookupException.Category;
+
+/**
+ * Sends lookups to a secondary provider when the primary one is slow or
+ * failing.
+ * <p>
+ * A lookup is sent to the primary provider, the provider of the
+ * WeatherLookup. If the primary has not answered within the hedge delay, the
+ * same lookup is sent to the secondary provider too; the first report to
+ * arrive is used and the other request is cancelled. A request that fails
+ * sends the lookup to the other provider right away. The hedge delay is a
+ * percentile of the primary's recent fetch times, so only the slowest few
+ * lookups are sent twice.
+ * <p>
+ * Each provider has a CircuitBreaker. While the primary's breaker is open,
+ * lookups go straight to the secondary, and while both are open, lookups
+ * fail at once instead of waiting for a timeout.
+ * <p>
+ * A policy is thread safe and may be shared by several WeatherLookup
+ * instances.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ * @see WeatherLookup#setHedgingPolicy(HedgingPolicy)
+ */
+public class HedgingPolicy {
+
+    /**
+     * The default percentile of the primary's fetch times to wait before
+     * hedging.
+     */
+    public static final double DEFAULT_PERCENTILE = 95;
+
+    /**
+     * The default hedge delay used until enough fetch times are known, in
+     * milliseconds.
+     */
+    public static final long DEFAULT_HEDGE_DELAY = 1000;
+
+    /**
+     * The number of fetch times needed before the percentile is used.
+     */
+    private static final int MIN_SAMPLES = 20;
+
+    /**
+     * The number of fetch times kept before starting over, so the delay
+     * follows changes in the provider's speed.
+     */
+    private static final int WINDOW = 1000;
+
+    /**
+     * Stores the secondary provider.
+     */
+    private final WeatherProvider secondary;
+
+    /**
+     * Stores the fetch times and breaker of each provider, by name.
+     */
+    private final ConcurrentHashMap<String, ProviderHealth> health = new ConcurrentHashMap<String, ProviderHealth>();
+
+    private volatile double percentile = DEFAULT_PERCENTILE;
+    private volatile long defaultDelayNanos = TimeUnit.MILLISECONDS
+	    .toNanos(DEFAULT_HEDGE_DELAY);
+
+    /**
+     * Makes a policy that hedges with a lookup service.
+     * 
+     * @param secondary
+     *            the secondary lookup service
+     */
+    public HedgingPolicy(WeatherLookupService secondary) {
+	this(WeatherProviders.get(secondary));
+    }
+
+    /**
+     * Makes a policy that hedges with a provider.
+     * 
+     * @param secondary
+     *            the secondary provider
+     */
+    public HedgingPolicy(WeatherProvider secondary) {
+	if (secondary == null)
+	    throw new IllegalArgumentException(
+		    "Secondary provider can not be null.");
+	this.secondary = secondary;
+    }
+
+    /**
+     * @return the secondary provider
+     */
+    public WeatherProvider getSecondaryProvider() {
+	return secondary;
+    }
+
+    /**
+     * @return the percentile of the primary's fetch times to wait before
+     *         hedging
+     */
+    public double getPercentile() {
+	return percentile;
+    }
+
+    /**
+     * Sets the percentile of the primary's fetch times to wait before
+     * hedging. A lower percentile hedges sooner and sends more lookups twice.
+     * 
+     * @param percentile
+     *            the percentile, from 0 to 100
+     */
+    public void setPercentile(double percentile) {
+	if (percentile < 0 || percentile > 100)
+	    throw new IllegalArgumentException("Percentile out of range: "
+		    + percentile);
+	this.percentile = percentile;
+    }
+
+    /**
+     * @param unit
+     *            the unit of the result
+     * @return the hedge delay used until enough fetch times are known
+     */
+    public long getDefaultHedgeDelay(TimeUnit unit) {
+	return unit.convert(defaultDelayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets the hedge delay used until enough fetch times of the primary are
+     * known.
+     * 
+     * @param delay
+     *            the delay
+     * @param unit
+     *            the unit of delay
+     */
+    public void setDefaultHedgeDelay(long delay, TimeUnit unit) {
+	if (delay < 0)
+	    throw new IllegalArgumentException("Delay can not be negative.");
+	this.defaultDelayNanos = unit.toNanos(delay);
+    }
+
+    /**
+     * Gets the current hedge delay for a primary provider.
+     * 
+     * @param primary
+     *            the primary provider
+     * @param unit
+     *            the unit of the result
+     * @return the delay
+     */
+    public long getHedgeDelay(WeatherProvider primary, TimeUnit unit) {
+	return unit.convert(health(primary).hedgeDelay(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the breaker of a provider, to look at or tune it.
+     * 
+     * @param provider
+     *            the provider
+     * @return the breaker
+     */
+    public CircuitBreaker getCircuitBreaker(WeatherProvider provider) {
+	return health(provider).breaker;
+    }
+
+    /**
+     * Fetches a report from the primary provider, hedging with the secondary,
+     * blocking until it arrives.
+     * 
+     * @see #fetchAsync(WeatherTransport, WeatherProvider, String,
+     *      WeatherParserType, int, int, Executor)
+     */
+    WeatherReport fetchReport(WeatherTransport transport,
+	    WeatherProvider primary, String zipCode,
+	    WeatherParserType parserType, int connectTimeout, int readTimeout,
+	    Executor executor) throws WeatherLookupException {
+	return InFlightLoads.await(fetchAsync(transport, primary, zipCode,
+		parserType, connectTimeout, readTimeout, executor));
+    }
+
+    /**
+     * Fetches a report from the primary provider, hedging with the secondary.
+     * 
+     * @param transport
+     *            the transport to fetch with
+     * @param primary
+     *            the primary provider
+     * @param zipCode
+     *            Zip code
+     * @param parserType
+     *            the way to parse the feed
+     * @param connectTimeout
+     *            the time to wait for a connection in milliseconds
+     * @param readTimeout
+     *            the time to wait for data in milliseconds
+     * @param executor
+     *            runs the parsing and any blocking fetch
+     * @return a future that completes with the first report, or exceptionally
+     *         with the primary's exception if no provider gave a report
+     */
+    CompletableFuture<WeatherReport> fetchAsync(WeatherTransport transport,
+	    WeatherProvider primary, String zipCode,
+	    WeatherParserType parserType, int connectTimeout, int readTimeout,
+	    Executor executor) {
+	WeatherProvider[] providers = primary.getName().equals(
+		secondary.getName()) ? new WeatherProvider[] { primary }
+		: new WeatherProvider[] { primary, secondary };
+	Hedge hedge = new Hedge(providers, transport, zipCode, parserType,
+		connectTimeout, readTimeout, executor);
+
+	if (hedge.start(0)) {
+	    if (providers.length > 1)
+		CompletableFuture.delayedExecutor(
+			health(primary).hedgeDelay(), TimeUnit.NANOSECONDS,
+			executor).execute(() -> hedge.start(1));
+	} else if (!hedge.start(1)) {
+	    hedge.result.completeExceptionally(WeatherLookupException
+		    .withoutStackTrace(Category.NETWORK, "Lookup service "
+			    + primary.getName() + " unavailable."));
+	}
+	return hedge.result;
+    }
+
+    private ProviderHealth health(WeatherProvider provider) {
+	return health.computeIfAbsent(provider.getName(),
+		name -> new ProviderHealth());
+    }
+
+    /**
+     * Tells if an exception shows the provider is unhealthy. A bad key means
+     * the provider answered, an interrupt is the caller's doing.
+     */
+    private static boolean isProviderFailure(Throwable error) {
+	if (!(error instanceof WeatherLookupException))
+	    return true;
+	Category category = ((WeatherLookupException) error).getCategory();
+	return category != Category.BAD_KEY
+		&& category != Category.INTERRUPTED;
+    }
+
+    /**
+     * One lookup sent to up to two providers. The attempts and errors are
+     * guarded by this.
+     */
+    private final class Hedge {
+	final CompletableFuture<WeatherReport> result = new CompletableFuture<WeatherReport>();
+	final WeatherProvider[] providers;
+	final CompletableFuture<?>[] attempts;
+	final Throwable[] errors;
+	final WeatherTransport transport;
+	final String zipCode;
+	final WeatherParserType parserType;
+	final int connectTimeout;
+	final int readTimeout;
+	final Executor executor;
+
+	Hedge(WeatherProvider[] providers, WeatherTransport transport,
+		String zipCode, WeatherParserType parserType,
+		int connectTimeout, int readTimeout, Executor executor) {
+	    this.providers = providers;
+	    this.attempts = new CompletableFuture<?>[providers.length];
+	    this.errors = new Throwable[providers.length];
+	    this.transport = transport;
+	    this.zipCode = zipCode;
+	    this.parserType = parserType;
+	    this.connectTimeout = connectTimeout;
+	    this.readTimeout = readTimeout;
+	    this.executor = executor;
+
+	    // A caller giving up cancels both requests
+	    result.whenComplete((report, error) -> {
+		if (result.isCancelled())
+		    cancelAll();
+	    });
+	}
+
+	/**
+	 * Sends the lookup to a provider, unless the lookup is finished, it
+	 * was already sent there, or the provider's breaker is open.
+	 * 
+	 * @return true if the lookup was sent
+	 */
+	synchronized boolean start(final int i) {
+	    if (i >= providers.length || result.isDone() || attempts[i] != null)
+		return false;
+	    final ProviderHealth provider = health(providers[i]);
+	    if (!provider.breaker.allowRequest())
+		return false;
+	    final long start = System.nanoTime();
+	    CompletableFuture<WeatherReport> attempt = transport.fetchAsync(
+		    providers[i], zipCode, parserType, connectTimeout,
+		    readTimeout, executor);
+	    attempts[i] = attempt;
+	    attempt.whenComplete((report, error) -> finished(i, provider,
+		    System.nanoTime() - start, report, error));
+	    return true;
+	}
+
+	private void finished(int i, ProviderHealth provider, long nanos,
+		WeatherReport report, Throwable error) {
+	    if (error instanceof CompletionException && error.getCause() != null)
+		error = error.getCause();
+	    if (error == null) {
+		provider.recordLatency(nanos);
+		provider.breaker.recordSuccess();
+		if (result.complete(report))
+		    cancelAll();
+		return;
+	    }
+	    if (error instanceof CancellationException) {
+		provider.breaker.recordCancelled();
+		return;
+	    }
+	    if (isProviderFailure(error))
+		provider.breaker.recordFailure();
+	    else
+		provider.breaker.recordSuccess();
+
+	    synchronized (this) {
+		errors[i] = error;
+		// Fail over right away, unless the other is already running
+		if (start(1 - i) || isRunning())
+		    return;
+	    }
+	    result.completeExceptionally(errors[0] != null ? errors[0]
+		    : errors[1]);
+	}
+
+	private synchronized boolean isRunning() {
+	    for (CompletableFuture<?> attempt : attempts)
+		if (attempt != null && !attempt.isDone())
+		    return true;
+	    return false;
+	}
+
+	private synchronized void cancelAll() {
+	    for (CompletableFuture<?> attempt : attempts)
+		if (attempt != null)
+		    attempt.cancel(true);
+	}
+    }
+
+    /**
+     * The recent fetch times and the breaker of one provider.
+     */
+    private final class ProviderHealth {
+	final CircuitBreaker breaker = new CircuitBreaker();
+
+	/**
+	 * Stores the fetch times being recorded, and the full window before
+	 * them, read while the current one is filling up.
+	 */
+	private final AtomicReference<LatencyHistogram> current = new AtomicReference<LatencyHistogram>(
+		new LatencyHistogram());
+	private volatile LatencyHistogram previous;
+
+	void recordLatency(long nanos) {
+	    LatencyHistogram histogram = current.get();
+	    histogram.record(nanos);
+	    // Threads recording at once can all see a full window, or pass it,
+	    // so only the one that swaps in the next window rotates
+	    if (histogram.getCount() >= WINDOW
+		    && current.compareAndSet(histogram, new LatencyHistogram()))
+		previous = histogram;
+	}
+
+	long hedgeDelay() {
+	    LatencyHistogram histogram = current.get();
+	    if (histogram.getCount() < MIN_SAMPLES)
+		histogram = previous;
+	    if (histogram == null)
+		return defaultDelayNanos;
+	    return histogram.getValueAtPercentile(percentile);
+	}
+    }
+}
\ No newline at end of file
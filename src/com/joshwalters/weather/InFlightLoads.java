@@ -0,0 +1,161 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+import com.joshwalters.weather.WeatherLookupException.Category;
+
+/**
+ * Tracks the loads that are running by key, so that concurrent requests for
+ * the same key share one load instead of each fetching the feed.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ * @param <K>
+ *            the type of the keys
+ */
+final class InFlightLoads<K> {
+
+    /**
+     * Loads a report, blocking until it is ready.
+     */
+    interface Loader {
+	WeatherReport load() throws WeatherLookupException;
+    }
+
+    /**
+     * Stores the loads that are running.
+     */
+    private final ConcurrentHashMap<K, CompletableFuture<WeatherReport>> loading = new ConcurrentHashMap<K, CompletableFuture<WeatherReport>>();
+
+    /**
+     * Loads a report on the calling thread, or waits for the load of the
+     * same key that is already running. Threads that wait get the same
+     * report or exception as the thread that loads.
+     * 
+     * @param key
+     *            the key
+     * @param loader
+     *            loads the report if no load is running
+     * @return the report
+     * @throws WeatherLookupException
+     *             if the load failed
+     */
+    WeatherReport load(K key, Loader loader) throws WeatherLookupException {
+	CompletableFuture<WeatherReport> future = new CompletableFuture<WeatherReport>();
+	CompletableFuture<WeatherReport> running = loading.putIfAbsent(key,
+		future);
+	if (running != null)
+	    return await(running);
+
+	try {
+	    WeatherReport report = loader.load();
+	    future.complete(report);
+	    return report;
+	} catch (WeatherLookupException e) {
+	    future.completeExceptionally(e);
+	    throw e;
+	} catch (RuntimeException e) {
+	    future.completeExceptionally(e);
+	    throw e;
+	} finally {
+	    // Do not leave the waiting threads hanging on an Error
+	    if (!future.isDone())
+		future.completeExceptionally(WeatherLookupException
+			.withoutStackTrace(Category.UNKNOWN, "Lookup failed."));
+	    loading.remove(key, future);
+	}
+    }
+
+    /**
+     * Starts loading a report, or joins the load of the same key that is
+     * already running.
+     * 
+     * @param key
+     *            the key
+     * @param loader
+     *            starts the load if no load is running
+     * @return a future that completes with the report
+     */
+    CompletableFuture<WeatherReport> loadAsync(final K key,
+	    Supplier<CompletableFuture<WeatherReport>> loader) {
+	final CompletableFuture<WeatherReport> future = new CompletableFuture<WeatherReport>();
+	CompletableFuture<WeatherReport> running = loading.putIfAbsent(key,
+		future);
+	if (running != null)
+	    return running.copy();
+
+	try {
+	    loader.get().whenComplete((report, error) -> {
+		loading.remove(key, future);
+		if (error == null) {
+		    future.complete(report);
+		} else {
+		    if (error instanceof CompletionException
+			    && error.getCause() != null)
+			error = error.getCause();
+		    future.completeExceptionally(error);
+		}
+	    });
+	} catch (RuntimeException e) {
+	    loading.remove(key, future);
+	    future.completeExceptionally(e);
+	}
+	// Callers get a copy so one cancelling does not fail the others
+	return future.copy();
+    }
+
+    /**
+     * Waits for a load started by another thread, or any other running
+     * fetch.
+     * 
+     * @param future
+     *            the running load
+     * @return the report
+     * @throws WeatherLookupException
+     *             if the load failed
+     */
+    static WeatherReport await(CompletableFuture<WeatherReport> future)
+	    throws WeatherLookupException {
+	try {
+	    return future.get();
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw WeatherLookupException.withoutStackTrace(
+		    Category.INTERRUPTED, "Lookup interrupted.");
+	} catch (ExecutionException e) {
+	    Throwable cause = e.getCause();
+	    if (cause instanceof WeatherLookupException)
+		throw (WeatherLookupException) cause;
+	    if (cause instanceof RuntimeException)
+		throw (RuntimeException) cause;
+	    throw WeatherLookupException.withoutStackTrace(Category.UNKNOWN,
+		    cause);
+	}
+    }
+}
\ No newline at end of file
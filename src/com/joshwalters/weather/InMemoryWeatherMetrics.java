@@ -0,0 +1,227 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A WeatherMetricsListener that keeps its metrics in memory, per provider,
+ * to be read back with the getters or all at once with toString().
+ * <p>
+ * For each provider it keeps histograms of the lookup, fetch and parse times,
+ * the number of bytes received, and the number of failures by type.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public class InMemoryWeatherMetrics implements WeatherMetricsListener {
+
+    /**
+     * The quantiles of each histogram shown by toString().
+     */
+    private static final String[] QUANTILES = { "0.5", "0.9", "0.99", "0.999" };
+
+    /**
+     * Stores the metrics of each provider by name.
+     */
+    private final ConcurrentHashMap<String, ProviderMetrics> providers = new ConcurrentHashMap<String, ProviderMetrics>();
+
+    public void fetched(String provider, long nanos, long bytes) {
+	ProviderMetrics metrics = metrics(provider);
+	metrics.fetchTime.record(nanos);
+	metrics.bytesReceived.addAndGet(bytes);
+    }
+
+    public void parsed(String provider, long nanos) {
+	metrics(provider).parseTime.record(nanos);
+    }
+
+    public void completed(String provider, long nanos) {
+	metrics(provider).lookupTime.record(nanos);
+    }
+
+    public void failed(String provider, long nanos, Throwable error) {
+	ProviderMetrics metrics = metrics(provider);
+	metrics.lookupTime.record(nanos);
+	String type = errorType(error);
+	AtomicLong count = metrics.errors.get(type);
+	if (count == null) {
+	    count = new AtomicLong();
+	    AtomicLong existing = metrics.errors.putIfAbsent(type, count);
+	    if (existing != null)
+		count = existing;
+	}
+	count.incrementAndGet();
+    }
+
+    /**
+     * @return the names of the providers with metrics, in order
+     */
+    public Set<String> getProviderNames() {
+	return new TreeSet<String>(providers.keySet());
+    }
+
+    /**
+     * Gets the metrics of a provider.
+     * 
+     * @param provider
+     *            the name of the provider
+     * @return the metrics, empty if the provider has not been used
+     */
+    public ProviderMetrics getMetrics(String provider) {
+	return metrics(provider);
+    }
+
+    /**
+     * Clears every metric.
+     */
+    public void reset() {
+	providers.clear();
+    }
+
+    /**
+     * Formats every metric as one "name{provider} value" line each, with
+     * times in milliseconds.
+     */
+    @Override
+    public String toString() {
+	StringBuilder out = new StringBuilder();
+	for (String name : getProviderNames()) {
+	    ProviderMetrics metrics = providers.get(name);
+	    format(out, "lookup", name, metrics.lookupTime);
+	    format(out, "fetch", name, metrics.fetchTime);
+	    format(out, "parse", name, metrics.parseTime);
+	    out.append("weather_bytes_received{provider=\"").append(name)
+		    .append("\"} ").append(metrics.getBytesReceived())
+		    .append('\n');
+	    for (Map.Entry<String, Long> error : metrics.getErrorCounts()
+		    .entrySet()) {
+		out.append("weather_errors{provider=\"").append(name).append(
+			"\",type=\"").append(error.getKey()).append("\"} ")
+			.append(error.getValue()).append('\n');
+	    }
+	}
+	return out.toString();
+    }
+
+    /**
+     * Gets the type a failure is counted under.
+     * 
+     * @param error
+     *            the failure
+     * @return the category of a WeatherLookupException, otherwise the simple
+     *         class name of its cause, or of the failure itself if it has no
+     *         cause
+     */
+    protected String errorType(Throwable error) {
+	if (error instanceof WeatherLookupException)
+	    return ((WeatherLookupException) error).getCategory().name();
+	if (error.getCause() != null)
+	    error = error.getCause();
+	return error.getClass().getSimpleName();
+    }
+
+    private ProviderMetrics metrics(String provider) {
+	ProviderMetrics metrics = providers.get(provider);
+	if (metrics == null) {
+	    metrics = new ProviderMetrics();
+	    ProviderMetrics existing = providers.putIfAbsent(provider, metrics);
+	    if (existing != null)
+		metrics = existing;
+	}
+	return metrics;
+    }
+
+    private static void format(StringBuilder out, String metric,
+	    String provider, LatencyHistogram histogram) {
+	String prefix = "weather_" + metric + "_ms{provider=\"" + provider
+		+ "\",quantile=\"";
+	out.append("weather_").append(metric).append("_count{provider=\"")
+		.append(provider).append("\"} ").append(histogram.getCount())
+		.append('\n');
+	for (String quantile : QUANTILES) {
+	    double percentile = Double.parseDouble(quantile) * 100;
+	    out.append(prefix).append(quantile).append("\"} ").append(
+		    histogram.getValueAtPercentile(percentile) / 1e6).append(
+		    '\n');
+	}
+    }
+
+    /**
+     * The metrics of one provider.
+     */
+    public static final class ProviderMetrics {
+	private final LatencyHistogram lookupTime = new LatencyHistogram();
+	private final LatencyHistogram fetchTime = new LatencyHistogram();
+	private final LatencyHistogram parseTime = new LatencyHistogram();
+	private final AtomicLong bytesReceived = new AtomicLong();
+	private final ConcurrentHashMap<String, AtomicLong> errors = new ConcurrentHashMap<String, AtomicLong>();
+
+	ProviderMetrics() {
+	}
+
+	/**
+	 * @return the total times of lookups, successful or not, in
+	 *         nanoseconds
+	 */
+	public LatencyHistogram getLookupTime() {
+	    return lookupTime;
+	}
+
+	/**
+	 * @return the times spent fetching feeds, in nanoseconds
+	 */
+	public LatencyHistogram getFetchTime() {
+	    return fetchTime;
+	}
+
+	/**
+	 * @return the times spent parsing feeds, in nanoseconds
+	 */
+	public LatencyHistogram getParseTime() {
+	    return parseTime;
+	}
+
+	/**
+	 * @return the number of bytes received
+	 */
+	public long getBytesReceived() {
+	    return bytesReceived.get();
+	}
+
+	/**
+	 * @return the number of failures by type, in order of type
+	 */
+	public Map<String, Long> getErrorCounts() {
+	    Map<String, Long> counts = new TreeMap<String, Long>();
+	    for (Map.Entry<String, AtomicLong> error : errors.entrySet())
+		counts.put(error.getKey(), error.getValue().get());
+	    return counts;
+	}
+    }
+}
\ No newline at end of file
@@ -0,0 +1,153 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations that can be recorded from many threads at once
+ * without locking.
+ * <p>
+ * Values are counted in buckets that double in width with each power of two
+ * and are split into 16 sub-buckets, so percentiles are accurate to within
+ * about 6% across the whole range of a long, with a fixed 8 KB of counts.
+ * Recording a value is a few shifts and atomic adds.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public final class LatencyHistogram {
+
+    /**
+     * The number of bits of each value kept exactly, beyond its highest bit.
+     */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /**
+     * The number of sub-buckets in each power of two.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Enough buckets for any positive long.
+     */
+    private static final int BUCKETS = (63 - SUB_BUCKET_BITS) * SUB_BUCKETS
+	    + 2 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     * 
+     * @param value
+     *            the value, usually nanoseconds
+     */
+    public void record(long value) {
+	if (value < 0)
+	    value = 0;
+	counts.incrementAndGet(index(value));
+	count.incrementAndGet();
+	total.addAndGet(value);
+	long current = max.get();
+	while (value > current && !max.compareAndSet(current, value))
+	    current = max.get();
+    }
+
+    /**
+     * @return the number of values recorded
+     */
+    public long getCount() {
+	return count.get();
+    }
+
+    /**
+     * @return the largest value recorded, or 0 if there are none
+     */
+    public long getMax() {
+	return max.get();
+    }
+
+    /**
+     * @return the mean of the values recorded, or 0 if there are none
+     */
+    public double getMean() {
+	long n = count.get();
+	return n == 0 ? 0 : (double) total.get() / n;
+    }
+
+    /**
+     * Gets the value that the given percentage of values are at or below.
+     * 
+     * @param percentile
+     *            the percentile, from 0 to 100
+     * @return the highest value that could be in the bucket holding the
+     *         percentile, or 0 if there are no values
+     */
+    public long getValueAtPercentile(double percentile) {
+	if (percentile < 0 || percentile > 100)
+	    throw new IllegalArgumentException("Percentile out of range: "
+		    + percentile);
+	long n = count.get();
+	if (n == 0)
+	    return 0;
+	long target = Math.max(1, (long) Math.ceil(n * percentile / 100));
+	long seen = 0;
+	for (int i = 0; i < BUCKETS; i++) {
+	    seen += counts.get(i);
+	    if (seen >= target)
+		return Math.min(highestValue(i), max.get());
+	}
+	return max.get();
+    }
+
+    /**
+     * Clears every recorded value. Values recorded while resetting may be
+     * partly lost.
+     */
+    public void reset() {
+	for (int i = 0; i < BUCKETS; i++)
+	    counts.set(i, 0);
+	count.set(0);
+	total.set(0);
+	max.set(0);
+    }
+
+    private static int index(long value) {
+	if (value < 2 * SUB_BUCKETS)
+	    return (int) value;
+	int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+	return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    private static long highestValue(int index) {
+	if (index < 2 * SUB_BUCKETS)
+	    return index;
+	int shift = index / SUB_BUCKETS - 1;
+	long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+	return ((subBucket + 1) << shift) - 1;
+    }
+}
\ No newline at end of file
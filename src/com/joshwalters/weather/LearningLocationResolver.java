@@ -0,0 +1,75 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A LocationResolver that learns the location of each zip code from the
+ * reports fetched for it. The first lookup of a zip code goes to the feed on
+ * its own; after that it shares the report of every other zip code that was
+ * reported in the same place.
+ * <p>
+ * A place is the location named in the report together with the first three
+ * digits of the zip code, which name the mail sorting region, so towns with
+ * the same name in different parts of the country are kept apart.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public class LearningLocationResolver implements LocationResolver {
+
+    /**
+     * Stores the learned location key of each zip code.
+     */
+    private final ConcurrentHashMap<String, String> locations = new ConcurrentHashMap<String, String>();
+
+    public String resolve(String zipCode) {
+	return locations.get(zipCode);
+    }
+
+    public void learn(String zipCode, WeatherReport report) {
+	String location = report.getCompactCurrentWeatherConditions()
+		.getLocation();
+	if (location == null || location.length() == 0
+		|| zipCode.length() < 3)
+	    return;
+	locations.put(zipCode, zipCode.substring(0, 3) + ":"
+		+ location.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @return the number of zip codes whose location has been learned
+     */
+    public int size() {
+	return locations.size();
+    }
+
+    /**
+     * Forgets every learned location.
+     */
+    public void clear() {
+	locations.clear();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,61 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+/**
+ * Maps zip codes to the location whose report they share. The feeds report
+ * weather by city, so many zip codes get the same report; a WeatherLookup
+ * with a resolver fetches each location once and gives its report to every
+ * zip code that resolves to it, both for lookups running at the same time
+ * and within a batch.
+ * <p>
+ * Resolvers are shared between threads, so they must be thread safe.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ * @see WeatherLookup#setLocationResolver(LocationResolver)
+ */
+public interface LocationResolver {
+
+    /**
+     * Gets the key of the location a zip code belongs to. Zip codes with the
+     * same key get the same report.
+     * 
+     * @param zipCode
+     *            Zip code
+     * @return the location key, or null if the location is not known, in
+     *         which case the zip code is looked up on its own
+     */
+    String resolve(String zipCode);
+
+    /**
+     * Called with every report fetched from a feed, so a resolver can learn
+     * which location a zip code belongs to.
+     * 
+     * @param zipCode
+     *            the zip code that was looked up
+     * @param report
+     *            the report for it
+     */
+    void learn(String zipCode, WeatherReport report);
+}
\ No newline at end of file
@@ -0,0 +1,100 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A LocationResolver that looks zip codes up in a fixed table, such as a
+ * zip code to city list.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public class TableLocationResolver implements LocationResolver {
+
+    /**
+     * Stores the location key of each zip code.
+     */
+    private final ConcurrentHashMap<String, String> locations = new ConcurrentHashMap<String, String>();
+
+    /**
+     * Reads a table with one "zip code,location key" line per zip code.
+     * Blank lines and lines starting with # are skipped.
+     * 
+     * @param in
+     *            the table, not closed
+     * @return the resolver
+     * @throws IOException
+     *             if the table can not be read or has a line without a comma
+     */
+    public static TableLocationResolver read(Reader in) throws IOException {
+	TableLocationResolver resolver = new TableLocationResolver();
+	BufferedReader reader = new BufferedReader(in);
+	int lineNumber = 0;
+	String line;
+	while ((line = reader.readLine()) != null) {
+	    lineNumber++;
+	    line = line.trim();
+	    if (line.length() == 0 || line.startsWith("#"))
+		continue;
+	    int comma = line.indexOf(',');
+	    if (comma < 0)
+		throw new IOException("Missing comma on line " + lineNumber
+			+ ".");
+	    resolver.put(line.substring(0, comma).trim(), line.substring(
+		    comma + 1).trim());
+	}
+	return resolver;
+    }
+
+    /**
+     * Adds a zip code to the table.
+     * 
+     * @param zipCode
+     *            Zip code
+     * @param location
+     *            the key of its location
+     */
+    public void put(String zipCode, String location) {
+	locations.put(zipCode, location);
+    }
+
+    /**
+     * @return the number of zip codes in the table
+     */
+    public int size() {
+	return locations.size();
+    }
+
+    public String resolve(String zipCode) {
+	return locations.get(zipCode);
+    }
+
+    public void learn(String zipCode, WeatherReport report) {
+	// The table is fixed
+    }
+}
\ No newline at end of file
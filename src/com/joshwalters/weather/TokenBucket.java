@@ -0,0 +1,123 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+/**
+ * A token bucket rate limiter. Tokens are added at a steady rate up to a
+ * maximum, and each request takes one, so requests can come in short bursts
+ * but average out to the rate.
+ * <p>
+ * A bucket is thread safe. Share one bucket between everything that calls
+ * the same weather service to limit the calls to the service as a whole.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public class TokenBucket {
+
+    /**
+     * Stores the number of tokens added per nanosecond.
+     */
+    private final double tokensPerNano;
+
+    /**
+     * Stores the most tokens the bucket can hold.
+     */
+    private final double capacity;
+
+    /**
+     * Stores the tokens in the bucket. Guarded by this.
+     */
+    private double tokens;
+
+    /**
+     * Stores when tokens were last added, from System.nanoTime(). Guarded by
+     * this.
+     */
+    private long refilledAt;
+
+    /**
+     * Makes a full bucket.
+     * 
+     * @param tokensPerSecond
+     *            the rate tokens are added at
+     * @param capacity
+     *            the most tokens the bucket can hold, the largest burst
+     */
+    public TokenBucket(double tokensPerSecond, int capacity) {
+	if (tokensPerSecond <= 0)
+	    throw new IllegalArgumentException("Rate must be positive.");
+	if (capacity < 1)
+	    throw new IllegalArgumentException("Capacity must be at least 1.");
+	this.tokensPerNano = tokensPerSecond / 1e9;
+	this.capacity = capacity;
+	this.tokens = capacity;
+	this.refilledAt = System.nanoTime();
+    }
+
+    /**
+     * Takes a token if there is one.
+     * 
+     * @return true if a token was taken
+     */
+    public boolean tryAcquire() {
+	return tryAcquire(1);
+    }
+
+    /**
+     * Takes a number of tokens if there are that many. None are taken
+     * otherwise.
+     * 
+     * @param permits
+     *            the number of tokens
+     * @return true if the tokens were taken
+     */
+    public synchronized boolean tryAcquire(int permits) {
+	refill();
+	if (tokens < permits)
+	    return false;
+	tokens -= permits;
+	return true;
+    }
+
+    /**
+     * @return the number of whole tokens in the bucket
+     */
+    public synchronized int getAvailableTokens() {
+	refill();
+	return (int) tokens;
+    }
+
+    /**
+     * @return the most tokens the bucket can hold
+     */
+    public int getCapacity() {
+	return (int) capacity;
+    }
+
+    private void refill() {
+	long now = System.nanoTime();
+	tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+	refilledAt = now;
+    }
+}
\ No newline at end of file
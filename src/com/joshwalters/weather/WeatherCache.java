@@ -0,0 +1,509 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded cache of weather reports, keyed by provider and zip code.
+ * Reports expire after a fixed time to live. When several threads miss on the
+ * same key at once only one of them fetches the report, the others wait for
+ * it. A cache can be shared by several WeatherLookup instances.
+ * <p>
+ * Hits take no lock, even on the same key, so a few popular zip codes can be
+ * read by many threads at once. A hit only stamps its report with the time.
+ * When a put fills the cache past its maximum size, one thread evicts the
+ * expired reports and then the least recently used ones, down to 95% of the
+ * maximum, so the scan for them is shared by the puts that follow. Puts
+ * racing with an eviction may leave the cache up to 5% over its maximum,
+ * past which they wait for it.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public class WeatherCache {
+
+    /**
+     * The default number of reports to keep.
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+    /**
+     * The default time to keep a report for, in minutes.
+     */
+    public static final long DEFAULT_TIME_TO_LIVE_MINUTES = 10;
+
+    /**
+     * An eviction leaves the cache this fraction of its maximum size short
+     * of it.
+     */
+    private static final int EVICTION_FRACTION = 20;
+
+    /**
+     * Receives the reports in the cache, see forEach().
+     */
+    interface Visitor {
+	void visit(String provider, String zipCode, WeatherReport report,
+		long loadedAt) throws IOException;
+    }
+
+    /**
+     * Stores the maximum number of reports to keep.
+     */
+    private final int maximumSize;
+
+    /**
+     * Stores the time to keep a report for, in milliseconds.
+     */
+    private final long timeToLiveMillis;
+
+    /**
+     * Stores the reports.
+     */
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<Key, Entry>();
+
+    /**
+     * Held by the thread evicting. Others that fill the cache meanwhile
+     * leave the eviction to it.
+     */
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    /**
+     * Stores the loads that are running, so concurrent misses can share them.
+     */
+    private final InFlightLoads<Key> loading = new InFlightLoads<Key>();
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * Makes a cache with the default size and time to live.
+     */
+    public WeatherCache() {
+	this(DEFAULT_MAXIMUM_SIZE, DEFAULT_TIME_TO_LIVE_MINUTES,
+		TimeUnit.MINUTES);
+    }
+
+    /**
+     * Makes a cache.
+     * 
+     * @param maximumSize
+     *            the maximum number of reports to keep
+     * @param timeToLive
+     *            how long to keep a report for
+     * @param unit
+     *            the unit of timeToLive
+     */
+    public WeatherCache(int maximumSize, long timeToLive, TimeUnit unit) {
+	if (maximumSize < 1)
+	    throw new IllegalArgumentException(
+		    "Maximum size must be at least 1.");
+	if (timeToLive <= 0)
+	    throw new IllegalArgumentException(
+		    "Time to live must be positive.");
+
+	this.maximumSize = maximumSize;
+	this.timeToLiveMillis = unit.toMillis(timeToLive);
+    }
+
+    /**
+     * Gets a report, loading it if it is not cached or has expired.
+     * 
+     * @param provider
+     *            the provider
+     * @param zipCode
+     *            Zip code
+     * @param loader
+     *            fetches the report on a miss
+     * @return the report
+     * @throws WeatherLookupException
+     *             if the zip code is null or the load failed
+     */
+    WeatherReport get(WeatherProvider provider, String zipCode,
+	    final InFlightLoads.Loader loader) throws WeatherLookupException {
+	if (zipCode == null)
+	    throw new WeatherLookupException(
+		    WeatherLookupException.Category.BAD_KEY,
+		    "Zip code can not be null.");
+	final Key key = new Key(provider.getName(), zipCode);
+	WeatherReport report = getIfPresent(key);
+	if (report != null)
+	    return report;
+
+	// Join a load that is already running for this key, if there is one
+	return loading.load(key, () -> {
+	    WeatherReport loaded = loader.load();
+	    put(key, loaded);
+	    return loaded;
+	});
+    }
+
+    /**
+     * Gets a report if it is cached and has not expired.
+     * 
+     * @param service
+     *            the lookup service
+     * @param zipCode
+     *            Zip code
+     * @return the report, or null
+     */
+    public WeatherReport getIfPresent(WeatherLookupService service,
+	    String zipCode) {
+	return getIfPresent(new Key(service.name(), zipCode));
+    }
+
+    /**
+     * Gets a report if it is cached and has not expired.
+     * 
+     * @param provider
+     *            the provider
+     * @param zipCode
+     *            Zip code
+     * @return the report, or null
+     */
+    public WeatherReport getIfPresent(WeatherProvider provider, String zipCode) {
+	return getIfPresent(new Key(provider.getName(), zipCode));
+    }
+
+    /**
+     * Adds a report to the cache, replacing any report for the same key.
+     * 
+     * @param service
+     *            the lookup service
+     * @param zipCode
+     *            Zip code
+     * @param report
+     *            the report
+     */
+    public void put(WeatherLookupService service, String zipCode,
+	    WeatherReport report) {
+	put(new Key(service.name(), zipCode), report);
+    }
+
+    /**
+     * Adds a report to the cache, replacing any report for the same key.
+     * 
+     * @param provider
+     *            the provider
+     * @param zipCode
+     *            Zip code
+     * @param report
+     *            the report
+     */
+    public void put(WeatherProvider provider, String zipCode,
+	    WeatherReport report) {
+	put(new Key(provider.getName(), zipCode), report);
+    }
+
+    /**
+     * Removes a report from the cache.
+     * 
+     * @param service
+     *            the lookup service
+     * @param zipCode
+     *            Zip code
+     */
+    public void invalidate(WeatherLookupService service, String zipCode) {
+	entries.remove(new Key(service.name(), zipCode));
+    }
+
+    /**
+     * Removes a report from the cache.
+     * 
+     * @param provider
+     *            the provider
+     * @param zipCode
+     *            Zip code
+     */
+    public void invalidate(WeatherProvider provider, String zipCode) {
+	entries.remove(new Key(provider.getName(), zipCode));
+    }
+
+    /**
+     * Removes every report from the cache.
+     */
+    public void invalidateAll() {
+	entries.clear();
+    }
+
+    /**
+     * Writes every report in the cache to a snapshot file, so they can be
+     * loaded back with loadSnapshot() when the application starts again. The
+     * file is replaced in one step, a failed save leaves the old one intact.
+     * 
+     * @param file
+     *            the snapshot file
+     * @return the number of reports written
+     * @throws IOException
+     */
+    public int saveSnapshot(File file) throws IOException {
+	return WeatherSnapshot.write(this, file);
+    }
+
+    /**
+     * Loads the reports from a snapshot file written by saveSnapshot(). Each
+     * report keeps the time it was originally fetched, so reports that have
+     * since expired are fetched again on their next lookup. A report is not
+     * loaded over a newer one already in the cache.
+     * 
+     * @param file
+     *            the snapshot file
+     * @return the number of reports loaded
+     * @throws IOException
+     *             if the file can not be read or is not a snapshot
+     */
+    public int loadSnapshot(File file) throws IOException {
+	return WeatherSnapshot.read(file, this);
+    }
+
+    /**
+     * @param unit
+     *            the unit of the result
+     * @return the time a report is kept for
+     */
+    public long getTimeToLive(TimeUnit unit) {
+	return unit.convert(timeToLiveMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the number of reports in the cache, including expired ones that
+     *         have not been removed yet
+     */
+    public int size() {
+	return entries.size();
+    }
+
+    /**
+     * @return the number of lookups that were answered from the cache
+     */
+    public long getHitCount() {
+	return hitCount.sum();
+    }
+
+    /**
+     * @return the number of lookups that were not answered from the cache
+     */
+    public long getMissCount() {
+	return missCount.sum();
+    }
+
+    /**
+     * @return the number of reports removed because the cache was full or
+     *         they had expired
+     */
+    public long getEvictionCount() {
+	return evictionCount.sum();
+    }
+
+    private WeatherReport getIfPresent(Key key) {
+	long now = System.currentTimeMillis();
+	Entry entry = entries.get(key);
+	if (entry != null) {
+	    if (now - entry.loadedAt < timeToLiveMillis) {
+		// Write the stamp at most once a millisecond, not every hit
+		if (entry.usedAt != now)
+		    entry.usedAt = now;
+		hitCount.increment();
+		return entry.report;
+	    }
+	    if (entries.remove(key, entry))
+		evictionCount.increment();
+	}
+	missCount.increment();
+	return null;
+    }
+
+    private void put(Key key, WeatherReport report) {
+	long now = System.currentTimeMillis();
+	entries.put(key, new Entry(report, now, now));
+	evictIfFull();
+    }
+
+    /**
+     * Adds a report fetched at a given time, unless the cache already has a
+     * newer report for the key.
+     * 
+     * @return true if the report was added
+     */
+    boolean restore(String provider, String zipCode, WeatherReport report,
+	    long loadedAt) {
+	Key key = new Key(provider, zipCode);
+	// Restored reports were last used when they were fetched
+	Entry entry = new Entry(report, loadedAt, loadedAt);
+	while (true) {
+	    Entry existing = entries.putIfAbsent(key, entry);
+	    if (existing == null)
+		break;
+	    if (existing.loadedAt >= loadedAt)
+		return false;
+	    if (entries.replace(key, existing, entry))
+		break;
+	}
+	evictIfFull();
+	return true;
+    }
+
+    /**
+     * Passes every report to a visitor, least recently used first. The
+     * reports are copied out first, so the visitor does not hold up lookups.
+     */
+    void forEach(Visitor visitor) throws IOException {
+	List<Used> copy = new ArrayList<Used>(entries.size());
+	for (Map.Entry<Key, Entry> entry : entries.entrySet())
+	    copy.add(new Used(entry.getKey(), entry.getValue()));
+	Collections.sort(copy);
+	for (Used used : copy) {
+	    visitor.visit(used.key.provider, used.key.zipCode,
+		    used.entry.report, used.entry.loadedAt);
+	}
+    }
+
+    /**
+     * Evicts reports if the cache is over its maximum size: the expired
+     * ones, then the least recently used, until it is EVICTION_FRACTION of
+     * its maximum short of it.
+     */
+    private void evictIfFull() {
+	int size = entries.size();
+	if (size <= maximumSize)
+	    return;
+	// Leave it to the thread evicting, unless it has fallen behind
+	if (size - maximumSize <= maximumSize / EVICTION_FRACTION) {
+	    if (!evictionLock.tryLock())
+		return;
+	} else {
+	    evictionLock.lock();
+	}
+	try {
+	    if (entries.size() <= maximumSize)
+		return;
+	    int excess = entries.size() - maximumSize + maximumSize
+		    / EVICTION_FRACTION;
+	    long now = System.currentTimeMillis();
+
+	    // Keep the excess least recently used, the most recent on top
+	    PriorityQueue<Used> oldest = new PriorityQueue<Used>(excess + 1,
+		    Collections.reverseOrder());
+	    for (Map.Entry<Key, Entry> entry : entries.entrySet()) {
+		Used used = new Used(entry.getKey(), entry.getValue());
+		if (now - used.entry.loadedAt >= timeToLiveMillis) {
+		    if (entries.remove(used.key, used.entry)) {
+			evictionCount.increment();
+			excess--;
+		    }
+		} else {
+		    oldest.add(used);
+		    if (oldest.size() > excess)
+			oldest.poll();
+		}
+	    }
+	    while (oldest.size() > Math.max(excess, 0))
+		oldest.poll();
+	    for (Used used : oldest) {
+		if (entries.remove(used.key, used.entry))
+		    evictionCount.increment();
+	    }
+	} finally {
+	    evictionLock.unlock();
+	}
+    }
+
+    /**
+     * A cached report and when it was loaded.
+     */
+    private static final class Entry {
+	final WeatherReport report;
+	final long loadedAt;
+
+	/**
+	 * Stores when the report was last put or hit, in milliseconds.
+	 */
+	volatile long usedAt;
+
+	Entry(WeatherReport report, long loadedAt, long usedAt) {
+	    this.report = report;
+	    this.loadedAt = loadedAt;
+	    this.usedAt = usedAt;
+	}
+    }
+
+    /**
+     * An entry with the time it was last used, read once so that hits while
+     * entries are being ordered do not change the order.
+     */
+    private static final class Used implements Comparable<Used> {
+	final Key key;
+	final Entry entry;
+	final long usedAt;
+
+	Used(Key key, Entry entry) {
+	    this.key = key;
+	    this.entry = entry;
+	    this.usedAt = entry.usedAt;
+	}
+
+	public int compareTo(Used other) {
+	    return Long.compare(usedAt, other.usedAt);
+	}
+    }
+
+    /**
+     * The cache key, a provider name and zip code.
+     */
+    private static final class Key {
+	final String provider;
+	final String zipCode;
+
+	Key(String provider, String zipCode) {
+	    if (zipCode == null)
+		throw new IllegalArgumentException("Zip code can not be null.");
+	    this.provider = provider;
+	    this.zipCode = zipCode;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+	    if (!(o instanceof Key))
+		return false;
+	    Key other = (Key) o;
+	    return provider.equals(other.provider)
+		    && zipCode.equals(other.zipCode);
+	}
+
+	@Override
+	public int hashCode() {
+	    return 31 * provider.hashCode() + zipCode.hashCode();
+	}
+    }
+}
\ No newline at end of file
@@ -0,0 +1,585 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares the lookups of a weather service between several nodes, so each
+ * zip code is fetched and cached by only one of them.
+ * <p>
+ * The nodes are placed on a consistent hash ring, and each zip code of each
+ * service belongs to one node, its owner. A node looks up the zip codes it
+ * owns with its own WeatherLookup, and asks the owner for the rest over a
+ * small binary protocol. With n nodes each zip code is fetched once instead
+ * of up to n times. When nodes join or leave the ring only the zip codes of
+ * their points change owner.
+ * <p>
+ * Every node is told the same members with setMembers(), addMember() and
+ * removeMember(); a node is named by the host and port peers reach it on,
+ * such as "127.0.0.1:7400". A node that can not reach the owner of a zip
+ * code looks it up itself, so a node that goes down costs extra fetches but
+ * not failed lookups.
+ * <p>
+ * A request is the service name and the zip code, each written as modified
+ * UTF-8. The answer is a status byte: 0 followed by the length of the report
+ * and the report, encoded as in cache snapshots, or 1 followed by the
+ * category and message of the lookup's exception. Connections are kept open
+ * and reused.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public class WeatherClusterNode {
+
+    /**
+     * The default most time to wait for an owner to answer, in
+     * milliseconds. Long enough for the owner's own fetch to time out first.
+     */
+    public static final int DEFAULT_FORWARD_TIMEOUT = WeatherLookup.DEFAULT_CONNECT_TIMEOUT
+	    + WeatherLookup.DEFAULT_READ_TIMEOUT + 5000;
+
+    /**
+     * The most time to wait to connect to another node, in milliseconds.
+     */
+    private static final int CONNECT_TIMEOUT = 1000;
+
+    /**
+     * The most idle connections kept to each other node.
+     */
+    private static final int MAX_IDLE_CONNECTIONS = 16;
+
+    /**
+     * The longest exception message sent to another node.
+     */
+    private static final int MAX_MESSAGE_LENGTH = 1000;
+
+    /**
+     * The longest encoded report accepted from another node. Reports are a
+     * few hundred bytes, so a longer length means a broken or hostile peer.
+     */
+    private static final int MAX_REPORT_LENGTH = 1 << 20;
+
+    private static final byte OK = 0;
+    private static final byte FAILED = 1;
+
+    private static final WeatherLookupException.Category[] categories = WeatherLookupException.Category
+	    .values();
+
+    private final WeatherLookup weather;
+    private final InetSocketAddress address;
+
+    private volatile String name;
+    private volatile ConsistentHashRing ring;
+    private volatile int virtualNodes = ConsistentHashRing.DEFAULT_VIRTUAL_NODES;
+    private volatile int forwardTimeout = DEFAULT_FORWARD_TIMEOUT;
+
+    /**
+     * Stores the idle connections to each other node.
+     */
+    private final Map<String, ConcurrentLinkedDeque<Connection>> idle = new ConcurrentHashMap<String, ConcurrentLinkedDeque<Connection>>();
+
+    /**
+     * Stores the connections other nodes have open to this one.
+     */
+    private final Set<Socket> accepted = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong localCount = new AtomicLong();
+    private final AtomicLong forwardedCount = new AtomicLong();
+    private final AtomicLong servedCount = new AtomicLong();
+    private final AtomicLong forwardFailureCount = new AtomicLong();
+
+    private ServerSocket serverSocket;
+    private ExecutorService executor;
+
+    /**
+     * Makes a node that listens on a port of the loopback address, for
+     * clusters within one machine. A lookup without a cache is given one.
+     * 
+     * @param weather
+     *            the lookup
+     * @param port
+     *            the port, 0 for any free port
+     */
+    public WeatherClusterNode(WeatherLookup weather, int port) {
+	this(weather, new InetSocketAddress(InetAddress.getLoopbackAddress(),
+		port));
+    }
+
+    /**
+     * Makes a node. A lookup without a cache is given one, so the zip codes
+     * the node owns are fetched once.
+     * 
+     * @param weather
+     *            the lookup
+     * @param address
+     *            the address to listen on, which must be the address other
+     *            nodes reach this one on
+     */
+    public WeatherClusterNode(WeatherLookup weather, InetSocketAddress address) {
+	if (weather.getCache() == null)
+	    weather.setCache(new WeatherCache());
+	this.weather = weather;
+	this.address = address;
+    }
+
+    /**
+     * Starts listening for other nodes. Until members are set the node is
+     * the only one on its ring.
+     * 
+     * @throws IOException
+     *             if the address can not be bound
+     */
+    public synchronized void start() throws IOException {
+	if (serverSocket != null)
+	    return;
+	ServerSocket socket = new ServerSocket();
+	socket.setReuseAddress(true);
+	socket.bind(address, 1024);
+	serverSocket = socket;
+	name = (address.isUnresolved() ? address.getHostString() : address
+		.getAddress().getHostAddress())
+		+ ":" + socket.getLocalPort();
+	if (ring == null)
+	    ring = new ConsistentHashRing(Collections.singleton(name),
+		    virtualNodes);
+	executor = Executors.newCachedThreadPool(runnable -> {
+	    Thread thread = new Thread(runnable, "weather-cluster");
+	    thread.setDaemon(true);
+	    return thread;
+	});
+	executor.execute(() -> accept(socket));
+    }
+
+    /**
+     * Stops listening and closes every connection. Lookups of zip codes
+     * owned by other nodes are still forwarded, other nodes fall back to
+     * their own lookups for the zip codes this one owned until it is removed
+     * from their members.
+     */
+    public synchronized void stop() {
+	if (serverSocket == null)
+	    return;
+	close(serverSocket);
+	serverSocket = null;
+	for (Socket socket : accepted)
+	    close(socket);
+	accepted.clear();
+	executor.shutdownNow();
+	for (ConcurrentLinkedDeque<Connection> connections : idle.values()) {
+	    Connection connection;
+	    while ((connection = connections.poll()) != null)
+		close(connection.socket);
+	}
+    }
+
+    /**
+     * @return the name of the node, its host and port
+     */
+    public String getName() {
+	String name = this.name;
+	if (name == null)
+	    throw new IllegalStateException("Node not started.");
+	return name;
+    }
+
+    /**
+     * @return the lookup the node uses for the zip codes it owns
+     */
+    public WeatherLookup getLookup() {
+	return weather;
+    }
+
+    /**
+     * Sets the nodes of the cluster. The node itself is always a member.
+     * 
+     * @param members
+     *            the names of the nodes
+     */
+    public synchronized void setMembers(Collection<String> members) {
+	Set<String> names = new TreeSet<String>(members);
+	names.add(getName());
+	ring = new ConsistentHashRing(names, virtualNodes);
+
+	// Drop the connections to nodes that left
+	for (String member : idle.keySet()) {
+	    if (!names.contains(member)) {
+		ConcurrentLinkedDeque<Connection> connections = idle
+			.remove(member);
+		Connection connection;
+		while ((connection = connections.poll()) != null)
+		    close(connection.socket);
+	    }
+	}
+    }
+
+    /**
+     * Adds a node to the cluster.
+     * 
+     * @param member
+     *            the name of the node
+     */
+    public synchronized void addMember(String member) {
+	Set<String> names = new TreeSet<String>(getMembers());
+	names.add(member);
+	setMembers(names);
+    }
+
+    /**
+     * Removes a node from the cluster.
+     * 
+     * @param member
+     *            the name of the node
+     */
+    public synchronized void removeMember(String member) {
+	Set<String> names = new TreeSet<String>(getMembers());
+	names.remove(member);
+	setMembers(names);
+    }
+
+    /**
+     * @return the names of the nodes of the cluster, in order
+     */
+    public List<String> getMembers() {
+	getName();
+	return ring.getMembers();
+    }
+
+    /**
+     * Gets the node that looks up a zip code.
+     * 
+     * @param zipCode
+     *            Zip code
+     * @return the name of the node
+     */
+    public String getOwner(String zipCode) {
+	getName();
+	return ring.getOwner(weather.getProvider().getName() + '/' + zipCode);
+    }
+
+    /**
+     * Looks up a zip code, on this node if it owns the zip code and on the
+     * owner otherwise.
+     * 
+     * @param zipCode
+     *            Zip code
+     * @return the report
+     * @throws WeatherLookupException
+     *             if the lookup failed on the owner, or here
+     */
+    public WeatherReport lookupReport(String zipCode)
+	    throws WeatherLookupException {
+	String owner = getOwner(zipCode);
+	if (!owner.equals(name)) {
+	    try {
+		WeatherReport report = forward(owner, zipCode);
+		forwardedCount.incrementAndGet();
+		return report;
+	    } catch (IOException e) {
+		// Look it up here rather than fail
+		forwardFailureCount.incrementAndGet();
+	    }
+	}
+	localCount.incrementAndGet();
+	return weather.lookupReport(zipCode);
+    }
+
+    /**
+     * @return the number of lookups done by this node's own lookup for
+     *         lookupReport()
+     */
+    public long getLocalCount() {
+	return localCount.get();
+    }
+
+    /**
+     * @return the number of lookups answered by other nodes
+     */
+    public long getForwardedCount() {
+	return forwardedCount.get();
+    }
+
+    /**
+     * @return the number of lookups answered for other nodes
+     */
+    public long getServedCount() {
+	return servedCount.get();
+    }
+
+    /**
+     * @return the number of lookups whose owner could not be reached
+     */
+    public long getForwardFailureCount() {
+	return forwardFailureCount.get();
+    }
+
+    /**
+     * @return the number of points each node has on the ring
+     */
+    public int getVirtualNodes() {
+	return virtualNodes;
+    }
+
+    /**
+     * Sets the number of points each node has on the ring, 128 by default.
+     * More points spread the zip codes more evenly. Every node of a cluster
+     * must use the same number.
+     * 
+     * @param virtualNodes
+     *            the number of points
+     */
+    public synchronized void setVirtualNodes(int virtualNodes) {
+	if (virtualNodes < 1)
+	    throw new IllegalArgumentException(
+		    "Need at least one virtual node.");
+	this.virtualNodes = virtualNodes;
+	if (ring != null)
+	    ring = new ConsistentHashRing(ring.getMembers(), virtualNodes);
+    }
+
+    /**
+     * @return the most time to wait for an owner to answer, in milliseconds
+     */
+    public int getForwardTimeout() {
+	return forwardTimeout;
+    }
+
+    /**
+     * Sets the most time to wait for an owner to answer, after which the
+     * zip code is looked up here.
+     * 
+     * @param forwardTimeout
+     *            the timeout in milliseconds
+     */
+    public void setForwardTimeout(int forwardTimeout) {
+	if (forwardTimeout <= 0)
+	    throw new IllegalArgumentException("Timeout must be positive.");
+	this.forwardTimeout = forwardTimeout;
+    }
+
+    /**
+     * Asks the owner of a zip code to look it up.
+     * 
+     * @throws IOException
+     *             if the owner could not be reached or gave a bad answer
+     */
+    private WeatherReport forward(String owner, String zipCode)
+	    throws IOException, WeatherLookupException {
+	ConcurrentLinkedDeque<Connection> connections = idle.computeIfAbsent(
+		owner, key -> new ConcurrentLinkedDeque<Connection>());
+	Connection connection = connections.pollFirst();
+	if (connection != null) {
+	    try {
+		return request(connections, connection, owner, zipCode);
+	    } catch (SocketTimeoutException e) {
+		throw e;
+	    } catch (IOException e) {
+		// The owner may have closed an idle connection, try a new one
+	    }
+	}
+	return request(connections, connect(owner), owner, zipCode);
+    }
+
+    /**
+     * Sends a request on a connection, and returns the connection to the
+     * idle ones if it can be used again.
+     */
+    private WeatherReport request(
+	    ConcurrentLinkedDeque<Connection> connections,
+	    Connection connection, String owner, String zipCode)
+	    throws IOException, WeatherLookupException {
+	boolean reusable = false;
+	try {
+	    connection.socket.setSoTimeout(forwardTimeout);
+	    connection.out.writeUTF(weather.getProvider().getName());
+	    connection.out.writeUTF(zipCode);
+	    connection.out.flush();
+
+	    byte status = connection.in.readByte();
+	    if (status == OK) {
+		int length = connection.in.readInt();
+		if (length < 0 || length > MAX_REPORT_LENGTH)
+		    throw new IOException("Bad report length " + length
+			    + " from " + owner + ".");
+		byte[] report = new byte[length];
+		connection.in.readFully(report);
+		reusable = true;
+		try {
+		    return WeatherSnapshot.decode(ByteBuffer.wrap(report));
+		} catch (RuntimeException e) {
+		    // Any bad report is the peer's fault, so fall back on it
+		    throw new IOException("Bad report from " + owner + ".", e);
+		}
+	    } else if (status == FAILED) {
+		int category = connection.in.readUnsignedByte();
+		String message = connection.in.readUTF();
+		reusable = true;
+		throw new WeatherLookupException(
+			category < categories.length ? categories[category]
+				: WeatherLookupException.Category.UNKNOWN,
+			owner + ": " + message);
+	    }
+	    throw new IOException("Bad status " + status + " from " + owner
+		    + ".");
+	} finally {
+	    if (reusable && connections.size() < MAX_IDLE_CONNECTIONS)
+		connections.offerFirst(connection);
+	    else
+		close(connection.socket);
+	}
+    }
+
+    private Connection connect(String member) throws IOException {
+	int colon = member.lastIndexOf(':');
+	if (colon < 0)
+	    throw new IOException("Bad node name " + member + ".");
+	Socket socket = new Socket();
+	try {
+	    socket.setTcpNoDelay(true);
+	    socket.connect(new InetSocketAddress(member.substring(0, colon),
+		    Integer.parseInt(member.substring(colon + 1))),
+		    CONNECT_TIMEOUT);
+	    return new Connection(socket);
+	} catch (IOException e) {
+	    close(socket);
+	    throw e;
+	} catch (IllegalArgumentException e) {
+	    close(socket);
+	    throw new IOException("Bad node name " + member + ".", e);
+	}
+    }
+
+    /**
+     * Accepts connections from other nodes until the socket is closed.
+     */
+    private void accept(ServerSocket serverSocket) {
+	while (!serverSocket.isClosed()) {
+	    try {
+		Socket socket = serverSocket.accept();
+		socket.setTcpNoDelay(true);
+		accepted.add(socket);
+		executor.execute(() -> serve(socket));
+	    } catch (IOException e) {
+		// Closed by stop(), or a connection that failed to open
+	    } catch (RuntimeException e) {
+		// The executor was shut down by stop()
+		return;
+	    }
+	}
+    }
+
+    /**
+     * Answers the requests of one connection until it is closed.
+     */
+    private void serve(Socket socket) {
+	try {
+	    Connection connection = new Connection(socket);
+	    String service = weather.getProvider().getName();
+	    while (true) {
+		String requested;
+		try {
+		    requested = connection.in.readUTF();
+		} catch (EOFException e) {
+		    return;
+		}
+		String zipCode = connection.in.readUTF();
+		servedCount.incrementAndGet();
+		try {
+		    if (!requested.equals(service))
+			throw new WeatherLookupException(
+				WeatherLookupException.Category.UNKNOWN,
+				"Node looks up " + service + ", not "
+					+ requested + ".");
+		    byte[] report = WeatherSnapshot.encode(weather
+			    .lookupReport(zipCode));
+		    connection.out.writeByte(OK);
+		    connection.out.writeInt(report.length);
+		    connection.out.write(report);
+		} catch (WeatherLookupException e) {
+		    String message = e.getMessage();
+		    if (message == null)
+			message = "";
+		    else if (message.length() > MAX_MESSAGE_LENGTH)
+			message = message.substring(0, MAX_MESSAGE_LENGTH);
+		    connection.out.writeByte(FAILED);
+		    connection.out.writeByte(e.getCategory().ordinal());
+		    connection.out.writeUTF(message);
+		}
+		connection.out.flush();
+	    }
+	} catch (IOException e) {
+	    // The other node went away
+	} finally {
+	    accepted.remove(socket);
+	    close(socket);
+	}
+    }
+
+    private static void close(Closeable closeable) {
+	try {
+	    closeable.close();
+	} catch (IOException e) {
+	    // Nothing more to do
+	}
+    }
+
+    /**
+     * A connection to another node, with its streams.
+     */
+    private static final class Connection {
+	final Socket socket;
+	final DataInputStream in;
+	final DataOutputStream out;
+
+	Connection(Socket socket) throws IOException {
+	    this.socket = socket;
+	    in = new DataInputStream(new BufferedInputStream(socket
+		    .getInputStream()));
+	    out = new DataOutputStream(new BufferedOutputStream(socket
+		    .getOutputStream()));
+	}
+    }
+}
\ No newline at end of file
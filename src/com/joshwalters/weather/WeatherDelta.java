@@ -0,0 +1,453 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The changes from one report of a zip code to the next: the fields of the
+ * current conditions and forecasts that changed, and the forecasts that were
+ * added or dropped.
+ * <p>
+ * Forecasts are matched by day of the week, so when the feed moves on a day
+ * the delta drops the first forecast and adds the new last one, instead of
+ * changing every field of every forecast. A delta is applied in order:
+ * removals use the positions in the previous forecasts, and everything after
+ * them the positions in the new ones.
+ * <p>
+ * A full delta is the difference from no report at all, it sets every field
+ * and adds every forecast. It is sent when there is no previous report, or
+ * when a subscriber missed a delta. A delta is never modified once it has
+ * been built, so it can be shared between threads.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ * @see WeatherDeltaPublisher
+ */
+public final class WeatherDelta {
+
+    /**
+     * The fields of a weather condition, in the order of the
+     * WeatherCondition getters.
+     */
+    public enum Field {
+	LOCATION, CONDITION, TEMP_F, TEMP_C, HUMIDITY, WIND, DAY_OF_WEEK, LOW, HIGH;
+
+	/**
+	 * @return the name of the field in the export formats, such as
+	 *         "temp_f"
+	 */
+	public String getExportName() {
+	    // The export fields start with zip_code and type
+	    return WeatherExportFormat.FIELDS[ordinal() + 2];
+	}
+    }
+
+    /**
+     * The kinds of change.
+     */
+    public enum Type {
+	/**
+	 * A field of the current conditions was set.
+	 */
+	CURRENT,
+
+	/**
+	 * A field of a forecast was set.
+	 */
+	FORECAST,
+
+	/**
+	 * An empty forecast was added, its fields are set by the changes
+	 * that follow.
+	 */
+	FORECAST_INSERTED,
+
+	/**
+	 * A forecast was dropped.
+	 */
+	FORECAST_REMOVED
+    }
+
+    private static final Type[] types = Type.values();
+    private static final Field[] fields = Field.values();
+
+    private final String zipCode;
+    private final boolean full;
+
+    /**
+     * Stores the type of each change in the high bits and its field in the
+     * low bits.
+     */
+    private final byte[] changes;
+
+    /**
+     * Stores the forecast of each change, -1 for the current conditions.
+     */
+    private final short[] forecasts;
+
+    /**
+     * Stores the value of each change that sets a field.
+     */
+    private final String[] values;
+
+    private WeatherDelta(String zipCode, boolean full, byte[] changes,
+	    short[] forecasts, String[] values) {
+	this.zipCode = zipCode;
+	this.full = full;
+	this.changes = changes;
+	this.forecasts = forecasts;
+	this.values = values;
+    }
+
+    /**
+     * Finds the changes between two reports of a zip code.
+     * 
+     * @param zipCode
+     *            Zip code
+     * @param previous
+     *            the report before, or null to make a full delta
+     * @param current
+     *            the new report
+     * @return the changes, empty if the reports are equal
+     */
+    public static WeatherDelta between(String zipCode, WeatherReport previous,
+	    WeatherReport current) {
+	Builder builder = new Builder();
+	if (previous == null || !previous.getCompactCurrentWeatherConditions()
+		.equals(current.getCompactCurrentWeatherConditions())) {
+	    diff(builder, Type.CURRENT, -1, previous == null ? null : previous
+		    .getCurrentWeatherConditions(), current
+		    .getCurrentWeatherConditions());
+	}
+
+	List<CompactWeatherCondition> before = previous == null ? Collections
+		.<CompactWeatherCondition> emptyList() : previous
+		.getCompactFutureWeatherConditions();
+	List<CompactWeatherCondition> after = current
+		.getCompactFutureWeatherConditions();
+	if (!before.equals(after)) {
+	    int[] matches = matchDays(before, after);
+	    boolean[] kept = new boolean[before.size()];
+	    for (int match : matches) {
+		if (match >= 0)
+		    kept[match] = true;
+	    }
+
+	    // Drop from the end, so the positions of the rest hold
+	    for (int i = before.size() - 1; i >= 0; i--) {
+		if (!kept[i])
+		    builder.add(Type.FORECAST_REMOVED, null, i, null);
+	    }
+	    for (int i = 0; i < after.size(); i++) {
+		if (matches[i] >= 0)
+		    continue;
+		builder.add(Type.FORECAST_INSERTED, null, i, null);
+		diff(builder, Type.FORECAST, i, null, after.get(i)
+			.toWeatherCondition());
+	    }
+	    for (int i = 0; i < after.size(); i++) {
+		int match = matches[i];
+		if (match >= 0 && !before.get(match).equals(after.get(i))) {
+		    diff(builder, Type.FORECAST, i, before.get(match)
+			    .toWeatherCondition(), after.get(i)
+			    .toWeatherCondition());
+		}
+	    }
+	}
+	return builder.build(zipCode, previous == null);
+    }
+
+    /**
+     * Applies the changes to the report they were found from.
+     * 
+     * @param previous
+     *            the report before, ignored for a full delta
+     * @return the new report
+     */
+    public WeatherReport applyTo(WeatherReport previous) {
+	WeatherCondition current;
+	List<WeatherCondition> forecastList;
+	if (full) {
+	    current = new WeatherCondition();
+	    forecastList = new ArrayList<WeatherCondition>();
+	} else {
+	    if (previous == null)
+		throw new IllegalArgumentException(
+			"Only a full delta can be applied to no report.");
+	    current = previous.getCurrentWeatherConditions();
+	    forecastList = new ArrayList<WeatherCondition>(previous
+		    .getFutureWeatherConditions());
+	}
+
+	for (int i = 0; i < changes.length; i++) {
+	    switch (getType(i)) {
+	    case CURRENT:
+		set(current, getField(i), values[i]);
+		break;
+	    case FORECAST:
+		set(forecastList.get(forecasts[i]), getField(i), values[i]);
+		break;
+	    case FORECAST_INSERTED:
+		forecastList.add(forecasts[i], new WeatherCondition());
+		break;
+	    case FORECAST_REMOVED:
+		forecastList.remove(forecasts[i]);
+		break;
+	    }
+	}
+	return new WeatherReport(current, forecastList);
+    }
+
+    /**
+     * @return the zip code the delta is for
+     */
+    public String getZipCode() {
+	return zipCode;
+    }
+
+    /**
+     * @return true if the delta is the difference from no report
+     */
+    public boolean isFull() {
+	return full;
+    }
+
+    /**
+     * @return true if nothing changed
+     */
+    public boolean isEmpty() {
+	return changes.length == 0;
+    }
+
+    /**
+     * @return the number of changes
+     */
+    public int size() {
+	return changes.length;
+    }
+
+    /**
+     * @param index
+     *            the change, from 0
+     * @return the kind of change
+     */
+    public Type getType(int index) {
+	return types[changes[index] >> 4];
+    }
+
+    /**
+     * @param index
+     *            the change, from 0
+     * @return the field that was set, or null if a forecast was added or
+     *         dropped
+     */
+    public Field getField(int index) {
+	int field = changes[index] & 0xF;
+	return field == 0xF ? null : fields[field];
+    }
+
+    /**
+     * @param index
+     *            the change, from 0
+     * @return the position of the forecast changed, or -1 for the current
+     *         conditions
+     */
+    public int getForecast(int index) {
+	return forecasts[index];
+    }
+
+    /**
+     * @param index
+     *            the change, from 0
+     * @return the value the field was set to, which may be null
+     */
+    public String getValue(int index) {
+	return values[index];
+    }
+
+    @Override
+    public String toString() {
+	StringBuilder text = new StringBuilder(zipCode).append(full ? " full:"
+		: ":");
+	for (int i = 0; i < changes.length; i++) {
+	    text.append(i == 0 ? " " : ", ");
+	    Type type = getType(i);
+	    if (type == Type.CURRENT)
+		text.append("current");
+	    else
+		text.append("forecast[").append(forecasts[i]).append(']');
+	    if (type == Type.FORECAST_INSERTED)
+		text.append(" added");
+	    else if (type == Type.FORECAST_REMOVED)
+		text.append(" dropped");
+	    else
+		text.append('.').append(getField(i).getExportName()).append('=')
+			.append(values[i]);
+	}
+	return text.toString();
+    }
+
+    /**
+     * Adds a change for each field that differs between two conditions.
+     */
+    private static void diff(Builder builder, Type type, int forecast,
+	    WeatherCondition before, WeatherCondition after) {
+	for (Field field : fields) {
+	    String value = get(after, field);
+	    String old = before == null ? null : get(before, field);
+	    if (!Objects.equals(old, value))
+		builder.add(type, field, forecast, value);
+	}
+    }
+
+    /**
+     * Matches the forecasts of two reports by day of the week, keeping their
+     * order and matching as many as possible.
+     * 
+     * @return the position in before of each forecast in after, or -1
+     */
+    private static int[] matchDays(List<CompactWeatherCondition> before,
+	    List<CompactWeatherCondition> after) {
+	int n = before.size();
+	int m = after.size();
+	String[] beforeDays = new String[n];
+	String[] afterDays = new String[m];
+	for (int i = 0; i < n; i++)
+	    beforeDays[i] = before.get(i).toWeatherCondition().getDayOfWeek();
+	for (int j = 0; j < m; j++)
+	    afterDays[j] = after.get(j).toWeatherCondition().getDayOfWeek();
+
+	// Longest common subsequence, the lists are a few days long
+	int[][] lengths = new int[n + 1][m + 1];
+	for (int i = n - 1; i >= 0; i--) {
+	    for (int j = m - 1; j >= 0; j--) {
+		if (Objects.equals(beforeDays[i], afterDays[j]))
+		    lengths[i][j] = lengths[i + 1][j + 1] + 1;
+		else
+		    lengths[i][j] = Math.max(lengths[i + 1][j],
+			    lengths[i][j + 1]);
+	    }
+	}
+	int[] matches = new int[m];
+	int i = 0;
+	for (int j = 0; j < m; j++) {
+	    matches[j] = -1;
+	    while (i < n && lengths[i][j] == lengths[i + 1][j])
+		i++;
+	    if (i < n && Objects.equals(beforeDays[i], afterDays[j])
+		    && lengths[i][j] == lengths[i + 1][j + 1] + 1) {
+		matches[j] = i++;
+	    }
+	}
+	return matches;
+    }
+
+    private static String get(WeatherCondition condition, Field field) {
+	switch (field) {
+	case LOCATION:
+	    return condition.getLocation();
+	case CONDITION:
+	    return condition.getGeneralWeatherCondition();
+	case TEMP_F:
+	    return condition.getTempF();
+	case TEMP_C:
+	    return condition.getTempC();
+	case HUMIDITY:
+	    return condition.getHumidity();
+	case WIND:
+	    return condition.getWindCondition();
+	case DAY_OF_WEEK:
+	    return condition.getDayOfWeek();
+	case LOW:
+	    return condition.getLowTemperature();
+	default:
+	    return condition.getHighTemperature();
+	}
+    }
+
+    private static void set(WeatherCondition condition, Field field,
+	    String value) {
+	switch (field) {
+	case LOCATION:
+	    condition.setLocation(value);
+	    break;
+	case CONDITION:
+	    condition.setGeneralWeatherCondition(value);
+	    break;
+	case TEMP_F:
+	    condition.setTempF(value);
+	    break;
+	case TEMP_C:
+	    condition.setTempC(value);
+	    break;
+	case HUMIDITY:
+	    condition.setHumidity(value);
+	    break;
+	case WIND:
+	    condition.setWindCondition(value);
+	    break;
+	case DAY_OF_WEEK:
+	    condition.setDayOfWeek(value);
+	    break;
+	case LOW:
+	    condition.setLowTemperature(value);
+	    break;
+	default:
+	    condition.setHighTemperature(value);
+	}
+    }
+
+    /**
+     * Collects changes into arrays that grow as needed.
+     */
+    private static final class Builder {
+	private byte[] changes = new byte[8];
+	private short[] forecasts = new short[8];
+	private String[] values = new String[8];
+	private int size;
+
+	void add(Type type, Field field, int forecast, String value) {
+	    if (size == changes.length) {
+		changes = Arrays.copyOf(changes, size * 2);
+		forecasts = Arrays.copyOf(forecasts, size * 2);
+		values = Arrays.copyOf(values, size * 2);
+	    }
+	    changes[size] = (byte) (type.ordinal() << 4 | (field == null ? 0xF
+		    : field.ordinal()));
+	    forecasts[size] = (short) forecast;
+	    values[size] = value;
+	    size++;
+	}
+
+	WeatherDelta build(String zipCode, boolean full) {
+	    return new WeatherDelta(zipCode, full, Arrays.copyOf(
+		    changes, size), Arrays.copyOf(forecasts, size),
+		    Arrays.copyOf(values, size));
+	}
+    }
+}
\ No newline at end of file
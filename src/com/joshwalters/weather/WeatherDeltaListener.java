@@ -0,0 +1,44 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+/**
+ * Told of the changes to the weather of a zip code. See
+ * WeatherDeltaPublisher.subscribe().
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public interface WeatherDeltaListener {
+
+    /**
+     * Called with each change, in the order they were published for the zip
+     * code. Called on a thread of the publisher's executor, one delta at a
+     * time for each subscription.
+     * 
+     * @param delta
+     *            the changes, full if the subscriber has no report for the
+     *            zip code yet or missed an earlier delta
+     */
+    void deltaPublished(WeatherDelta delta);
+}
\ No newline at end of file
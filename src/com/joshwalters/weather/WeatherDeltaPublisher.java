@@ -0,0 +1,346 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends subscribers only what changed in the weather of each zip code.
+ * <p>
+ * Each new report is compared with the last one published for its zip code
+ * once, and the delta is shared by every subscriber, so the work grows with
+ * the number of changes rather than with the number of reports times
+ * subscribers. Reports that did not change are not sent at all. The
+ * publisher is a WeatherChangeListener, so it can be added to a
+ * WeatherRefreshScheduler, or reports can be given to publish() directly.
+ * <p>
+ * Each subscriber has a bounded queue, drained one delta at a time on the
+ * executor. When a queue is full the publisher waits up to the offer
+ * timeout, and if the subscriber still has not caught up the delta is
+ * dropped for it. A subscriber that missed a delta for a zip code is sent a
+ * full delta the next time that zip code changes, so a slow subscriber
+ * loses intermediate states but never ends up with a wrong report once the
+ * zip code is published again. A publishing thread that is interrupted
+ * does not wait for full queues, and keeps its interrupt. Listeners that
+ * throw are logged as a warning and still sent later deltas.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public class WeatherDeltaPublisher implements WeatherChangeListener {
+
+    /**
+     * The default queue capacity of a subscriber.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    private static final Logger LOGGER = Logger
+	    .getLogger(WeatherDeltaPublisher.class.getName());
+
+    /**
+     * The default time to wait for a full queue, in milliseconds.
+     */
+    public static final long DEFAULT_OFFER_TIMEOUT_MILLIS = 10;
+
+    /**
+     * Stores the last report published for each zip code.
+     */
+    private final Map<String, WeatherReport> reports = new ConcurrentHashMap<String, WeatherReport>();
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+
+    private final AtomicLong publishedCount = new AtomicLong();
+
+    private volatile Executor executor = ForkJoinPool.commonPool();
+    private volatile long offerTimeoutNanos = TimeUnit.MILLISECONDS
+	    .toNanos(DEFAULT_OFFER_TIMEOUT_MILLIS);
+
+    /**
+     * A subscriber's queue of deltas.
+     */
+    public final class Subscription {
+	private final WeatherDeltaListener listener;
+	private final BlockingQueue<WeatherDelta> queue;
+
+	/**
+	 * Stores the zip codes a delta was dropped for, which need a full
+	 * delta next.
+	 */
+	private final Set<String> stale = ConcurrentHashMap.newKeySet();
+
+	private final AtomicBoolean draining = new AtomicBoolean();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private volatile boolean cancelled;
+
+	private Subscription(WeatherDeltaListener listener, int capacity) {
+	    this.listener = listener;
+	    this.queue = new ArrayBlockingQueue<WeatherDelta>(capacity);
+	}
+
+	/**
+	 * Stops sending deltas to the subscriber. Deltas still queued are
+	 * dropped.
+	 */
+	public void cancel() {
+	    cancelled = true;
+	    subscriptions.remove(this);
+	    queue.clear();
+	}
+
+	/**
+	 * @return true if the subscription has been cancelled
+	 */
+	public boolean isCancelled() {
+	    return cancelled;
+	}
+
+	/**
+	 * @return the number of deltas waiting to be sent
+	 */
+	public int getQueuedCount() {
+	    return queue.size();
+	}
+
+	/**
+	 * @return the number of deltas dropped because the queue was full
+	 */
+	public long getDroppedCount() {
+	    return droppedCount.get();
+	}
+
+	/**
+	 * Queues a delta, waiting for room up to the offer timeout unless the
+	 * thread is interrupted.
+	 */
+	private void offer(WeatherDelta delta, WeatherReport report) {
+	    String zipCode = delta.getZipCode();
+	    if (stale.remove(zipCode) && !delta.isFull())
+		delta = WeatherDelta.between(zipCode, null, report);
+	    boolean queued;
+	    if (Thread.currentThread().isInterrupted()) {
+		queued = queue.offer(delta);
+	    } else {
+		try {
+		    queued = queue.offer(delta, offerTimeoutNanos,
+			    TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+		    // Keep the interrupt, and queue without waiting from now
+		    Thread.currentThread().interrupt();
+		    queued = queue.offer(delta);
+		}
+	    }
+	    if (!queued) {
+		stale.add(zipCode);
+		droppedCount.incrementAndGet();
+		return;
+	    }
+	    schedule();
+	}
+
+	private void schedule() {
+	    if (cancelled || !draining.compareAndSet(false, true))
+		return;
+	    try {
+		executor.execute(() -> drain());
+	    } catch (RejectedExecutionException e) {
+		draining.set(false);
+	    }
+	}
+
+	private void drain() {
+	    try {
+		WeatherDelta delta;
+		while (!cancelled && (delta = queue.poll()) != null) {
+		    try {
+			listener.deltaPublished(delta);
+		    } catch (RuntimeException e) {
+			// A broken listener must not stop its later deltas
+			LOGGER.log(Level.WARNING, "Weather delta listener "
+				+ listener + " failed on the delta for "
+				+ delta.getZipCode() + ".", e);
+		    }
+		}
+	    } finally {
+		draining.set(false);
+	    }
+
+	    // A delta may have been queued after the last poll
+	    if (!queue.isEmpty())
+		schedule();
+	}
+    }
+
+    /**
+     * Publishes a report, sending subscribers what changed since the last
+     * report published for its zip code. Waits for full queues up to the
+     * offer timeout. An unchanged report is only sent, in full, to
+     * subscribers that missed the last delta for the zip code.
+     * 
+     * @param zipCode
+     *            Zip code
+     * @param report
+     *            the new report
+     * @return the changes, or null if the report did not change
+     */
+    public synchronized WeatherDelta publish(String zipCode,
+	    WeatherReport report) {
+	WeatherReport previous = reports.put(zipCode, report);
+	if (report.equals(previous)) {
+	    // Subscribers that missed the last delta still need the report
+	    for (Subscription subscription : subscriptions) {
+		if (subscription.stale.contains(zipCode))
+		    subscription.offer(WeatherDelta.between(zipCode, null,
+			    report), report);
+	    }
+	    return null;
+	}
+	WeatherDelta delta = WeatherDelta.between(zipCode, previous, report);
+	publishedCount.incrementAndGet();
+	for (Subscription subscription : subscriptions)
+	    subscription.offer(delta, report);
+	return delta;
+    }
+
+    /**
+     * Publishes a changed report, see publish().
+     */
+    public void weatherChanged(String zipCode, WeatherReport previous,
+	    WeatherReport current) {
+	publish(zipCode, current);
+    }
+
+    /**
+     * Forgets the last report of a zip code, so the next report published
+     * for it is sent as a full delta. Subscribers are not told.
+     * 
+     * @param zipCode
+     *            Zip code
+     */
+    public synchronized void remove(String zipCode) {
+	reports.remove(zipCode);
+    }
+
+    /**
+     * Gets the last report published for a zip code.
+     * 
+     * @param zipCode
+     *            Zip code
+     * @return the report, or null if none has been published
+     */
+    public WeatherReport getReport(String zipCode) {
+	return reports.get(zipCode);
+    }
+
+    /**
+     * Subscribes with the default queue capacity.
+     * 
+     * @param listener
+     *            the listener to send deltas to
+     * @return the subscription
+     */
+    public Subscription subscribe(WeatherDeltaListener listener) {
+	return subscribe(listener, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Subscribes to the deltas published from now on. The subscriber is
+     * first sent a full delta for each zip code already published, so it
+     * starts with the same reports as the publisher.
+     * 
+     * @param listener
+     *            the listener to send deltas to
+     * @param capacity
+     *            the most deltas to queue for the listener
+     * @return the subscription
+     */
+    public synchronized Subscription subscribe(WeatherDeltaListener listener,
+	    int capacity) {
+	if (capacity < 1)
+	    throw new IllegalArgumentException("Capacity must be positive.");
+	Subscription subscription = new Subscription(listener, capacity);
+	for (Map.Entry<String, WeatherReport> entry : reports.entrySet()) {
+	    subscription.offer(WeatherDelta.between(entry.getKey(), null, entry
+		    .getValue()), entry.getValue());
+	}
+	subscriptions.add(subscription);
+	return subscription;
+    }
+
+    /**
+     * @return the number of reports published that changed
+     */
+    public long getPublishedCount() {
+	return publishedCount.get();
+    }
+
+    /**
+     * Sets the executor the subscribers are sent deltas on, the common fork
+     * join pool by default.
+     * 
+     * @param executor
+     *            the executor
+     */
+    public void setExecutor(Executor executor) {
+	if (executor == null)
+	    throw new IllegalArgumentException("Executor must not be null.");
+	this.executor = executor;
+    }
+
+    /**
+     * @param unit
+     *            the unit of the result
+     * @return the longest time publish() waits for a full queue
+     */
+    public long getOfferTimeout(TimeUnit unit) {
+	return unit.convert(offerTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets the longest time publish() waits for a full queue before dropping
+     * the delta for that subscriber. 0 drops it right away.
+     * 
+     * @param timeout
+     *            the timeout
+     * @param unit
+     *            the unit of timeout
+     */
+    public void setOfferTimeout(long timeout, TimeUnit unit) {
+	if (timeout < 0)
+	    throw new IllegalArgumentException("Timeout must not be negative.");
+	this.offerTimeoutNanos = unit.toNanos(timeout);
+    }
+}
\ No newline at end of file
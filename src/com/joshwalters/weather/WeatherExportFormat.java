@@ -0,0 +1,66 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+/**
+ * The text formats weather reports can be exported in. Both write one
+ * record per condition: the current conditions of a report, then each of its
+ * forecasts. Every record has the fields
+ * zip_code, type ("current" or "forecast"), location, condition, temp_f,
+ * temp_c, humidity, wind, day_of_week, low and high, holding the text of the
+ * WeatherCondition getters.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ * @see WeatherReportWriter
+ * @see WeatherReportReader
+ */
+public enum WeatherExportFormat {
+    /**
+     * Comma separated values with a header line. Fields are quoted when
+     * needed, an empty field is null and "" is an empty string.
+     */
+    CSV,
+
+    /**
+     * One JSON object per line, with null for values that were not reported.
+     */
+    JSON_LINES;
+
+    /**
+     * The names of the fields, in the order of the CSV columns.
+     */
+    static final String[] FIELDS = { "zip_code", "type", "location",
+	    "condition", "temp_f", "temp_c", "humidity", "wind",
+	    "day_of_week", "low", "high" };
+
+    /**
+     * The type of a record with the current conditions.
+     */
+    static final String CURRENT = "current";
+
+    /**
+     * The type of a record with a forecast.
+     */
+    static final String FORECAST = "forecast";
+}
\ No newline at end of file
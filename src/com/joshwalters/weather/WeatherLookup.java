@@ -22,19 +22,24 @@
 
 package com.joshwalters.weather;
 
-import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Vector;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.joshwalters.weather.WeatherLookupException.Category;
 
 /**
  * Obtains current weather data, as well as forecasts.
@@ -47,24 +52,114 @@ public class WeatherLookup {
 
     /**
      * Stores the current weather conditions.
+     * 
+     * @deprecated set field by field, so a thread reading it and
+     *             futureWeatherConditions while lookup() runs can see one
+     *             from each lookup. Use getLastReport().
      */
-    public WeatherCondition currentWeatherConditions;
+    @Deprecated
+    public volatile WeatherCondition currentWeatherConditions;
 
     /**
      * Stores weather forecasts.
+     * 
+     * @deprecated see currentWeatherConditions. Use getLastReport().
      */
-    public Vector<WeatherCondition> futureWeatherConditions;
+    @Deprecated
+    public volatile Vector<WeatherCondition> futureWeatherConditions;
 
     /**
-     * Stores the lookup service to use.
+     * Stores the report of the last lookup(), null before the first. Reports
+     * are never modified, so replacing the reference publishes the current
+     * conditions and forecasts together.
      */
-    private WeatherLookupService lookupService;
+    private volatile WeatherReport lastReport;
+
+    /**
+     * Stores the lookup service to use, null if a custom provider is used.
+     */
+    private volatile WeatherLookupService lookupService;
+
+    /**
+     * Stores the provider that performs the lookups.
+     */
+    private volatile WeatherProvider provider;
 
     /**
      * The default lookup service to use.
      */
     private static WeatherLookupService defaultLookupService = WeatherLookupService.GOOGLE;
 
+    /**
+     * The default number of lookups a batch runs at the same time.
+     */
+    public static final int DEFAULT_PARALLELISM = 8;
+
+    /**
+     * Stores the number of lookups a batch runs at the same time.
+     */
+    private volatile int parallelism = DEFAULT_PARALLELISM;
+
+    /**
+     * Stores the way the weather feeds are parsed.
+     */
+    private volatile WeatherParserType parserType = WeatherParserType.STREAMING;
+
+    /**
+     * Stores the cache to consult before each lookup, null for no cache.
+     */
+    private volatile WeatherCache cache;
+
+    /**
+     * The default time to wait for a connection to the lookup service, in
+     * milliseconds.
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+
+    /**
+     * The default time to wait for the lookup service to answer, in
+     * milliseconds.
+     */
+    public static final int DEFAULT_READ_TIMEOUT = 30000;
+
+    /**
+     * Stores the time to wait for a connection, in milliseconds.
+     */
+    private volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+
+    /**
+     * Stores the time to wait for an answer, in milliseconds.
+     */
+    private volatile int readTimeout = DEFAULT_READ_TIMEOUT;
+
+    /**
+     * Stores the executor that parses the feeds of asynchronous lookups.
+     */
+    private volatile Executor executor = ForkJoinPool.commonPool();
+
+    /**
+     * Stores the transport that fetches the feeds.
+     */
+    private volatile WeatherTransport transport = WeatherTransport.getDefault();
+
+    /**
+     * Stores the resolver that maps zip codes to shared locations, null to
+     * look up every zip code on its own.
+     */
+    private volatile LocationResolver locationResolver;
+
+    /**
+     * Stores the lookups that are running, by provider and location, so
+     * concurrent lookups of the same location share one fetch.
+     */
+    private final InFlightLoads<String> inFlight = new InFlightLoads<String>();
+
+    /**
+     * Stores the policy that sends slow or failing lookups to a second
+     * provider, null to use only the provider.
+     */
+    private volatile HedgingPolicy hedgingPolicy;
+
     /**
      * Default constructor. Sets the lookup service to default.
      */
@@ -77,361 +172,648 @@ public class WeatherLookup {
      * Default constructor.
      */
     public WeatherLookup(WeatherLookupService lookupService) {
+	this(WeatherProviders.get(lookupService));
+	this.lookupService = lookupService;
+    }
+
+    /**
+     * Makes a lookup that uses a given provider.
+     * 
+     * @param provider
+     *            the provider, built in or registered with WeatherProviders
+     */
+    @SuppressWarnings("deprecation")
+    public WeatherLookup(WeatherProvider provider) {
 	currentWeatherConditions = new WeatherCondition();
 	futureWeatherConditions = new Vector<WeatherCondition>();
-	this.lookupService = lookupService;
+	this.provider = provider;
     }
 
     /**
      * Gets the lookup service we are using.
      * 
-     * @return
+     * @return the lookup service, or null if a custom provider is used
      */
-    WeatherLookupService getLookupService() {
+    public WeatherLookupService getLookupService() {
 	return lookupService;
     }
 
     /**
-     * Sets the lookup service.
+     * Sets the lookup service. May be called while lookups are running, they
+     * finish with the service they started with.
      * 
      * @param lookupService
+     *            the lookup service
      */
-    void setLookupService(WeatherLookupService lookupService) {
+    public void setLookupService(WeatherLookupService lookupService) {
+	this.provider = WeatherProviders.get(lookupService);
 	this.lookupService = lookupService;
     }
 
     /**
-     * Performs a weather lookup with a given zip code.
+     * Gets the provider that performs the lookups.
+     * 
+     * @return the provider
+     */
+    public WeatherProvider getProvider() {
+	return provider;
+    }
+
+    /**
+     * Sets the provider that performs the lookups.
      * 
-     * @param lookupKey
+     * @param provider
+     *            the provider
+     */
+    public void setProvider(WeatherProvider provider) {
+	this.lookupService = null;
+	this.provider = provider;
+    }
+
+    /**
+     * Gets the way the weather feeds are parsed.
+     * 
+     * @return the parser type
+     */
+    public WeatherParserType getParserType() {
+	return parserType;
+    }
+
+    /**
+     * Sets the way the weather feeds are parsed. The streaming parser is used
+     * by default, the DOM parser is kept for comparison.
+     * 
+     * @param parserType
+     *            the parser type
+     */
+    public void setParserType(WeatherParserType parserType) {
+	this.parserType = parserType;
+    }
+
+    /**
+     * Gets the cache consulted before each lookup.
+     * 
+     * @return the cache, or null if there is none
+     */
+    public WeatherCache getCache() {
+	return cache;
+    }
+
+    /**
+     * Sets the cache consulted before each lookup. A cache may be shared by
+     * several WeatherLookup instances.
+     * 
+     * @param cache
+     *            the cache, or null to always go to the lookup service
+     */
+    public void setCache(WeatherCache cache) {
+	this.cache = cache;
+    }
+
+    /**
+     * Gets the time to wait for a connection to the lookup service.
+     * 
+     * @return the timeout in milliseconds, 0 to wait forever
+     */
+    public int getConnectTimeout() {
+	return connectTimeout;
+    }
+
+    /**
+     * Sets the time to wait for a connection to the lookup service.
+     * 
+     * @param connectTimeout
+     *            the timeout in milliseconds, 0 to wait forever
+     */
+    public void setConnectTimeout(int connectTimeout) {
+	if (connectTimeout < 0)
+	    throw new IllegalArgumentException("Timeout can not be negative.");
+	this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * Gets the time to wait for the lookup service to answer.
+     * 
+     * @return the timeout in milliseconds, 0 to wait forever
+     */
+    public int getReadTimeout() {
+	return readTimeout;
+    }
+
+    /**
+     * Sets the time to wait for the lookup service to answer. The timeout
+     * covers the whole answer, so a feed that stops part way through fails
+     * with a TIMEOUT.
+     * 
+     * @param readTimeout
+     *            the timeout in milliseconds, 0 to wait forever
+     */
+    public void setReadTimeout(int readTimeout) {
+	if (readTimeout < 0)
+	    throw new IllegalArgumentException("Timeout can not be negative.");
+	this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Gets the transport that fetches the feeds.
+     * 
+     * @return the transport
+     */
+    public WeatherTransport getTransport() {
+	return transport;
+    }
+
+    /**
+     * Sets the transport that fetches the feeds. The shared default transport
+     * is used unless another is set.
+     * 
+     * @param transport
+     *            the transport
+     */
+    public void setTransport(WeatherTransport transport) {
+	if (transport == null)
+	    throw new IllegalArgumentException("Transport can not be null.");
+	this.transport = transport;
+    }
+
+    /**
+     * Gets the executor that parses the feeds of asynchronous lookups.
+     * 
+     * @return the executor
+     */
+    public Executor getExecutor() {
+	return executor;
+    }
+
+    /**
+     * Sets the executor that parses the feeds of asynchronous lookups, and
+     * fetches feeds that are not served over HTTP. The common fork join pool
+     * is used by default.
+     * 
+     * @param executor
+     *            the executor
+     */
+    public void setExecutor(Executor executor) {
+	if (executor == null)
+	    throw new IllegalArgumentException("Executor can not be null.");
+	this.executor = executor;
+    }
+
+    /**
+     * Gets the number of lookups a batch runs at the same time.
+     * 
+     * @return the parallelism
+     */
+    public int getParallelism() {
+	return parallelism;
+    }
+
+    /**
+     * Sets the number of lookups a batch runs at the same time.
+     * 
+     * @param parallelism
+     *            the parallelism, must be at least 1
+     */
+    public void setParallelism(int parallelism) {
+	if (parallelism < 1)
+	    throw new IllegalArgumentException("Parallelism must be at least 1.");
+	this.parallelism = parallelism;
+    }
+
+    /**
+     * Gets the resolver that maps zip codes to shared locations.
+     * 
+     * @return the resolver, or null if there is none
+     */
+    public LocationResolver getLocationResolver() {
+	return locationResolver;
+    }
+
+    /**
+     * Sets the resolver that maps zip codes to shared locations. Zip codes
+     * that resolve to the same location are fetched once and share the
+     * report, in batches, in concurrent lookups and in the cache. There is no
+     * resolver by default, so every zip code is looked up on its own.
+     * 
+     * @param locationResolver
+     *            the resolver, or null for none
+     */
+    public void setLocationResolver(LocationResolver locationResolver) {
+	this.locationResolver = locationResolver;
+    }
+
+    /**
+     * Gets the policy that sends slow or failing lookups to a second
+     * provider.
+     * 
+     * @return the policy, or null if there is none
+     */
+    public HedgingPolicy getHedgingPolicy() {
+	return hedgingPolicy;
+    }
+
+    /**
+     * Sets the policy that sends slow or failing lookups to a second
+     * provider. Reports are cached under the provider of this lookup
+     * whichever provider answered. There is no policy by default.
+     * 
+     * @param hedgingPolicy
+     *            the policy, or null to use only the provider
+     */
+    public void setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+	this.hedgingPolicy = hedgingPolicy;
+    }
+
+    /**
+     * Performs a weather lookup with a given zip code. The report replaces
+     * the one of the last lookup, see getLastReport(). The results are also
+     * stored in currentWeatherConditions and futureWeatherConditions.
+     * 
+     * @param zipCode
      * @throws WeatherLookupException
      */
+    @SuppressWarnings("deprecation")
     public void lookup(String zipCode) throws WeatherLookupException {
-	try {
-	    switch (lookupService) {
-	    case GOOGLE:
-		// Perform a lookup with Google weather service
-		lookupGoogleWeather(zipCode);
-		break;
-	    case YAHOO:
-		// Perform a lookup with MSN weather service
-		lookupYahooWeather(zipCode);
-		break;
-	    default:
-		// Throw if the service is not supported.
-		throw new WeatherLookupException("Lookup service "
-			+ lookupService + " not supported.");
-	    }
-	} catch (WeatherLookupException e) {
-	    throw e;
-	}
+	WeatherReport report = lookupReport(zipCode);
+
+	currentWeatherConditions = report.getCurrentWeatherConditions();
+	// Replace rather than add to the forecasts of the last lookup
+	futureWeatherConditions = new Vector<WeatherCondition>(report
+		.getFutureWeatherConditions());
+	lastReport = report;
+    }
+
+    /**
+     * Gets the report of the last lookup(). The current conditions and
+     * forecasts of a report always come from the same lookup, and reading
+     * it takes no lock, so any thread can call this while lookups run.
+     * 
+     * @return the report, or null if lookup() has not succeeded yet
+     */
+    public WeatherReport getLastReport() {
+	return lastReport;
     }
 
     /**
-     * Performs a weather lookup with a given zip code. Uses the Google weather
-     * service.
+     * Performs a weather lookup with a given zip code and returns the result.
+     * Does not touch currentWeatherConditions or futureWeatherConditions, so
+     * it is safe to call from several threads at once.
      * 
-     * @param lookupKey
+     * @param zipCode
      *            Zip code
+     * @return the report
+     * @throws WeatherLookupException
      */
-    private void lookupGoogleWeather(String zipCode)
+    public WeatherReport lookupReport(String zipCode)
 	    throws WeatherLookupException {
 	try {
-	    // Open the Google URL that will have the weather data.
-	    URL url = new URL("http://www.google.com/ig/api?weather=" + zipCode);
-
-	    // Make the document builder for the file using the URL.
-	    DocumentBuilder builder = DocumentBuilderFactory.newInstance()
-		    .newDocumentBuilder();
-	    Document doc = builder.parse(url.openStream());
-
-	    // Check to see that we got a valid report result
-	    NodeList nodes = doc.getElementsByTagName("problem_cause");
-	    if (nodes.getLength() > 0) {
-		// There was an error
-		throw new WeatherLookupException(
-			"Lookup failed. Possible bad key.");
-	    }
+	    return lookupReport(provider, zipCode);
+	} catch (WeatherLookupException e) {
+	    throw e.withStackTrace();
+	}
+    }
 
-	    // Check to see if we can get the city that the zip code is from
-	    nodes = doc.getElementsByTagName("city");
-	    if (nodes.getLength() > 0) {
-		Element element = (Element) nodes.item(0);
+    /**
+     * Performs a weather lookup for every zip code in the collection, running
+     * up to getParallelism() lookups at the same time. A failed lookup does
+     * not stop the others, its exception is stored in its result instead,
+     * without a stack trace.
+     * Does not touch currentWeatherConditions or futureWeatherConditions.
+     * <p>
+     * The lookups run on the calling thread and on a pool shared by every
+     * batch, whose threads are kept for a minute between batches.
+     * 
+     * @param zipCodes
+     *            Zip codes, duplicates and zip codes that resolve to the same
+     *            location are only looked up once
+     * @return an unmodifiable map from zip code to result, in the order the
+     *         zip codes were given
+     */
+    public Map<String, WeatherLookupResult> lookupAll(
+	    Collection<String> zipCodes) {
+	return lookupAll(zipCodes, BatchPool.executor);
+    }
 
-		// Get the location
-		String tokens[] = element.getAttribute("data").split(",");
-		currentWeatherConditions.setLocation(tokens[0]);
+    /**
+     * Performs a weather lookup for every zip code in the collection, see
+     * lookupAll(Collection). The lookups run on the calling thread and on up
+     * to getParallelism() - 1 tasks of the executor. The calling thread keeps
+     * taking lookups until none are left, so the batch finishes even when
+     * the executor is busy, or is the one running the caller.
+     * 
+     * @param zipCodes
+     *            Zip codes, duplicates and zip codes that resolve to the same
+     *            location are only looked up once
+     * @param executor
+     *            the executor to run lookups on besides the calling thread,
+     *            the lookups block while fetching
+     * @return an unmodifiable map from zip code to result, in the order the
+     *         zip codes were given
+     */
+    public Map<String, WeatherLookupResult> lookupAll(
+	    Collection<String> zipCodes, Executor executor) {
+	// Use the same provider for the whole batch
+	final WeatherProvider provider = this.provider;
+
+	// Group the zip codes by location, the first of each is looked up
+	Map<String, String> locations = new LinkedHashMap<String, String>();
+	Map<String, String> lookedUp = new LinkedHashMap<String, String>();
+	for (String zipCode : new LinkedHashSet<String>(zipCodes)) {
+	    // A null zip code is looked up on its own, and fails as BAD_KEY
+	    String location = zipCode == null ? null : locationKey(zipCode);
+	    locations.put(zipCode, location);
+	    if (!lookedUp.containsKey(location))
+		lookedUp.put(location, zipCode);
+	}
+	Map<String, WeatherLookupResult> results = new LinkedHashMap<String, WeatherLookupResult>();
+	if (lookedUp.isEmpty())
+	    return Collections.unmodifiableMap(results);
+
+	// One lookup per location, taken in turn by whichever thread is free
+	final String[] work = lookedUp.values().toArray(new String[0]);
+	// Read after an interrupt while helpers may still be writing
+	final AtomicReferenceArray<WeatherLookupResult> done = new AtomicReferenceArray<WeatherLookupResult>(
+		work.length);
+	final AtomicInteger next = new AtomicInteger();
+	final CountDownLatch finished = new CountDownLatch(work.length);
+	Runnable worker = () -> {
+	    int i;
+	    while ((i = next.getAndIncrement()) < work.length) {
+		done.set(i, lookupResult(provider, work[i]));
+		finished.countDown();
 	    }
-
-	    // Get the current conditions.
-	    nodes = doc.getElementsByTagName("current_conditions");
-	    for (int i = 0; i < nodes.getLength(); i++) {
-		Element element = (Element) nodes.item(i);
-
-		// Get the current general weather condition
-		NodeList condition = element.getElementsByTagName("condition");
-		Element line = (Element) condition.item(0);
-		currentWeatherConditions.setGeneralWeatherCondition(line
-			.getAttribute("data"));
-
-		// Get the temperature in F
-		NodeList temp_f = element.getElementsByTagName("temp_f");
-		line = (Element) temp_f.item(0);
-		currentWeatherConditions.setTempF(line.getAttribute("data"));
-
-		// Get the temperature in C
-		NodeList temp_c = element.getElementsByTagName("temp_c");
-		line = (Element) temp_c.item(0);
-		currentWeatherConditions.setTempC(line.getAttribute("data"));
-
-		// Get the humidity
-		NodeList humidity = element.getElementsByTagName("humidity");
-		line = (Element) humidity.item(0);
-		String tempHumidity = line.getAttribute("data");
-		String humidityTokens[] = tempHumidity.split(" ", 2);
-		currentWeatherConditions.setHumidity(humidityTokens[1]);
-
-		// Get the wind condition
-		NodeList wind_condition = element
-			.getElementsByTagName("wind_condition");
-		line = (Element) wind_condition.item(0);
-		String tempWindConditions = line.getAttribute("data");
-		String windConditionsTokens[] = tempWindConditions
-			.split(" ", 2);
-		currentWeatherConditions
-			.setWindCondition(windConditionsTokens[1]);
+	};
+	int helpers = Math.min(parallelism, work.length) - 1;
+	for (int i = 0; i < helpers; i++) {
+	    try {
+		executor.execute(worker);
+	    } catch (RejectedExecutionException e) {
+		break;
 	    }
+	}
+	worker.run();
+	try {
+	    finished.await();
+	} catch (InterruptedException e) {
+	    // Keep the interrupt for the caller, and start no more lookups
+	    Thread.currentThread().interrupt();
+	    next.set(work.length);
+	}
 
-	    // Get the forecast conditions.
-	    nodes = doc.getElementsByTagName("forecast_conditions");
-	    for (int i = 0; i < nodes.getLength(); i++) {
-		Element element = (Element) nodes.item(i);
-
-		if (i == 0) {
-		    // Get the predicted low temperature
-		    NodeList low = element.getElementsByTagName("low");
-		    Element line = (Element) low.item(0);
-		    currentWeatherConditions.setLowTemperature(line
-			    .getAttribute("data"));
-
-		    // Get the predicted high temperature
-		    NodeList high = element.getElementsByTagName("high");
-		    line = (Element) high.item(0);
-		    currentWeatherConditions.setHighTemperature(line
-			    .getAttribute("data"));
-
-		    // Get the day
-		    NodeList day_of_week = element
-			    .getElementsByTagName("day_of_week");
-		    line = (Element) day_of_week.item(0);
-		    currentWeatherConditions.setDayOfWeek(line
-			    .getAttribute("data"));
-		} else {
-		    // Stores the predicted weather condition
-		    WeatherCondition tempWeatherCondition = new WeatherCondition();
-
-		    // Get the predicted low temperature
-		    NodeList low = element.getElementsByTagName("low");
-		    Element line = (Element) low.item(0);
-		    tempWeatherCondition.setLowTemperature(line
-			    .getAttribute("data"));
-
-		    // Get the predicted high temperature
-		    NodeList high = element.getElementsByTagName("high");
-		    line = (Element) high.item(0);
-		    tempWeatherCondition.setHighTemperature(line
-			    .getAttribute("data"));
-
-		    // Get the day
-		    NodeList day_of_week = element
-			    .getElementsByTagName("day_of_week");
-		    line = (Element) day_of_week.item(0);
-		    tempWeatherCondition
-			    .setDayOfWeek(line.getAttribute("data"));
-
-		    // Get the current general weather condition
-		    NodeList condition = element
-			    .getElementsByTagName("condition");
-		    line = (Element) condition.item(0);
-		    tempWeatherCondition.setGeneralWeatherCondition(line
-			    .getAttribute("data"));
-
-		    // Add to the vector
-		    futureWeatherConditions.add(tempWeatherCondition);
-		}
+	// Collect the results in order, sharing them within a location
+	Map<String, WeatherLookupResult> byLocation = new LinkedHashMap<String, WeatherLookupResult>();
+	int index = 0;
+	for (Map.Entry<String, String> entry : lookedUp.entrySet()) {
+	    WeatherLookupResult result = done.get(index++);
+	    if (result == null) {
+		result = WeatherLookupResult.failure(entry.getValue(),
+			WeatherLookupException.withoutStackTrace(
+				Category.INTERRUPTED, "Lookup interrupted."));
 	    }
-
-	    // Test to see if there was an error (all fields would be null)
-	    if (currentWeatherConditions.areAllFieldsNull()) {
-		throw new WeatherLookupException(
-			"There was an error when obtaining the data.");
+	    byLocation.put(entry.getKey(), result);
+	}
+	for (Map.Entry<String, String> entry : locations.entrySet()) {
+	    WeatherLookupResult result = byLocation.get(entry.getValue());
+	    String zipCode = entry.getKey();
+	    if (!Objects.equals(zipCode, result.getZipCode())) {
+		result = result.isSuccess() ? WeatherLookupResult.success(
+			zipCode, result.getReport()) : WeatherLookupResult
+			.failure(zipCode, result.getException());
 	    }
-	} catch (MalformedURLException e) {
-	    throw new WeatherLookupException(e.toString());
-	} catch (IOException e) {
-	    throw new WeatherLookupException(e.toString());
-	} catch (ParserConfigurationException e) {
-	    throw new WeatherLookupException(e.toString());
-	} catch (SAXException e) {
-	    throw new WeatherLookupException(e.toString());
-	} catch (NullPointerException e) {
-	    throw new WeatherLookupException(e.toString());
+	    results.put(zipCode, result);
 	}
+
+	return Collections.unmodifiableMap(results);
     }
 
     /**
-     * Performs a weather lookup with a given zip code. Uses the Yahoo weather
-     * service.
-     * 
-     * @param lookupKey
-     *            Zip code
+     * Performs one lookup of a batch, keeping a failure in its result.
      */
-    private void lookupYahooWeather(String zipCode)
-	    throws WeatherLookupException {
+    private WeatherLookupResult lookupResult(WeatherProvider provider,
+	    String zipCode) {
 	try {
-	    // Open the Yahoo URL that will have the weather data.
-	    URL url = new URL("http://weather.yahooapis.com/forecastrss?p="
-		    + zipCode + "&u=f");
-
-	    // Make the document builder for the file using the URL.
-	    DocumentBuilder builder = DocumentBuilderFactory.newInstance()
-		    .newDocumentBuilder();
-	    Document doc = builder.parse(url.openStream());
-
-	    // Get the current weather
-
-	    // Check to see if we can get the city that the zip code is from
-	    NodeList nodes = doc.getElementsByTagName("yweather:location");
-	    if (nodes.getLength() > 0) {
-		Element element = (Element) nodes.item(0);
+	    return WeatherLookupResult.success(zipCode, lookupReport(provider,
+		    zipCode));
+	} catch (WeatherLookupException e) {
+	    return WeatherLookupResult.failure(zipCode, e);
+	} catch (RuntimeException e) {
+	    return WeatherLookupResult.failure(zipCode, WeatherLookupException
+		    .withoutStackTrace(Category.UNKNOWN, e));
+	}
+    }
 
-		// Get the location
-		currentWeatherConditions.setLocation(element
-			.getAttribute("city"));
-	    }
+    /**
+     * Performs a weather lookup without blocking the calling thread, using
+     * the timeouts set on this instance. Does not touch
+     * currentWeatherConditions or futureWeatherConditions.
+     * 
+     * @param zipCode
+     *            Zip code
+     * @return a future that completes with the report, or completes
+     *         exceptionally with a WeatherLookupException
+     */
+    public CompletableFuture<WeatherReport> lookupAsync(String zipCode) {
+	return lookupAsync(zipCode, connectTimeout, readTimeout);
+    }
 
-	    // Check to see if we can get humidity
-	    nodes = doc.getElementsByTagName("yweather:atmosphere");
-	    if (nodes.getLength() > 0) {
-		Element element = (Element) nodes.item(0);
+    /**
+     * Performs a weather lookup without blocking the calling thread. HTTP
+     * feeds are fetched with a non-blocking client and parsed on the
+     * executor, other feeds are fetched and parsed on the executor.
+     * 
+     * @param zipCode
+     *            Zip code
+     * @param connectTimeout
+     *            the time to wait for a connection in milliseconds, 0 to wait
+     *            forever
+     * @param readTimeout
+     *            the time to wait for an answer in milliseconds, 0 to wait
+     *            forever
+     * @return a future that completes with the report, or completes
+     *         exceptionally with a WeatherLookupException
+     */
+    public CompletableFuture<WeatherReport> lookupAsync(final String zipCode,
+	    int connectTimeout, int readTimeout) {
+	// Answer from the cache if we can
+	WeatherProvider provider = this.provider;
+	WeatherCache cache = this.cache;
+	if (cache != null) {
+	    WeatherReport report = cache.getIfPresent(provider,
+		    locationKey(zipCode));
+	    if (report != null)
+		return CompletableFuture.completedFuture(report);
+	}
+	return fetchAsync(provider, zipCode, connectTimeout, readTimeout);
+    }
 
-		// Get the humidity
-		currentWeatherConditions.setHumidity(element
-			.getAttribute("humidity")
-			+ "%");
-	    }
+    /**
+     * Fetches a report without blocking, even if the cache has one, and
+     * stores it in the cache. Used by WeatherRefreshScheduler.
+     * 
+     * @param zipCode
+     *            Zip code
+     * @return a future that completes with the report
+     */
+    CompletableFuture<WeatherReport> refreshAsync(String zipCode) {
+	return fetchAsync(provider, zipCode, connectTimeout, readTimeout);
+    }
 
-	    // Check to see if we can get wind data
-	    nodes = doc.getElementsByTagName("yweather:wind");
-	    if (nodes.getLength() > 0) {
-		Element element = (Element) nodes.item(0);
-
-		double directionDegree = new Integer(element.getAttribute("direction"));
-		int speed = new Integer(element.getAttribute("speed"));
-		String wind = null;
-		
-		// Convert the direction from degrees to N/S/E/W
-		if(directionDegree >= 337.5 && directionDegree < 22.5)
-		    wind = "E";
-		else if(directionDegree >= 22.5 && directionDegree < 67.5)
-		    wind = "NE";
-		else if(directionDegree >= 67.5 && directionDegree < 112.5)
-		    wind = "N";
-		else if(directionDegree >= 112.5 && directionDegree < 157.5)
-		    wind = "NW";
-		else if(directionDegree >= 157.5 && directionDegree < 202.5)
-		    wind = "W";
-		else if(directionDegree >= 202.5 && directionDegree < 247.5)
-		    wind = "SW";
-		else if(directionDegree >= 247.5 && directionDegree < 292.5)
-		    wind = "S";
-		else if(directionDegree >= 292.5 && directionDegree < 337.5)
-		    wind = "SE";
-		
-		// If we have a direction, finish the string
-		if(wind != null)
-		    wind += " at " + speed + " mph";
-		
-		currentWeatherConditions.setWindCondition(wind);
-	    }
+    /**
+     * Fetches a report without blocking, joining a fetch of the same location
+     * that is already running, and stores it in the cache.
+     */
+    private CompletableFuture<WeatherReport> fetchAsync(
+	    final WeatherProvider provider, final String zipCode,
+	    final int connectTimeout, final int readTimeout) {
+	final WeatherCache cache = this.cache;
+	final String location = locationKey(zipCode);
+	return inFlight.loadAsync(provider.getName() + '|' + location,
+		() -> fetchFeedAsync(provider, zipCode, connectTimeout,
+			readTimeout).thenApply(
+			report -> {
+			    if (cache != null)
+				cache.put(provider, location, report);
+			    loaded(provider, zipCode, location, report);
+			    return report;
+			}));
+    }
 
-	    // Get the temperature, day, and conditions
-	    nodes = doc.getElementsByTagName("yweather:condition");
-	    if (nodes.getLength() > 0) {
-		Element element = (Element) nodes.item(0);
+    /**
+     * Performs a weather lookup without blocking the calling thread, using
+     * the timeouts set on this instance. Unlike lookupAsync(), the future
+     * never completes exceptionally: a failed lookup completes it with a
+     * failed result, and its exception has no stack trace. Suits loops that
+     * refresh many zip codes and only look at the error category.
+     * 
+     * @param zipCode
+     *            Zip code
+     * @return a future that completes with the result
+     */
+    public CompletableFuture<WeatherLookupResult> lookupResultAsync(
+	    final String zipCode) {
+	return lookupAsync(zipCode).handle((report, error) -> {
+	    if (error == null)
+		return WeatherLookupResult.success(zipCode, report);
+	    if (error instanceof WeatherLookupException)
+		return WeatherLookupResult.failure(zipCode,
+			(WeatherLookupException) error);
+	    return WeatherLookupResult.failure(zipCode, WeatherLookupException
+		    .withoutStackTrace(Category.UNKNOWN, error));
+	});
+    }
 
-		// Get the general weather condition
-		currentWeatherConditions.setGeneralWeatherCondition(element
-			.getAttribute("text"));
+    /**
+     * Performs a weather lookup with a given zip code on a given provider,
+     * going through the cache if there is one.
+     * 
+     * @param provider
+     *            the provider to use
+     * @param zipCode
+     *            Zip code
+     * @return the report
+     * @throws WeatherLookupException
+     */
+    private WeatherReport lookupReport(final WeatherProvider provider,
+	    final String zipCode) throws WeatherLookupException {
+	final String location = locationKey(zipCode);
+	InFlightLoads.Loader loader = () -> {
+	    WeatherReport report = fetchReport(provider, zipCode);
+	    loaded(provider, zipCode, location, report);
+	    return report;
+	};
+
+	// The cache shares running lookups itself
+	WeatherCache cache = this.cache;
+	if (cache == null)
+	    return inFlight.load(provider.getName() + '|' + location, loader);
+	return cache.get(provider, location, loader);
+    }
 
-		// Get the temperature
-		currentWeatherConditions.setTempF(element.getAttribute("temp"));
+    /**
+     * Gets the key that zip codes sharing a report have in common.
+     * 
+     * @param zipCode
+     *            Zip code
+     * @return the location key from the resolver, or the zip code itself
+     */
+    private String locationKey(String zipCode) {
+	LocationResolver resolver = locationResolver;
+	if (resolver == null)
+	    return zipCode;
+	String location = resolver.resolve(zipCode);
+	return location == null ? zipCode : location;
+    }
 
-		// Convert to Celcius
-		int temperatureC = (int) ((Integer
-			.parseInt(currentWeatherConditions.getTempF()) - 32) / 1.8);
-		currentWeatherConditions.setTempC(String.valueOf(temperatureC));
+    /**
+     * Lets the resolver learn from a fetched report. If that gives the zip
+     * code a new location, the report is cached under it as well, so other
+     * zip codes in the location can use it right away.
+     * 
+     * @param provider
+     *            the provider
+     * @param zipCode
+     *            Zip code
+     * @param location
+     *            the location key the report was fetched under
+     * @param report
+     *            the report
+     */
+    private void loaded(WeatherProvider provider, String zipCode,
+	    String location, WeatherReport report) {
+	LocationResolver resolver = locationResolver;
+	if (resolver == null)
+	    return;
+	resolver.learn(zipCode, report);
+	String learned = locationKey(zipCode);
+	WeatherCache cache = this.cache;
+	if (cache != null && !learned.equals(location))
+	    cache.put(provider, learned, report);
+    }
 
-		// Get the date
-		String temp[] = element.getAttribute("date").split(",");
-		System.err.println(element.getAttribute("here : " + temp[0]));
-		currentWeatherConditions.setDayOfWeek(temp[0]);
-	    }
+    /**
+     * Fetches a report from a given provider, blocking until it arrives.
+     * 
+     * @param provider
+     *            the provider to use
+     * @param zipCode
+     *            Zip code
+     * @return the report
+     * @throws WeatherLookupException
+     */
+    private WeatherReport fetchReport(WeatherProvider provider, String zipCode)
+	    throws WeatherLookupException {
+	HedgingPolicy hedgingPolicy = this.hedgingPolicy;
+	if (hedgingPolicy != null)
+	    return hedgingPolicy.fetchReport(transport, provider, zipCode,
+		    parserType, connectTimeout, readTimeout, executor);
+	return transport.fetchReport(provider, zipCode, parserType,
+		connectTimeout, readTimeout);
+    }
 
-	    // Get the forecasts
-	    nodes = doc.getElementsByTagName("yweather:forecast");
-	    for (int i = 0; i < nodes.getLength(); i++) {
-		Element element = (Element) nodes.item(i);
-
-		// If first forecast, it is about todays forecast
-		if (i == 0) {
-		    // Get the low temperature
-		    currentWeatherConditions.setLowTemperature(element
-			    .getAttribute("low"));
-
-		    // Get the high temperature
-		    currentWeatherConditions.setHighTemperature(element
-			    .getAttribute("high"));
-		} else {
-		    // Stores the predicted weather condition
-		    WeatherCondition tempWeatherCondition = new WeatherCondition();
-
-		    // Get the date
-		    tempWeatherCondition.setDayOfWeek(element
-			    .getAttribute("day"));
-
-		    // Get the low temperature
-		    tempWeatherCondition.setLowTemperature(element
-			    .getAttribute("low"));
-
-		    // Get the high temperature
-		    tempWeatherCondition.setHighTemperature(element
-			    .getAttribute("high"));
-
-		    // Get the general weather condition
-		    tempWeatherCondition.setGeneralWeatherCondition(element
-			    .getAttribute("text"));
-
-		    // Add to the vector
-		    futureWeatherConditions.add(tempWeatherCondition);
-		}
-	    }
+    /**
+     * Fetches a report from a given provider without blocking.
+     */
+    private CompletableFuture<WeatherReport> fetchFeedAsync(
+	    WeatherProvider provider, String zipCode, int connectTimeout,
+	    int readTimeout) {
+	HedgingPolicy hedgingPolicy = this.hedgingPolicy;
+	if (hedgingPolicy != null)
+	    return hedgingPolicy.fetchAsync(transport, provider, zipCode,
+		    parserType, connectTimeout, readTimeout, executor);
+	return transport.fetchAsync(provider, zipCode, parserType,
+		connectTimeout, readTimeout, executor);
+    }
 
-	    // Test to see if there was an error (all fields would be null)
-	    if (currentWeatherConditions.areAllFieldsNull()) {
-		throw new WeatherLookupException(
-			"There was an error when obtaining the data.");
-	    }
-	} catch (MalformedURLException e) {
-	    throw new WeatherLookupException(e.toString());
-	} catch (IOException e) {
-	    throw new WeatherLookupException(e.toString());
-	} catch (ParserConfigurationException e) {
-	    throw new WeatherLookupException(e.toString());
-	} catch (SAXException e) {
-	    throw new WeatherLookupException(e.toString());
-	} catch (NullPointerException e) {
-	    throw new WeatherLookupException(e.toString());
-	}
+    /**
+     * Runs the lookups of batches given no executor. Holds the pool in a
+     * class of its own, so it is only made when first used.
+     */
+    private static final class BatchPool {
+	static final ExecutorService executor = Executors
+		.newCachedThreadPool(runnable -> {
+		    Thread thread = new Thread(runnable, "weather-batch");
+		    thread.setDaemon(true);
+		    return thread;
+		});
     }
 }
\ No newline at end of file
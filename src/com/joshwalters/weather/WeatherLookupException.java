@@ -22,8 +22,24 @@
 
 package com.joshwalters.weather;
 
+import java.io.CharConversionException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.http.HttpTimeoutException;
+import java.util.zip.ZipException;
+
 /**
  * The exception class for WeatherLookup.
+ * <p>
+ * Each exception has a Category saying what kind of failure it was, so a
+ * caller can decide whether to retry without looking at the message, and
+ * keeps the exception that caused it, if any.
+ * <p>
+ * Failures inside a lookup are common while a feed is having trouble, so
+ * they are made without a stack trace, which is the costly part of an
+ * exception; the cause still has its own. The blocking lookup methods
+ * rethrow them with the stack trace of the caller, so only the batch and
+ * asynchronous methods hand them out as they are.
  * 
  * @author Josh Walters
  * @version 2.0
@@ -34,10 +50,172 @@ public class WeatherLookupException extends Exception {
      */
     private static final long serialVersionUID = 415108420433004977L;
 
+    /**
+     * The kinds of failure.
+     */
+    public enum Category {
+	/**
+	 * The feed rejected the zip code, or no feed URL could be made for
+	 * it. Retrying will not help.
+	 */
+	BAD_KEY,
+
+	/**
+	 * The feed could not be reached or answered with an error.
+	 */
+	NETWORK,
+
+	/**
+	 * The feed did not answer in time.
+	 */
+	TIMEOUT,
+
+	/**
+	 * The feed could not be parsed.
+	 */
+	PARSE,
+
+	/**
+	 * The feed was parsed but held no weather data.
+	 */
+	EMPTY_PAYLOAD,
+
+	/**
+	 * The thread was interrupted while waiting for the lookup.
+	 */
+	INTERRUPTED,
+
+	/**
+	 * Any other failure.
+	 */
+	UNKNOWN;
+
+	/**
+	 * @return true if the same lookup may succeed when tried again
+	 */
+	public boolean isRetryable() {
+	    return this == NETWORK || this == TIMEOUT;
+	}
+    }
+
+    /**
+     * Stores the kind of failure.
+     */
+    private final Category category;
+
     public WeatherLookupException() {
+	this.category = Category.UNKNOWN;
     }
 
     public WeatherLookupException(String msg) {
 	super(msg);
+	this.category = Category.UNKNOWN;
+    }
+
+    public WeatherLookupException(String msg, Throwable cause) {
+	super(msg, cause);
+	this.category = Category.UNKNOWN;
+    }
+
+    public WeatherLookupException(Category category, String msg) {
+	super(msg);
+	this.category = category;
+    }
+
+    public WeatherLookupException(Category category, String msg,
+	    Throwable cause) {
+	super(msg, cause);
+	this.category = category;
+    }
+
+    /**
+     * Makes an exception without a stack trace.
+     */
+    private WeatherLookupException(Category category, String msg,
+	    Throwable cause, boolean writableStackTrace) {
+	super(msg, cause, false, writableStackTrace);
+	this.category = category;
+    }
+
+    /**
+     * Makes an exception without a stack trace, for a failure inside a
+     * lookup.
+     * 
+     * @param category
+     *            the kind of failure
+     * @param msg
+     *            the message
+     * @return the exception
+     */
+    static WeatherLookupException withoutStackTrace(Category category,
+	    String msg) {
+	return new WeatherLookupException(category, msg, null, false);
+    }
+
+    /**
+     * Makes an exception without a stack trace, for a failure inside a
+     * lookup. The message is that of the cause, and is only built if it is
+     * asked for.
+     * 
+     * @param category
+     *            the kind of failure
+     * @param cause
+     *            the cause
+     * @return the exception
+     */
+    static WeatherLookupException withoutStackTrace(Category category,
+	    Throwable cause) {
+	return new WeatherLookupException(category, null, cause, false);
+    }
+
+    /**
+     * Makes an exception for an I/O failure, working out whether it was a
+     * timeout, a network failure or a damaged feed.
+     * 
+     * @param cause
+     *            the failure
+     * @return the exception, without a stack trace
+     */
+    static WeatherLookupException fromIOException(IOException cause) {
+	Category category = Category.NETWORK;
+	if (cause instanceof HttpTimeoutException
+		|| cause instanceof InterruptedIOException)
+	    category = Category.TIMEOUT;
+	else if (cause instanceof ZipException
+		|| cause instanceof CharConversionException)
+	    category = Category.PARSE;
+	return withoutStackTrace(category, cause);
+    }
+
+    /**
+     * @return the kind of failure
+     */
+    public Category getCategory() {
+	return category;
+    }
+
+    /**
+     * @return the message, or the description of the cause if there is no
+     *         message
+     */
+    @Override
+    public String getMessage() {
+	String msg = super.getMessage();
+	if (msg == null && getCause() != null)
+	    return getCause().toString();
+	return msg;
+    }
+
+    /**
+     * Gets this exception with a stack trace, for throwing to the caller of
+     * a blocking lookup.
+     * 
+     * @return this exception if it has a stack trace, otherwise a copy that
+     *         has the stack trace of the current thread
+     */
+    WeatherLookupException withStackTrace() {
+	if (getStackTrace().length > 0)
+	    return this;
+	return new WeatherLookupException(category, getMessage(), getCause());
     }
 }
\ No newline at end of file
@@ -0,0 +1,119 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+/**
+ * The outcome of looking up a single zip code as part of a batch or with
+ * lookupResultAsync(). Holds either the report or the exception that stopped
+ * the lookup.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public class WeatherLookupResult {
+
+    /**
+     * Stores the zip code that was looked up.
+     */
+    private final String zipCode;
+
+    /**
+     * Stores the report, null if the lookup failed.
+     */
+    private final WeatherReport report;
+
+    /**
+     * Stores the failure, null if the lookup succeeded.
+     */
+    private final WeatherLookupException exception;
+
+    private WeatherLookupResult(String zipCode, WeatherReport report,
+	    WeatherLookupException exception) {
+	this.zipCode = zipCode;
+	this.report = report;
+	this.exception = exception;
+    }
+
+    /**
+     * Makes a result for a lookup that succeeded.
+     * 
+     * @param zipCode
+     *            Zip code
+     * @param report
+     *            the report that was obtained
+     * @return the result
+     */
+    public static WeatherLookupResult success(String zipCode,
+	    WeatherReport report) {
+	return new WeatherLookupResult(zipCode, report, null);
+    }
+
+    /**
+     * Makes a result for a lookup that failed.
+     * 
+     * @param zipCode
+     *            Zip code
+     * @param exception
+     *            the reason the lookup failed
+     * @return the result
+     */
+    public static WeatherLookupResult failure(String zipCode,
+	    WeatherLookupException exception) {
+	return new WeatherLookupResult(zipCode, null, exception);
+    }
+
+    /**
+     * @return the zip code
+     */
+    public String getZipCode() {
+	return zipCode;
+    }
+
+    /**
+     * @return true if the lookup succeeded
+     */
+    public boolean isSuccess() {
+	return exception == null;
+    }
+
+    /**
+     * @return the report, null if the lookup failed
+     */
+    public WeatherReport getReport() {
+	return report;
+    }
+
+    /**
+     * @return the exception, null if the lookup succeeded
+     */
+    public WeatherLookupException getException() {
+	return exception;
+    }
+
+    /**
+     * @return the kind of failure, null if the lookup succeeded
+     */
+    public WeatherLookupException.Category getErrorCategory() {
+	return exception == null ? null : exception.getCategory();
+    }
+}
\ No newline at end of file
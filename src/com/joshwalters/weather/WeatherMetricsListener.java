@@ -0,0 +1,104 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+/**
+ * Receives timings and errors from a WeatherTransport. Set one with
+ * WeatherTransport.setMetricsListener(); NONE is used until then.
+ * <p>
+ * Every lookup that goes to a feed reports completed() or failed() once, with
+ * its total time. A feed that was read also reports fetched(), with the time
+ * spent waiting on the network, and parsed() if it was parsed. Times are in
+ * nanoseconds.
+ * <p>
+ * Methods are called on the threads doing the lookups, so implementations
+ * must be thread safe and should return quickly.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public interface WeatherMetricsListener {
+
+    /**
+     * A listener that ignores everything.
+     */
+    WeatherMetricsListener NONE = new WeatherMetricsListener() {
+	public void fetched(String provider, long nanos, long bytes) {
+	}
+
+	public void parsed(String provider, long nanos) {
+	}
+
+	public void completed(String provider, long nanos) {
+	}
+
+	public void failed(String provider, long nanos, Throwable error) {
+	}
+    };
+
+    /**
+     * Called when a feed has been received.
+     * 
+     * @param provider
+     *            the name of the provider
+     * @param nanos
+     *            the time spent connecting, waiting for the response and
+     *            reading it
+     * @param bytes
+     *            the number of bytes received, before any decompression. 0
+     *            for a 304 Not Modified response
+     */
+    void fetched(String provider, long nanos, long bytes);
+
+    /**
+     * Called when a feed has been parsed.
+     * 
+     * @param provider
+     *            the name of the provider
+     * @param nanos
+     *            the time spent decompressing and parsing the feed
+     */
+    void parsed(String provider, long nanos);
+
+    /**
+     * Called when a lookup has succeeded.
+     * 
+     * @param provider
+     *            the name of the provider
+     * @param nanos
+     *            the total time of the lookup
+     */
+    void completed(String provider, long nanos);
+
+    /**
+     * Called when a lookup has failed.
+     * 
+     * @param provider
+     *            the name of the provider
+     * @param nanos
+     *            the total time of the lookup
+     * @param error
+     *            the reason, usually a WeatherLookupException
+     */
+    void failed(String provider, long nanos, Throwable error);
+}
\ No newline at end of file
@@ -0,0 +1,48 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+/**
+ * The ways a weather feed can be parsed.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public enum WeatherParserType {
+    /**
+     * Builds a DOM tree of the whole feed and searches it.
+     */
+    DOM,
+
+    /**
+     * Reads the feed in a single pass with a streaming parser.
+     */
+    STREAMING,
+
+    /**
+     * Scans the bytes of the feed for the values a report needs, without a
+     * full XML parse, and uses the streaming parser for any feed it does not
+     * expect. Providers without such a scanner use the streaming parser.
+     */
+    FAST
+}
\ No newline at end of file
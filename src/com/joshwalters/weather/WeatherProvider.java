@@ -0,0 +1,81 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * A source of weather data. A provider knows where to fetch the feed for a
+ * zip code and how to parse that feed into a WeatherReport.
+ * <p>
+ * The Google and Yahoo providers are built in. Other providers can be added
+ * with WeatherProviders.register(), or by listing the implementing class in
+ * a META-INF/services/com.joshwalters.weather.WeatherProvider file on the
+ * classpath, in which case the class needs a public no-argument constructor.
+ * <p>
+ * Providers are shared between threads, so they must be thread safe.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public interface WeatherProvider {
+
+    /**
+     * Gets the name the provider is registered under, which also keys its
+     * cached reports, loads in flight, metrics and cluster requests, so two
+     * providers that give different reports must have different names. The
+     * built in providers use the names of the WeatherLookupService constants,
+     * followed by the base URL when it is not the service's own.
+     * 
+     * @return the name
+     */
+    String getName();
+
+    /**
+     * Gets the URL of the feed for a zip code. Any URL that Java can open may
+     * be used, including file: URLs for local data.
+     * 
+     * @param zipCode
+     *            Zip code
+     * @return the URL of the feed
+     * @throws WeatherLookupException
+     *             if the URL can not be built
+     */
+    URL getFeedUrl(String zipCode) throws WeatherLookupException;
+
+    /**
+     * Parses a feed into a report.
+     * 
+     * @param in
+     *            the feed, closed by the caller
+     * @param parserType
+     *            the preferred way to parse the feed, providers with only one
+     *            parser may ignore it
+     * @return the report
+     * @throws WeatherLookupException
+     *             if the feed could not be parsed or reports an error
+     */
+    WeatherReport parse(InputStream in, WeatherParserType parserType)
+	    throws WeatherLookupException;
+}
\ No newline at end of file
@@ -0,0 +1,158 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The registry of weather providers. Holds the built in Google and Yahoo
+ * providers, every provider found through ServiceLoader, and any provider
+ * registered at runtime. A provider on the classpath that can not be loaded
+ * is skipped and logged as a warning, and the others are still loaded.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public final class WeatherProviders {
+
+    private static final Logger LOGGER = Logger
+	    .getLogger(WeatherProviders.class.getName());
+
+    /**
+     * The most providers that may fail to load before the rest are given up
+     * on, in case the ServiceLoader can not move past a broken one.
+     */
+    private static final int MAX_LOAD_ERRORS = 100;
+
+    /**
+     * Stores the providers by name.
+     */
+    private static final ConcurrentHashMap<String, WeatherProvider> providers = new ConcurrentHashMap<String, WeatherProvider>();
+
+    /**
+     * Stores why a built in provider could not be made, such as a bad base URL
+     * in its system property. Only written while the class is loaded.
+     */
+    private static final Map<WeatherLookupService, IllegalArgumentException> builtInErrors = new EnumMap<WeatherLookupService, IllegalArgumentException>(
+	    WeatherLookupService.class);
+
+    static {
+	// Under the service names, even if a system property gives another URL
+	try {
+	    providers.put(WeatherLookupService.GOOGLE.name(),
+		    new GoogleWeatherProvider());
+	} catch (IllegalArgumentException e) {
+	    builtInFailed(WeatherLookupService.GOOGLE, e);
+	}
+	try {
+	    providers.put(WeatherLookupService.YAHOO.name(),
+		    new YahooWeatherProvider());
+	} catch (IllegalArgumentException e) {
+	    builtInFailed(WeatherLookupService.YAHOO, e);
+	}
+
+	// Providers on the classpath may replace the built in ones
+	Iterator<WeatherProvider> loaded = ServiceLoader.load(
+		WeatherProvider.class).iterator();
+	int errors = 0;
+	while (true) {
+	    try {
+		if (!loaded.hasNext())
+		    break;
+		register(loaded.next());
+	    } catch (ServiceConfigurationError e) {
+		// A broken provider should not stop the others working
+		LOGGER.log(Level.WARNING, "Skipped a weather provider that "
+			+ "could not be loaded.", e);
+		if (++errors == MAX_LOAD_ERRORS)
+		    break;
+	    }
+	}
+    }
+
+    private WeatherProviders() {
+    }
+
+    private static void builtInFailed(WeatherLookupService lookupService,
+	    IllegalArgumentException e) {
+	// The other service, and providers on the classpath, still work
+	builtInErrors.put(lookupService, e);
+	LOGGER.log(Level.WARNING, "Could not make the " + lookupService
+		+ " weather provider.", e);
+    }
+
+    /**
+     * Registers a provider, replacing any provider with the same name.
+     * 
+     * @param provider
+     *            the provider
+     */
+    public static void register(WeatherProvider provider) {
+	providers.put(provider.getName(), provider);
+    }
+
+    /**
+     * Gets a provider by name.
+     * 
+     * @param name
+     *            the name of the provider
+     * @return the provider, or null if there is none with that name
+     */
+    public static WeatherProvider get(String name) {
+	return providers.get(name);
+    }
+
+    /**
+     * Gets the provider for a lookup service.
+     * 
+     * @param lookupService
+     *            the lookup service
+     * @return the provider
+     * @throws IllegalStateException
+     *             if there is no provider for it, with the reason the built
+     *             in one could not be made as the cause
+     */
+    public static WeatherProvider get(WeatherLookupService lookupService) {
+	WeatherProvider provider = providers.get(lookupService.name());
+	if (provider == null)
+	    throw new IllegalStateException("Lookup service " + lookupService
+		    + " not supported.", builtInErrors.get(lookupService));
+	return provider;
+    }
+
+    /**
+     * @return the names of every registered provider, sorted
+     */
+    public static Set<String> getNames() {
+	return new TreeSet<String>(providers.keySet());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,441 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.joshwalters.weather.WeatherLookupException.Category;
+
+/**
+ * Keeps the reports of a set of zip codes fresh in the background.
+ * <p>
+ * Each zip code is refreshed on its own schedule: after a successful refresh
+ * the next one is due after the refresh interval, moved by a random amount of
+ * up to the jitter, so zip codes registered together drift apart instead of
+ * hitting the feed at the same moment every interval. Refreshes are started
+ * only when the rate limiter has a token. A failed refresh is retried after a
+ * back off that doubles with each failure in a row; a zip code the feed
+ * rejected as a bad key waits the longest back off.
+ * <p>
+ * Refreshed reports are stored in the cache of the WeatherLookup, and the
+ * refresh interval defaults to 80% of the cache's time to live, so cached
+ * reports are replaced before they expire and lookups never wait for the
+ * feed. The last good report of each zip code is also kept by the scheduler,
+ * see getReport(). Change listeners are told when a refreshed report differs
+ * from the one before it; a listener that throws is logged as a warning.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public class WeatherRefreshScheduler {
+
+    /**
+     * The refresh interval used when the lookup has no cache, in minutes.
+     */
+    public static final long DEFAULT_REFRESH_INTERVAL_MINUTES = 8;
+
+    /**
+     * The default jitter, as a fraction of the refresh interval.
+     */
+    public static final double DEFAULT_JITTER = 0.1;
+
+    private static final Logger LOGGER = Logger
+	    .getLogger(WeatherRefreshScheduler.class.getName());
+
+    /**
+     * The default number of refreshes started per second.
+     */
+    public static final double DEFAULT_RATE_LIMIT = 5;
+
+    /**
+     * The default most refreshes started at once.
+     */
+    public static final int DEFAULT_BURST = 10;
+
+    /**
+     * The first back off after a failure, unless the interval is shorter.
+     */
+    private static final long MIN_BACKOFF_MILLIS = 15 * 1000;
+
+    /**
+     * The longest back off after failures.
+     */
+    private static final long MAX_BACKOFF_MILLIS = 30 * 60 * 1000;
+
+    /**
+     * How often to look for refreshes that are due.
+     */
+    private static final long TICK_MILLIS = 100;
+
+    /**
+     * Stores the lookup that does the refreshes.
+     */
+    private final WeatherLookup lookup;
+
+    /**
+     * Stores the registered zip codes. Guarded by itself, as is the queue.
+     */
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * Stores the entries that are not being refreshed, by when they are due.
+     */
+    private final PriorityQueue<Entry> queue = new PriorityQueue<Entry>(11,
+	    new Comparator<Entry>() {
+		public int compare(Entry a, Entry b) {
+		    return Long.compare(a.dueAt, b.dueAt);
+		}
+	    });
+
+    private final List<WeatherChangeListener> listeners = new CopyOnWriteArrayList<WeatherChangeListener>();
+
+    private volatile long refreshIntervalMillis;
+    private volatile double jitter = DEFAULT_JITTER;
+    private volatile TokenBucket rateLimiter = new TokenBucket(
+	    DEFAULT_RATE_LIMIT, DEFAULT_BURST);
+
+    /**
+     * Stores the thread that starts the refreshes, null when stopped. Guarded
+     * by entries.
+     */
+    private ScheduledExecutorService timer;
+
+    /**
+     * Makes a scheduler that refreshes through a lookup, using its provider,
+     * cache and location resolver at the time of each refresh.
+     * 
+     * @param lookup
+     *            the lookup
+     */
+    public WeatherRefreshScheduler(WeatherLookup lookup) {
+	this.lookup = lookup;
+	WeatherCache cache = lookup.getCache();
+	if (cache != null)
+	    refreshIntervalMillis = cache.getTimeToLive(TimeUnit.MILLISECONDS)
+		    * 4 / 5;
+	else
+	    refreshIntervalMillis = TimeUnit.MINUTES
+		    .toMillis(DEFAULT_REFRESH_INTERVAL_MINUTES);
+    }
+
+    /**
+     * Starts refreshing. Zip codes that have no report yet are refreshed
+     * right away, as the rate limit allows.
+     */
+    public void start() {
+	synchronized (entries) {
+	    if (timer != null)
+		return;
+	    timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "weather-refresh");
+		thread.setDaemon(true);
+		return thread;
+	    });
+	    timer.scheduleWithFixedDelay(() -> tick(), 0, TICK_MILLIS,
+		    TimeUnit.MILLISECONDS);
+	}
+    }
+
+    /**
+     * Stops refreshing. Refreshes that are running still finish.
+     */
+    public void stop() {
+	synchronized (entries) {
+	    if (timer != null) {
+		timer.shutdownNow();
+		timer = null;
+	    }
+	}
+    }
+
+    /**
+     * @return true if the scheduler has been started and not stopped
+     */
+    public boolean isRunning() {
+	synchronized (entries) {
+	    return timer != null;
+	}
+    }
+
+    /**
+     * Adds a zip code to keep fresh. It is refreshed as soon as the rate
+     * limit allows.
+     * 
+     * @param zipCode
+     *            Zip code
+     */
+    public void add(String zipCode) {
+	synchronized (entries) {
+	    if (entries.containsKey(zipCode))
+		return;
+	    Entry entry = new Entry(zipCode);
+	    entry.dueAt = System.currentTimeMillis();
+	    entries.put(zipCode, entry);
+	    queue.add(entry);
+	}
+    }
+
+    /**
+     * Stops refreshing a zip code.
+     * 
+     * @param zipCode
+     *            Zip code
+     */
+    public void remove(String zipCode) {
+	synchronized (entries) {
+	    Entry entry = entries.remove(zipCode);
+	    if (entry != null)
+		queue.remove(entry);
+	}
+    }
+
+    /**
+     * @return the zip codes being kept fresh, in order
+     */
+    public Set<String> getZipCodes() {
+	synchronized (entries) {
+	    return Collections.unmodifiableSet(new TreeSet<String>(entries
+		    .keySet()));
+	}
+    }
+
+    /**
+     * Gets the last report refreshed for a zip code. Never waits for the
+     * feed, and keeps the last good report while refreshes are failing.
+     * 
+     * @param zipCode
+     *            Zip code
+     * @return the report, or null if the zip code is not registered or has
+     *         not been refreshed yet
+     */
+    public WeatherReport getReport(String zipCode) {
+	synchronized (entries) {
+	    Entry entry = entries.get(zipCode);
+	    return entry == null ? null : entry.report;
+	}
+    }
+
+    /**
+     * Adds a listener to be told when a refreshed report differs from the one
+     * before it, including the first report of each zip code.
+     * 
+     * @param listener
+     *            the listener
+     */
+    public void addChangeListener(WeatherChangeListener listener) {
+	listeners.add(listener);
+    }
+
+    /**
+     * @param listener
+     *            the listener to remove
+     */
+    public void removeChangeListener(WeatherChangeListener listener) {
+	listeners.remove(listener);
+    }
+
+    /**
+     * @param unit
+     *            the unit of the result
+     * @return the time between refreshes of a zip code
+     */
+    public long getRefreshInterval(TimeUnit unit) {
+	return unit.convert(refreshIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sets the time between refreshes of a zip code. To keep cached reports
+     * from expiring, keep it plus the jitter below the cache's time to live.
+     * Takes effect from the next refresh of each zip code.
+     * 
+     * @param interval
+     *            the interval
+     * @param unit
+     *            the unit of interval
+     */
+    public void setRefreshInterval(long interval, TimeUnit unit) {
+	if (interval <= 0)
+	    throw new IllegalArgumentException("Interval must be positive.");
+	this.refreshIntervalMillis = unit.toMillis(interval);
+    }
+
+    /**
+     * @return the jitter, as a fraction of the refresh interval
+     */
+    public double getJitter() {
+	return jitter;
+    }
+
+    /**
+     * Sets how far each refresh may be moved from the interval at random.
+     * 
+     * @param jitter
+     *            the fraction of the interval, from 0 to 1
+     */
+    public void setJitter(double jitter) {
+	if (jitter < 0 || jitter > 1)
+	    throw new IllegalArgumentException("Jitter must be from 0 to 1.");
+	this.jitter = jitter;
+    }
+
+    /**
+     * @return the rate limiter
+     */
+    public TokenBucket getRateLimiter() {
+	return rateLimiter;
+    }
+
+    /**
+     * Sets the rate limiter. Schedulers that refresh from the same weather
+     * service should share one, so the limit covers the service as a whole.
+     * 
+     * @param rateLimiter
+     *            the rate limiter
+     */
+    public void setRateLimiter(TokenBucket rateLimiter) {
+	if (rateLimiter == null)
+	    throw new IllegalArgumentException("Rate limiter can not be null.");
+	this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Starts the refreshes that are due, while the rate limiter allows.
+     */
+    private void tick() {
+	List<Entry> due = new ArrayList<Entry>();
+	long now = System.currentTimeMillis();
+	TokenBucket rateLimiter = this.rateLimiter;
+	synchronized (entries) {
+	    while (!queue.isEmpty() && queue.peek().dueAt <= now
+		    && rateLimiter.tryAcquire())
+		due.add(queue.poll());
+	}
+	for (Entry entry : due)
+	    refresh(entry);
+    }
+
+    private void refresh(final Entry entry) {
+	CompletableFuture<WeatherReport> future;
+	try {
+	    future = lookup.refreshAsync(entry.zipCode);
+	} catch (RuntimeException e) {
+	    // Keep the timer running whatever the lookup throws
+	    future = new CompletableFuture<WeatherReport>();
+	    future.completeExceptionally(e);
+	}
+	future.whenComplete((report, error) -> refreshed(entry, report, error));
+    }
+
+    /**
+     * Schedules the next refresh of an entry and tells the listeners if its
+     * report changed.
+     */
+    private void refreshed(Entry entry, WeatherReport report, Throwable error) {
+	WeatherReport previous;
+	synchronized (entries) {
+	    previous = entry.report;
+	    long now = System.currentTimeMillis();
+	    if (error == null) {
+		entry.report = report;
+		entry.failures = 0;
+		entry.dueAt = now + jittered(refreshIntervalMillis);
+	    } else {
+		entry.failures++;
+		entry.dueAt = now + backoff(entry.failures, error);
+	    }
+
+	    // Only requeue if it was not removed while refreshing
+	    if (entries.get(entry.zipCode) == entry)
+		queue.add(entry);
+	}
+
+	if (error != null || report.equals(previous))
+	    return;
+	for (WeatherChangeListener listener : listeners) {
+	    try {
+		listener.weatherChanged(entry.zipCode, previous, report);
+	    } catch (RuntimeException e) {
+		// One broken listener must not keep the others from hearing
+		LOGGER.log(Level.WARNING, "Weather change listener " + listener
+			+ " failed on " + entry.zipCode + ".", e);
+	    }
+	}
+    }
+
+    /**
+     * Gets the time to wait after a number of failures in a row.
+     * 
+     * @param failures
+     *            the number of failures, at least 1
+     * @param error
+     *            the last failure
+     * @return the time to wait in milliseconds
+     */
+    private long backoff(int failures, Throwable error) {
+	if (error instanceof CompletionException && error.getCause() != null)
+	    error = error.getCause();
+	if (error instanceof WeatherLookupException
+		&& ((WeatherLookupException) error).getCategory() == Category.BAD_KEY)
+	    return jittered(MAX_BACKOFF_MILLIS);
+	long first = Math.min(MIN_BACKOFF_MILLIS, refreshIntervalMillis);
+	long backoff = first << Math.min(failures - 1, 20);
+	return jittered(Math.min(backoff, MAX_BACKOFF_MILLIS));
+    }
+
+    private long jittered(long millis) {
+	double offset = jitter == 0 ? 0 : ThreadLocalRandom.current()
+		.nextDouble(-jitter, jitter);
+	return Math.max(1, (long) (millis * (1 + offset)));
+    }
+
+    /**
+     * A registered zip code. Its fields are guarded by entries.
+     */
+    private static final class Entry {
+	final String zipCode;
+	long dueAt;
+	int failures;
+	WeatherReport report;
+
+	Entry(String zipCode) {
+	    this.zipCode = zipCode;
+	}
+    }
+}
\ No newline at end of file
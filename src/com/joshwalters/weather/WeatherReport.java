@@ -0,0 +1,142 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of a single weather lookup: the current conditions together with
+ * the forecasts. A report is never modified once it has been built, so it can
+ * be shared between threads. The conditions are stored in their compact form,
+ * the WeatherCondition getters hand out fresh copies.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public class WeatherReport {
+
+    /**
+     * Stores the current weather conditions.
+     */
+    private final CompactWeatherCondition currentWeatherConditions;
+
+    /**
+     * Stores weather forecasts.
+     */
+    private final CompactWeatherCondition[] futureWeatherConditions;
+
+    /**
+     * Builds a report. The conditions are converted to their compact form
+     * here, once, when the feed is parsed.
+     * 
+     * @param currentWeatherConditions
+     *            the current weather conditions
+     * @param futureWeatherConditions
+     *            the forecasts, in the order they were reported
+     */
+    public WeatherReport(WeatherCondition currentWeatherConditions,
+	    List<WeatherCondition> futureWeatherConditions) {
+	this.currentWeatherConditions = CompactWeatherCondition
+		.from(currentWeatherConditions);
+	this.futureWeatherConditions = new CompactWeatherCondition[futureWeatherConditions
+		.size()];
+	for (int i = 0; i < this.futureWeatherConditions.length; i++) {
+	    this.futureWeatherConditions[i] = CompactWeatherCondition
+		    .from(futureWeatherConditions.get(i));
+	}
+    }
+
+    /**
+     * Builds a report from conditions that are already compact.
+     * 
+     * @param currentWeatherConditions
+     *            the current weather conditions
+     * @param futureWeatherConditions
+     *            the forecasts, in the order they were reported
+     */
+    public WeatherReport(CompactWeatherCondition currentWeatherConditions,
+	    CompactWeatherCondition[] futureWeatherConditions) {
+	this.currentWeatherConditions = currentWeatherConditions;
+	this.futureWeatherConditions = futureWeatherConditions.clone();
+    }
+
+    /**
+     * @return a copy of the current weather conditions
+     */
+    public WeatherCondition getCurrentWeatherConditions() {
+	return currentWeatherConditions.toWeatherCondition();
+    }
+
+    /**
+     * @return copies of the forecasts, as an unmodifiable list
+     */
+    public List<WeatherCondition> getFutureWeatherConditions() {
+	List<WeatherCondition> forecasts = new ArrayList<WeatherCondition>(
+		futureWeatherConditions.length);
+	for (CompactWeatherCondition forecast : futureWeatherConditions)
+	    forecasts.add(forecast.toWeatherCondition());
+	return Collections.unmodifiableList(forecasts);
+    }
+
+    /**
+     * @return the current weather conditions
+     */
+    public CompactWeatherCondition getCompactCurrentWeatherConditions() {
+	return currentWeatherConditions;
+    }
+
+    /**
+     * @return the forecasts, as an unmodifiable list
+     */
+    public List<CompactWeatherCondition> getCompactFutureWeatherConditions() {
+	return Collections.unmodifiableList(Arrays
+		.asList(futureWeatherConditions));
+    }
+
+    /**
+     * Compares the conditions of two reports.
+     * 
+     * @return true if o is a report with the same current conditions and
+     *         forecasts
+     */
+    @Override
+    public boolean equals(Object o) {
+	if (this == o)
+	    return true;
+	if (!(o instanceof WeatherReport))
+	    return false;
+	WeatherReport other = (WeatherReport) o;
+	return currentWeatherConditions.equals(other.currentWeatherConditions)
+		&& Arrays.equals(futureWeatherConditions,
+			other.futureWeatherConditions);
+    }
+
+    @Override
+    public int hashCode() {
+	return 31 * currentWeatherConditions.hashCode()
+		+ Arrays.hashCode(futureWeatherConditions);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,489 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads weather reports written by a WeatherReportWriter, one report at a
+ * time.
+ * <p>
+ * The channel is read through a fixed buffer and each line is decoded with a
+ * reused UTF-8 decoder, so only the report being read is held in memory. A
+ * report is the current conditions record of a zip code and the forecast
+ * records after it. In JSON lines the fields may come in any order and
+ * unknown fields are skipped. A reader is not thread safe.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ * @see WeatherReportWriter
+ */
+public class WeatherReportReader implements Closeable {
+
+    /**
+     * The size of the input buffer.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ReadableByteChannel channel;
+    private final WeatherExportFormat format;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8
+	    .newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+	    .onUnmappableCharacter(CodingErrorAction.REPORT);
+    private final ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /**
+     * Stores the bytes of the line being read, grown as needed.
+     */
+    private byte[] lineBytes = new byte[256];
+
+    /**
+     * Stores the decoded record, grown as needed. A CSV record may span lines.
+     */
+    private CharBuffer text = CharBuffer.allocate(256);
+
+    /**
+     * Stores the fields of the record being parsed.
+     */
+    private final String[] fields = new String[WeatherExportFormat.FIELDS.length];
+
+    private final StringBuilder value = new StringBuilder();
+
+    private boolean endOfInput;
+    private long lineNumber;
+
+    /**
+     * Stores the report being read, its current conditions come from the
+     * last record read.
+     */
+    private String zipCode;
+    private WeatherCondition current;
+    private final List<WeatherCondition> forecasts = new ArrayList<WeatherCondition>();
+
+    /**
+     * Makes a reader.
+     * 
+     * @param channel
+     *            the channel to read from, closed by close()
+     * @param format
+     *            the format
+     */
+    public WeatherReportReader(ReadableByteChannel channel,
+	    WeatherExportFormat format) {
+	this.channel = channel;
+	this.format = format;
+	in.flip();
+    }
+
+    /**
+     * Opens a file for reading.
+     * 
+     * @param file
+     *            the file
+     * @param format
+     *            the format
+     * @return the reader
+     * @throws IOException
+     *             if the file can not be opened
+     */
+    public static WeatherReportReader open(Path file,
+	    WeatherExportFormat format) throws IOException {
+	return new WeatherReportReader(FileChannel.open(file,
+		StandardOpenOption.READ), format);
+    }
+
+    /**
+     * Reads the next report.
+     * 
+     * @return a successful result with the zip code and report, or null at
+     *         the end of the input
+     * @throws IOException
+     *             if the input can not be read or is not in the format
+     */
+    public WeatherLookupResult read() throws IOException {
+	while (readRecord()) {
+	    String type = fields[1];
+	    if (WeatherExportFormat.CURRENT.equals(type)) {
+		WeatherLookupResult result = take();
+		zipCode = fields[0];
+		current = condition();
+		if (result != null)
+		    return result;
+	    } else if (WeatherExportFormat.FORECAST.equals(type)) {
+		if (current == null || !zipCode.equals(fields[0]))
+		    throw new IOException("Forecast without current conditions on line "
+			    + lineNumber + ".");
+		forecasts.add(condition());
+	    } else {
+		throw new IOException("Unknown record type \"" + type
+			+ "\" on line " + lineNumber + ".");
+	    }
+	}
+	return take();
+    }
+
+    /**
+     * @return the number of lines read
+     */
+    public long getLineNumber() {
+	return lineNumber;
+    }
+
+    public void close() throws IOException {
+	channel.close();
+    }
+
+    /**
+     * Takes the report read so far.
+     * 
+     * @return the report, or null if there is none
+     */
+    private WeatherLookupResult take() {
+	if (current == null)
+	    return null;
+	WeatherLookupResult result = WeatherLookupResult.success(zipCode,
+		new WeatherReport(current, forecasts));
+	current = null;
+	forecasts.clear();
+	return result;
+    }
+
+    private WeatherCondition condition() {
+	WeatherCondition condition = new WeatherCondition();
+	condition.setLocation(fields[2]);
+	condition.setGeneralWeatherCondition(fields[3]);
+	condition.setTempF(fields[4]);
+	condition.setTempC(fields[5]);
+	condition.setHumidity(fields[6]);
+	condition.setWindCondition(fields[7]);
+	condition.setDayOfWeek(fields[8]);
+	condition.setLowTemperature(fields[9]);
+	condition.setHighTemperature(fields[10]);
+	return condition;
+    }
+
+    /**
+     * Reads the next record into fields, skipping blank lines and the CSV
+     * header.
+     * 
+     * @return false at the end of the input
+     */
+    private boolean readRecord() throws IOException {
+	while (true) {
+	    text.clear();
+	    if (!readLine())
+		return false;
+	    if (format == WeatherExportFormat.CSV) {
+		// A quoted field may hold line breaks
+		while (hasOpenQuote()) {
+		    append('\n');
+		    if (!readLine())
+			throw new IOException("Unclosed quote at line "
+				+ lineNumber + ".");
+		}
+	    }
+	    text.flip();
+	    if (isBlank())
+		continue;
+	    Arrays.fill(fields, null);
+	    if (format == WeatherExportFormat.CSV) {
+		parseCsv();
+		if (lineNumber == 1 && WeatherExportFormat.FIELDS[0]
+			.equals(fields[0]))
+		    continue;
+	    } else {
+		parseJson();
+	    }
+	    if (fields[0] == null)
+		throw new IOException("Missing zip code on line "
+			+ lineNumber + ".");
+	    return true;
+	}
+    }
+
+    /**
+     * Reads a line, without its line break, and decodes it onto the end of
+     * the text.
+     * 
+     * @return false if there are no more lines
+     */
+    private boolean readLine() throws IOException {
+	int length = 0;
+	boolean any = false;
+	while (true) {
+	    if (!in.hasRemaining()) {
+		if (endOfInput || !fill()) {
+		    if (!any)
+			return false;
+		    break;
+		}
+	    }
+	    any = true;
+	    byte b = in.get();
+	    if (b == '\n')
+		break;
+	    if (length == lineBytes.length)
+		lineBytes = Arrays.copyOf(lineBytes, length * 2);
+	    lineBytes[length++] = b;
+	}
+	lineNumber++;
+	if (length > 0 && lineBytes[length - 1] == '\r')
+	    length--;
+
+	ByteBuffer bytes = ByteBuffer.wrap(lineBytes, 0, length);
+	decoder.reset();
+	while (true) {
+	    CoderResult result = decoder.decode(bytes, text, true);
+	    if (result.isOverflow()) {
+		grow(length);
+		continue;
+	    }
+	    if (result.isError())
+		throw new IOException("Invalid UTF-8 on line " + lineNumber
+			+ ".");
+	    break;
+	}
+	return true;
+    }
+
+    private boolean fill() throws IOException {
+	in.clear();
+	int read;
+	do {
+	    read = channel.read(in);
+	} while (read == 0);
+	in.flip();
+	if (read < 0)
+	    endOfInput = true;
+	return in.hasRemaining();
+    }
+
+    private void append(char c) {
+	if (!text.hasRemaining())
+	    grow(1);
+	text.put(c);
+    }
+
+    private void grow(int needed) {
+	CharBuffer bigger = CharBuffer.allocate(Math.max(text.capacity() * 2,
+		text.position() + needed));
+	text.flip();
+	bigger.put(text);
+	text = bigger;
+    }
+
+    private boolean hasOpenQuote() {
+	boolean open = false;
+	char[] chars = text.array();
+	for (int i = 0, end = text.position(); i < end; i++)
+	    if (chars[i] == '"')
+		open = !open;
+	return open;
+    }
+
+    private boolean isBlank() {
+	for (int i = text.position(); i < text.limit(); i++)
+	    if (!Character.isWhitespace(text.get(i)))
+		return false;
+	return true;
+    }
+
+    private void parseCsv() throws IOException {
+	char[] chars = text.array();
+	int end = text.limit();
+	int i = 0;
+	int field = 0;
+	while (true) {
+	    String parsed;
+	    if (i < end && chars[i] == '"') {
+		value.setLength(0);
+		i++;
+		while (true) {
+		    if (i >= end)
+			throw new IOException("Unclosed quote at line "
+				+ lineNumber + ".");
+		    char c = chars[i++];
+		    if (c == '"') {
+			if (i < end && chars[i] == '"') {
+			    value.append('"');
+			    i++;
+			} else {
+			    break;
+			}
+		    } else {
+			value.append(c);
+		    }
+		}
+		parsed = value.toString();
+	    } else {
+		int start = i;
+		while (i < end && chars[i] != ',')
+		    i++;
+		parsed = i == start ? null : new String(chars, start, i
+			- start);
+	    }
+	    if (field < fields.length)
+		fields[field] = parsed;
+	    field++;
+	    if (i >= end)
+		return;
+	    if (chars[i] != ',')
+		throw new IOException("Expected a comma on line "
+			+ lineNumber + ".");
+	    i++;
+	}
+    }
+
+    private void parseJson() throws IOException {
+	char[] chars = text.array();
+	int end = text.limit();
+	int i = skipSpace(chars, 0, end);
+	i = expect(chars, i, end, '{');
+	i = skipSpace(chars, i, end);
+	if (i < end && chars[i] == '}')
+	    return;
+	while (true) {
+	    i = skipSpace(chars, i, end);
+	    i = parseJsonString(chars, i, end);
+	    int field = fieldIndex(value);
+	    i = expect(chars, skipSpace(chars, i, end), end, ':');
+	    i = skipSpace(chars, i, end);
+	    String parsed;
+	    if (i < end && chars[i] == '"') {
+		i = parseJsonString(chars, i, end);
+		parsed = value.toString();
+	    } else {
+		// A number, true, false or null
+		int start = i;
+		while (i < end && chars[i] != ',' && chars[i] != '}'
+			&& !Character.isWhitespace(chars[i]))
+		    i++;
+		parsed = new String(chars, start, i - start);
+		if (parsed.equals("null"))
+		    parsed = null;
+		else if (parsed.isEmpty())
+		    throw new IOException("Missing value on line "
+			    + lineNumber + ".");
+	    }
+	    if (field >= 0)
+		fields[field] = parsed;
+	    i = skipSpace(chars, i, end);
+	    if (i < end && chars[i] == '}')
+		return;
+	    i = expect(chars, i, end, ',');
+	}
+    }
+
+    /**
+     * Parses a JSON string into value.
+     * 
+     * @return the index after the closing quote
+     */
+    private int parseJsonString(char[] chars, int i, int end)
+	    throws IOException {
+	i = expect(chars, i, end, '"');
+	value.setLength(0);
+	while (i < end) {
+	    char c = chars[i++];
+	    if (c == '"')
+		return i;
+	    if (c != '\\') {
+		value.append(c);
+		continue;
+	    }
+	    if (i >= end)
+		break;
+	    char escaped = chars[i++];
+	    switch (escaped) {
+	    case 'b':
+		value.append('\b');
+		break;
+	    case 'f':
+		value.append('\f');
+		break;
+	    case 'n':
+		value.append('\n');
+		break;
+	    case 'r':
+		value.append('\r');
+		break;
+	    case 't':
+		value.append('\t');
+		break;
+	    case 'u':
+		if (i + 4 > end)
+		    throw new IOException("Bad escape on line "
+			    + lineNumber + ".");
+		try {
+		    value.append((char) Integer.parseInt(new String(chars,
+			    i, 4), 16));
+		} catch (NumberFormatException e) {
+		    throw new IOException("Bad escape on line "
+			    + lineNumber + ".");
+		}
+		i += 4;
+		break;
+	    default:
+		// \" \\ and \/
+		value.append(escaped);
+	    }
+	}
+	throw new IOException("Unclosed string on line " + lineNumber + ".");
+    }
+
+    private int expect(char[] chars, int i, int end, char c)
+	    throws IOException {
+	if (i >= end || chars[i] != c)
+	    throw new IOException("Expected '" + c + "' on line "
+		    + lineNumber + ".");
+	return i + 1;
+    }
+
+    private static int skipSpace(char[] chars, int i, int end) {
+	while (i < end && Character.isWhitespace(chars[i]))
+	    i++;
+	return i;
+    }
+
+    private static int fieldIndex(CharSequence name) {
+	String[] names = WeatherExportFormat.FIELDS;
+	for (int i = 0; i < names.length; i++)
+	    if (names[i].contentEquals(name))
+		return i;
+	return -1;
+    }
+}
\ No newline at end of file
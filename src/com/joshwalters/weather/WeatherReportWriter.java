@@ -0,0 +1,335 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * Writes weather reports to a channel as CSV or JSON lines, one record per
+ * condition.
+ * <p>
+ * Each record is built in a reused buffer, encoded with a reused UTF-8
+ * encoder and written once the byte buffer is full, so only one buffer of
+ * output is held at a time however many reports are written. A writer is
+ * not thread safe.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ * @see WeatherReportReader
+ */
+public class WeatherReportWriter implements Closeable, Flushable {
+
+    /**
+     * The size of the output buffer.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final WritableByteChannel channel;
+    private final WeatherExportFormat format;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8
+	    .newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+	    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /**
+     * Stores the record being built.
+     */
+    private final StringBuilder record = new StringBuilder(256);
+
+    /**
+     * Stores the record while it is encoded, grown as needed.
+     */
+    private CharBuffer chars = CharBuffer.allocate(256);
+
+    private long records;
+
+    /**
+     * Makes a writer. The CSV header is written before the first record.
+     * 
+     * @param channel
+     *            the channel to write to, closed by close()
+     * @param format
+     *            the format
+     */
+    public WeatherReportWriter(WritableByteChannel channel,
+	    WeatherExportFormat format) {
+	this.channel = channel;
+	this.format = format;
+	if (format == WeatherExportFormat.CSV) {
+	    for (int i = 0; i < WeatherExportFormat.FIELDS.length; i++) {
+		if (i > 0)
+		    record.append(',');
+		record.append(WeatherExportFormat.FIELDS[i]);
+	    }
+	    record.append('\n');
+	}
+    }
+
+    /**
+     * Opens a file for writing, replacing what it held.
+     * 
+     * @param file
+     *            the file
+     * @param format
+     *            the format
+     * @return the writer
+     * @throws IOException
+     *             if the file can not be opened
+     */
+    public static WeatherReportWriter open(Path file,
+	    WeatherExportFormat format) throws IOException {
+	return new WeatherReportWriter(FileChannel.open(file,
+		StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+		StandardOpenOption.TRUNCATE_EXISTING), format);
+    }
+
+    /**
+     * Writes the current conditions and forecasts of a report.
+     * 
+     * @param zipCode
+     *            Zip code
+     * @param report
+     *            the report
+     * @throws IOException
+     *             if the channel could not be written
+     */
+    public void write(String zipCode, WeatherReport report) throws IOException {
+	writeRecord(zipCode, WeatherExportFormat.CURRENT, report
+		.getCompactCurrentWeatherConditions());
+	for (CompactWeatherCondition forecast : report
+		.getCompactFutureWeatherConditions())
+	    writeRecord(zipCode, WeatherExportFormat.FORECAST, forecast);
+    }
+
+    /**
+     * Writes the report of a successful lookup.
+     * 
+     * @param result
+     *            the result
+     * @return true if it was written, false if the lookup failed
+     * @throws IOException
+     *             if the channel could not be written
+     */
+    public boolean write(WeatherLookupResult result) throws IOException {
+	if (!result.isSuccess())
+	    return false;
+	write(result.getZipCode(), result.getReport());
+	return true;
+    }
+
+    /**
+     * Writes the reports of the successful lookups of a batch, such as the
+     * results of WeatherLookup.lookupAll().
+     * 
+     * @param results
+     *            the results by zip code
+     * @return the number of reports written
+     * @throws IOException
+     *             if the channel could not be written
+     */
+    public int writeAll(Map<String, WeatherLookupResult> results)
+	    throws IOException {
+	int written = 0;
+	for (WeatherLookupResult result : results.values())
+	    if (write(result))
+		written++;
+	return written;
+    }
+
+    /**
+     * @return the number of records written, one per condition
+     */
+    public long getRecordCount() {
+	return records;
+    }
+
+    /**
+     * Writes out the buffered records.
+     */
+    public void flush() throws IOException {
+	encode();
+	writeBuffer();
+    }
+
+    /**
+     * Writes out the buffered records and closes the channel.
+     */
+    public void close() throws IOException {
+	try {
+	    flush();
+	} finally {
+	    channel.close();
+	}
+    }
+
+    private void writeRecord(String zipCode, String type,
+	    CompactWeatherCondition compact) throws IOException {
+	WeatherCondition condition = compact.toWeatherCondition();
+	boolean csv = format == WeatherExportFormat.CSV;
+	if (!csv)
+	    record.append('{');
+	field(csv, 0, zipCode);
+	field(csv, 1, type);
+	field(csv, 2, condition.getLocation());
+	field(csv, 3, condition.getGeneralWeatherCondition());
+	field(csv, 4, condition.getTempF());
+	field(csv, 5, condition.getTempC());
+	field(csv, 6, condition.getHumidity());
+	field(csv, 7, condition.getWindCondition());
+	field(csv, 8, condition.getDayOfWeek());
+	field(csv, 9, condition.getLowTemperature());
+	field(csv, 10, condition.getHighTemperature());
+	record.append(csv ? "\n" : "}\n");
+	records++;
+
+	// Encode a batch of records at a time
+	if (record.length() >= 4096)
+	    encode();
+    }
+
+    private void field(boolean csv, int index, String value) {
+	if (index > 0)
+	    record.append(',');
+	if (csv) {
+	    appendCsv(value);
+	} else {
+	    record.append('"').append(WeatherExportFormat.FIELDS[index])
+		    .append("\":");
+	    appendJson(record, value);
+	}
+    }
+
+    private void appendCsv(String value) {
+	if (value == null)
+	    return;
+	boolean quote = value.isEmpty();
+	for (int i = 0; i < value.length() && !quote; i++) {
+	    char c = value.charAt(i);
+	    quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+	}
+	if (!quote) {
+	    record.append(value);
+	    return;
+	}
+	record.append('"');
+	for (int i = 0; i < value.length(); i++) {
+	    char c = value.charAt(i);
+	    if (c == '"')
+		record.append('"');
+	    record.append(c);
+	}
+	record.append('"');
+    }
+
+    /**
+     * Appends a value as a JSON string, or null.
+     * 
+     * @param out
+     *            the text to append to
+     * @param value
+     *            the value, or null
+     */
+    static void appendJson(StringBuilder out, String value) {
+	if (value == null) {
+	    out.append("null");
+	    return;
+	}
+	out.append('"');
+	for (int i = 0; i < value.length(); i++) {
+	    char c = value.charAt(i);
+	    switch (c) {
+	    case '"':
+		out.append("\\\"");
+		break;
+	    case '\\':
+		out.append("\\\\");
+		break;
+	    case '\n':
+		out.append("\\n");
+		break;
+	    case '\r':
+		out.append("\\r");
+		break;
+	    case '\t':
+		out.append("\\t");
+		break;
+	    default:
+		if (c < 0x20) {
+		    out.append("\\u00").append(HEX[c >> 4]).append(
+			    HEX[c & 0xF]);
+		} else {
+		    out.append(c);
+		}
+	    }
+	}
+	out.append('"');
+    }
+
+    /**
+     * Encodes the records built so far into the output buffer, writing the
+     * buffer to the channel each time it fills.
+     */
+    private void encode() throws IOException {
+	int length = record.length();
+	if (length == 0)
+	    return;
+	if (chars.capacity() < length)
+	    chars = CharBuffer.allocate(Math.max(length, chars.capacity() * 2));
+	chars.clear();
+	record.getChars(0, length, chars.array(), 0);
+	chars.limit(length);
+	record.setLength(0);
+
+	encoder.reset();
+	while (true) {
+	    CoderResult result = encoder.encode(chars, out, true);
+	    if (result.isUnderflow())
+		break;
+	    writeBuffer();
+	}
+	while (encoder.flush(out).isOverflow())
+	    writeBuffer();
+    }
+
+    private void writeBuffer() throws IOException {
+	out.flip();
+	while (out.hasRemaining())
+	    channel.write(out);
+	out.clear();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,602 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves weather reports as JSON over HTTP, so many programs can share one
+ * WeatherLookup and its calls to the weather service.
+ * <p>
+ * The paths are:
+ * <ul>
+ * <li>GET /weather/{zip} for the current conditions and the forecast</li>
+ * <li>GET /weather/{zip}/current and /weather/{zip}/forecast for either</li>
+ * <li>GET /weather?zip=92614,10001 for up to MAX_BATCH_SIZE zip codes</li>
+ * <li>GET /health</li>
+ * </ul>
+ * Conditions have the fields of WeatherExportFormat. A failed lookup is
+ * answered with its category and message, and the HTTP status of the
+ * failure, or as an entry of a batch.
+ * <p>
+ * Every client shares the lookup's cache, and lookups of the same zip code
+ * at the same time share one fetch. Responses have an ETag, a request with
+ * a matching If-None-Match is answered with 304. Each client has a token
+ * bucket, and each zip code it asks for takes a token; a client that runs
+ * out is answered with 429. Clients are told apart by address. Requests
+ * from a trusted proxy are told apart by the X-Client-Id header the proxy
+ * sets, see setTrustedProxies().
+ * <p>
+ * Requests run on virtual threads where the JDK has them, and on a fixed
+ * pool of threads otherwise. Run the JVM with
+ * -Dsun.net.httpserver.nodelay=true, or responses wait on delayed ACKs.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public class WeatherServer {
+
+    /**
+     * The port the server listens on by default.
+     */
+    public static final int DEFAULT_PORT = 8080;
+
+    /**
+     * The most zip codes a batch request can ask for.
+     */
+    public static final int MAX_BATCH_SIZE = 100;
+
+    /**
+     * The zip codes each client can look up per second by default.
+     */
+    public static final double DEFAULT_CLIENT_RATE = 100;
+
+    /**
+     * The most zip codes each client can look up at once by default.
+     */
+    public static final int DEFAULT_CLIENT_BURST = 200;
+
+    /**
+     * The header trusted proxies name their clients in.
+     */
+    public static final String CLIENT_HEADER = "X-Client-Id";
+
+    /**
+     * The threads requests run on when there are no virtual threads.
+     */
+    private static final int DEFAULT_THREADS = 256;
+
+    /**
+     * The most clients rate limits are kept for. The client that made a
+     * request longest ago is dropped past this.
+     */
+    private static final int MAX_CLIENTS = 10000;
+
+    private static final String JSON = "application/json; charset=UTF-8";
+
+    private final WeatherLookup weather;
+    private final InetSocketAddress address;
+
+    private volatile double clientRate = DEFAULT_CLIENT_RATE;
+    private volatile int clientBurst = DEFAULT_CLIENT_BURST;
+
+    /**
+     * Stores the rate limit of each client, the least recently seen first.
+     * Guarded by itself.
+     */
+    private final Map<String, TokenBucket> clients = new LinkedHashMap<String, TokenBucket>(
+	    16, 0.75f, true) {
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	protected boolean removeEldestEntry(Map.Entry<String, TokenBucket> eldest) {
+	    return size() > MAX_CLIENTS;
+	}
+    };
+
+    /**
+     * Stores the addresses of the proxies whose client header is believed.
+     */
+    private volatile Set<String> trustedProxies = Collections.emptySet();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Makes a server for a lookup on a port of every address. A lookup
+     * without a cache is given one, so clients share reports.
+     * 
+     * @param weather
+     *            the lookup
+     * @param port
+     *            the port, 0 for any free port
+     */
+    public WeatherServer(WeatherLookup weather, int port) {
+	this(weather, new InetSocketAddress(port));
+    }
+
+    /**
+     * Makes a server for a lookup. A lookup without a cache is given one, so
+     * clients share reports.
+     * 
+     * @param weather
+     *            the lookup
+     * @param address
+     *            the address to listen on
+     */
+    public WeatherServer(WeatherLookup weather, InetSocketAddress address) {
+	if (weather.getCache() == null)
+	    weather.setCache(new WeatherCache());
+	this.weather = weather;
+	this.address = address;
+    }
+
+    /**
+     * Starts listening.
+     * 
+     * @throws IOException
+     *             if the address can not be bound
+     */
+    public synchronized void start() throws IOException {
+	if (server != null)
+	    return;
+	executor = newExecutor();
+	server = HttpServer.create(address, 1024);
+	server.createContext("/", exchange -> {
+	    try {
+		handle(exchange);
+	    } finally {
+		exchange.close();
+	    }
+	});
+	server.setExecutor(executor);
+	server.start();
+    }
+
+    /**
+     * Stops the server.
+     * 
+     * @param delay
+     *            the most seconds to wait for requests being answered
+     */
+    public synchronized void stop(int delay) {
+	if (server == null)
+	    return;
+	server.stop(delay);
+	executor.shutdownNow();
+	server = null;
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public synchronized int getPort() {
+	if (server == null)
+	    throw new IllegalStateException("Server not started.");
+	return server.getAddress().getPort();
+    }
+
+    /**
+     * @return the lookup the server answers from
+     */
+    public WeatherLookup getWeatherLookup() {
+	return weather;
+    }
+
+    /**
+     * Sets the rate limit of each client. Every client starts again with a
+     * full bucket.
+     * 
+     * @param zipCodesPerSecond
+     *            the zip codes a client can look up per second, 0 for no
+     *            limit
+     * @param burst
+     *            the most zip codes a client can look up at once
+     */
+    public void setClientRateLimit(double zipCodesPerSecond, int burst) {
+	if (zipCodesPerSecond < 0)
+	    throw new IllegalArgumentException("Rate can not be negative.");
+	if (burst < MAX_BATCH_SIZE)
+	    throw new IllegalArgumentException("Burst must be at least "
+		    + MAX_BATCH_SIZE + ".");
+	this.clientRate = zipCodesPerSecond;
+	this.clientBurst = burst;
+	synchronized (clients) {
+	    clients.clear();
+	}
+    }
+
+    /**
+     * Sets the proxies whose X-Client-Id header names the client a request
+     * is from. The header of any other address is ignored, so clients can
+     * not get a new rate limit by sending a new name.
+     * 
+     * @param addresses
+     *            the IP addresses of the proxies, none by default
+     */
+    public void setTrustedProxies(Collection<String> addresses) {
+	this.trustedProxies = Collections.unmodifiableSet(new HashSet<String>(
+		addresses));
+    }
+
+    /**
+     * @return the number of requests received
+     */
+    public long getRequestCount() {
+	return requests.get();
+    }
+
+    /**
+     * @return the number of requests answered with 304
+     */
+    public long getNotModifiedCount() {
+	return notModified.get();
+    }
+
+    /**
+     * @return the number of requests answered with 429
+     */
+    public long getRateLimitedCount() {
+	return rateLimited.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+	requests.incrementAndGet();
+	String method = exchange.getRequestMethod();
+	if (!method.equals("GET") && !method.equals("HEAD")) {
+	    exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+	    sendError(exchange, 405, "method", "Only GET and HEAD are allowed.");
+	    return;
+	}
+
+	String path = exchange.getRequestURI().getRawPath();
+	if (path.equals("/health")) {
+	    send(exchange, 200, "{\"status\":\"ok\"}", false);
+	} else if (path.equals("/weather")) {
+	    handleBatch(exchange);
+	} else if (path.startsWith("/weather/")) {
+	    String[] parts = path.substring(9).split("/");
+	    if (parts.length > 2 || parts.length == 2
+		    && !parts[1].equals("current")
+		    && !parts[1].equals("forecast")) {
+		sendError(exchange, 404, "path", "No such path.");
+		return;
+	    }
+	    handleReport(exchange, parts[0], parts.length == 1 ? null
+		    : parts[1]);
+	} else {
+	    sendError(exchange, 404, "path", "No such path.");
+	}
+    }
+
+    private void handleReport(HttpExchange exchange, String zipCode,
+	    String part) throws IOException {
+	if (!isZipCode(zipCode)) {
+	    sendError(exchange, 400, "zip_code", "Not a zip code.");
+	    return;
+	}
+	if (!acquire(exchange, 1))
+	    return;
+
+	WeatherReport report;
+	try {
+	    report = weather.lookupReport(zipCode);
+	} catch (WeatherLookupException e) {
+	    sendError(exchange, status(e.getCategory()), e.getCategory()
+		    .name(), e.getMessage());
+	    return;
+	}
+	StringBuilder json = new StringBuilder(1024);
+	appendReport(json, zipCode, report, part);
+	send(exchange, 200, json.toString(), true);
+    }
+
+    private void handleBatch(HttpExchange exchange) throws IOException {
+	List<String> zipCodes = new ArrayList<String>();
+	String query = exchange.getRequestURI().getRawQuery();
+	if (query != null) {
+	    for (String pair : query.split("&")) {
+		if (!pair.startsWith("zip="))
+		    continue;
+		for (String zipCode : pair.substring(4).split(",|%2C|%2c")) {
+		    if (!isZipCode(zipCode)) {
+			sendError(exchange, 400, "zip_code", "Not a zip code: "
+				+ zipCode);
+			return;
+		    }
+		    zipCodes.add(zipCode);
+		}
+	    }
+	}
+	if (zipCodes.isEmpty() || zipCodes.size() > MAX_BATCH_SIZE) {
+	    sendError(exchange, 400, "zip_code", "Give from 1 to "
+		    + MAX_BATCH_SIZE + " zip codes.");
+	    return;
+	}
+	if (!acquire(exchange, zipCodes.size()))
+	    return;
+
+	// Run the batch on the request threads rather than a pool of its own
+	Map<String, WeatherLookupResult> results = weather.lookupAll(zipCodes,
+		executor);
+	StringBuilder json = new StringBuilder(1024 * results.size());
+	json.append("{\"results\":[");
+	boolean first = true;
+	for (WeatherLookupResult result : results.values()) {
+	    if (!first)
+		json.append(',');
+	    first = false;
+	    if (result.isSuccess()) {
+		appendReport(json, result.getZipCode(), result.getReport(),
+			null);
+	    } else {
+		json.append("{\"zip_code\":");
+		WeatherReportWriter.appendJson(json, result.getZipCode());
+		json.append(',');
+		appendError(json, result.getErrorCategory().name(), result
+			.getException().getMessage());
+		json.append('}');
+	    }
+	}
+	json.append("]}");
+	send(exchange, 200, json.toString(), true);
+    }
+
+    /**
+     * Takes tokens from the client's bucket, answering with 429 if it has
+     * too few.
+     * 
+     * @return true if the request may go on
+     */
+    private boolean acquire(HttpExchange exchange, int zipCodes)
+	    throws IOException {
+	double rate = clientRate;
+	if (rate == 0)
+	    return true;
+	String client = exchange.getRemoteAddress().getAddress()
+		.getHostAddress();
+	if (trustedProxies.contains(client)) {
+	    String name = exchange.getRequestHeaders().getFirst(CLIENT_HEADER);
+	    if (name != null)
+		client = client + "/" + name;
+	}
+	TokenBucket bucket;
+	synchronized (clients) {
+	    bucket = clients.get(client);
+	    if (bucket == null) {
+		bucket = new TokenBucket(rate, clientBurst);
+		clients.put(client, bucket);
+	    }
+	}
+	if (bucket.tryAcquire(zipCodes))
+	    return true;
+	rateLimited.incrementAndGet();
+	exchange.getResponseHeaders().set("Retry-After", "1");
+	sendError(exchange, 429, "rate_limit", "Too many requests from "
+		+ client + ".");
+	return false;
+    }
+
+    private static void appendReport(StringBuilder json, String zipCode,
+	    WeatherReport report, String part) {
+	json.append("{\"zip_code\":");
+	WeatherReportWriter.appendJson(json, zipCode);
+	if (part == null || part.equals("current")) {
+	    json.append(",\"current\":");
+	    appendCondition(json, report.getCurrentWeatherConditions());
+	}
+	if (part == null || part.equals("forecast")) {
+	    json.append(",\"forecast\":[");
+	    boolean first = true;
+	    for (WeatherCondition forecast : report
+		    .getFutureWeatherConditions()) {
+		if (!first)
+		    json.append(',');
+		first = false;
+		appendCondition(json, forecast);
+	    }
+	    json.append(']');
+	}
+	json.append('}');
+    }
+
+    private static void appendCondition(StringBuilder json,
+	    WeatherCondition condition) {
+	String[] values = { condition.getLocation(),
+		condition.getGeneralWeatherCondition(), condition.getTempF(),
+		condition.getTempC(), condition.getHumidity(),
+		condition.getWindCondition(), condition.getDayOfWeek(),
+		condition.getLowTemperature(), condition.getHighTemperature() };
+	json.append('{');
+	for (int i = 0; i < values.length; i++) {
+	    // The fields after zip_code and type
+	    if (i > 0)
+		json.append(',');
+	    json.append('"').append(WeatherExportFormat.FIELDS[i + 2]).append(
+		    "\":");
+	    WeatherReportWriter.appendJson(json, values[i]);
+	}
+	json.append('}');
+    }
+
+    private static void appendError(StringBuilder json, String category,
+	    String message) {
+	json.append("\"error\":{\"category\":");
+	WeatherReportWriter.appendJson(json, category);
+	json.append(",\"message\":");
+	WeatherReportWriter.appendJson(json, message);
+	json.append('}');
+    }
+
+    private void sendError(HttpExchange exchange, int status,
+	    String category, String message) throws IOException {
+	StringBuilder json = new StringBuilder(128).append('{');
+	appendError(json, category, message);
+	send(exchange, status, json.append('}').toString(), false);
+    }
+
+    /**
+     * Sends a JSON body, or 304 if it has an ETag the client already has.
+     */
+    private void send(HttpExchange exchange, int status, String json,
+	    boolean tagged) throws IOException {
+	byte[] body = json.getBytes(StandardCharsets.UTF_8);
+	Headers headers = exchange.getResponseHeaders();
+	headers.set("Content-Type", JSON);
+	if (tagged) {
+	    String etag = etag(body);
+	    headers.set("ETag", etag);
+	    headers.set("Cache-Control", "no-cache");
+	    if (matches(exchange.getRequestHeaders().getFirst("If-None-Match"),
+		    etag)) {
+		notModified.incrementAndGet();
+		headers.remove("Content-Type");
+		exchange.sendResponseHeaders(304, -1);
+		return;
+	    }
+	}
+	if (exchange.getRequestMethod().equals("HEAD")) {
+	    exchange.sendResponseHeaders(status, -1);
+	    return;
+	}
+	exchange.sendResponseHeaders(status, body.length);
+	OutputStream out = exchange.getResponseBody();
+	out.write(body);
+    }
+
+    private static String etag(byte[] body) {
+	CRC32C crc = new CRC32C();
+	crc.update(body);
+	return "\"" + Long.toHexString(crc.getValue()) + "-"
+		+ Integer.toHexString(body.length) + "\"";
+    }
+
+    /**
+     * Checks an If-None-Match header, which may list several tags.
+     */
+    private static boolean matches(String ifNoneMatch, String etag) {
+	if (ifNoneMatch == null)
+	    return false;
+	for (String tag : ifNoneMatch.split(",")) {
+	    tag = tag.trim();
+	    if (tag.startsWith("W/"))
+		tag = tag.substring(2);
+	    if (tag.equals("*") || tag.equals(etag))
+		return true;
+	}
+	return false;
+    }
+
+    /**
+     * Accepts letters, digits and dashes, which covers zip codes and the
+     * location codes the feeds take, and keeps anything else out of the feed
+     * URLs.
+     */
+    private static boolean isZipCode(String zipCode) {
+	if (zipCode.isEmpty() || zipCode.length() > 16)
+	    return false;
+	for (int i = 0; i < zipCode.length(); i++) {
+	    char c = zipCode.charAt(i);
+	    if (!(c >= '0' && c <= '9' || c >= 'A' && c <= 'Z' || c >= 'a'
+		    && c <= 'z' || c == '-'))
+		return false;
+	}
+	return true;
+    }
+
+    private static int status(WeatherLookupException.Category category) {
+	switch (category) {
+	case BAD_KEY:
+	    return 404;
+	case NETWORK:
+	case PARSE:
+	case EMPTY_PAYLOAD:
+	    return 502;
+	case TIMEOUT:
+	    return 504;
+	default:
+	    return 500;
+	}
+    }
+
+    /**
+     * Makes a virtual thread per request executor if the JDK has one, and a
+     * fixed pool otherwise.
+     */
+    private static ExecutorService newExecutor() {
+	try {
+	    return (ExecutorService) Executors.class.getMethod(
+		    "newVirtualThreadPerTaskExecutor").invoke(null);
+	} catch (ReflectiveOperationException e) {
+	    return Executors.newFixedThreadPool(DEFAULT_THREADS, runnable -> {
+		Thread thread = new Thread(runnable, "weather-server");
+		thread.setDaemon(true);
+		return thread;
+	    });
+	}
+    }
+
+    /**
+     * Runs a server until the process is stopped.
+     * 
+     * @param args
+     *            the port and the lookup service, both optional
+     * @throws IOException
+     *             if the port can not be bound
+     */
+    public static void main(String[] args) throws IOException {
+	if (System.getProperty("sun.net.httpserver.nodelay") == null)
+	    System.setProperty("sun.net.httpserver.nodelay", "true");
+	long start = System.nanoTime();
+	int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+	WeatherLookup weather = args.length > 1 ? new WeatherLookup(
+		WeatherLookupService.valueOf(args[1])) : new WeatherLookup();
+	WeatherServer server = new WeatherServer(weather, port);
+	server.start();
+	System.out.printf("Serving weather on port %d, started in %d ms%n",
+		server.getPort(), (System.nanoTime() - start) / 1000000);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,429 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.DayOfWeek;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes the binary snapshot files of WeatherCache.
+ * <p>
+ * A snapshot starts with a header: the magic number, the format version, a
+ * table of the provider names and general weather conditions used in the
+ * file, and the number of entries. Each entry is a string table index for
+ * the provider, the zip code, the time the report was fetched, the current
+ * conditions and the forecasts. A condition is stored as its numbers, with
+ * the general weather condition as a string table index. Strings are a
+ * length followed by UTF-8 bytes, with a length of -1 for null.
+ * <p>
+ * Snapshots are read through a memory mapped buffer, so loading a large
+ * snapshot does not copy the file through the heap first. Single reports
+ * are encoded the same way to send them between cluster nodes.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+final class WeatherSnapshot {
+
+    /**
+     * "WLS1", marks a snapshot file.
+     */
+    private static final int MAGIC = 0x574C5331;
+
+    /**
+     * The version of the format written.
+     */
+    private static final short VERSION = 1;
+
+    /**
+     * Set in the flags of a condition that has its text stored as well.
+     */
+    private static final byte FLAG_TEXT = 1;
+
+    /**
+     * The number of text fields of a condition.
+     */
+    private static final int TEXT_FIELDS = 9;
+
+    private static final CompassDirection[] directions = CompassDirection
+	    .values();
+
+    private WeatherSnapshot() {
+    }
+
+    /**
+     * Writes every report in a cache to a file.
+     * 
+     * @param cache
+     *            the cache
+     * @param file
+     *            the snapshot file
+     * @return the number of reports written
+     * @throws IOException
+     */
+    static int write(WeatherCache cache, File file) throws IOException {
+	// Copy the reports out first so the string table can be built
+	final List<Object[]> entries = new ArrayList<Object[]>();
+	final StringTable table = new StringTable();
+	cache.forEach((provider, zipCode, report, loadedAt) -> {
+	    entries.add(new Object[] { provider, zipCode, report, loadedAt });
+	    table.add(provider);
+	    table.addConditions(report);
+	});
+
+	Output out = new Output();
+	out.buffer.putInt(MAGIC);
+	out.buffer.putShort(VERSION);
+	out.putInt(table.strings.size());
+	for (String string : table.strings)
+	    out.putString(string);
+	out.putInt(entries.size());
+	for (Object[] entry : entries) {
+	    WeatherReport report = (WeatherReport) entry[2];
+	    out.putInt(table.index((String) entry[0]));
+	    out.putString((String) entry[1]);
+	    out.putLong((Long) entry[3]);
+	    writeReport(out, table, report);
+	}
+
+	// Write next to the file and move it into place in one step
+	File temp = new File(file.getPath() + ".tmp");
+	FileChannel channel = FileChannel.open(temp.toPath(),
+		StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+		StandardOpenOption.TRUNCATE_EXISTING);
+	try {
+	    out.buffer.flip();
+	    while (out.buffer.hasRemaining())
+		channel.write(out.buffer);
+	    channel.force(true);
+	} finally {
+	    channel.close();
+	}
+	Files.move(temp.toPath(), file.toPath(),
+		StandardCopyOption.REPLACE_EXISTING,
+		StandardCopyOption.ATOMIC_MOVE);
+	return entries.size();
+    }
+
+    /**
+     * Reads the reports in a file into a cache.
+     * 
+     * @param file
+     *            the snapshot file
+     * @param cache
+     *            the cache
+     * @return the number of reports added to the cache
+     * @throws IOException
+     */
+    static int read(File file, WeatherCache cache) throws IOException {
+	MappedByteBuffer buffer;
+	FileChannel channel = FileChannel.open(file.toPath(),
+		StandardOpenOption.READ);
+	try {
+	    buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel
+		    .size());
+	} finally {
+	    // The mapping stays valid after the channel is closed
+	    channel.close();
+	}
+
+	try {
+	    if (buffer.getInt() != MAGIC)
+		throw new IOException(file + " is not a weather snapshot.");
+	    short version = buffer.getShort();
+	    if (version != VERSION)
+		throw new IOException("Unsupported snapshot version "
+			+ version + ".");
+
+	    String[] strings = getStrings(buffer);
+
+	    int count = buffer.getInt();
+	    int loaded = 0;
+	    for (int i = 0; i < count; i++) {
+		String provider = strings[buffer.getInt()];
+		String zipCode = getString(buffer);
+		if (provider == null || zipCode == null)
+		    throw new IOException(file + " is corrupt.");
+		long loadedAt = buffer.getLong();
+		if (cache.restore(provider, zipCode, readReport(buffer,
+			strings, file.toString()), loadedAt))
+		    loaded++;
+	    }
+	    return loaded;
+	} catch (BufferUnderflowException e) {
+	    throw new IOException(file + " is truncated.");
+	} catch (IndexOutOfBoundsException e) {
+	    throw new IOException(file + " is corrupt.");
+	}
+    }
+
+    /**
+     * Encodes one report the way a snapshot stores it, preceded by a string
+     * table of its own. Used to send reports between cluster nodes.
+     * 
+     * @param report
+     *            the report
+     * @return the encoded report
+     */
+    static byte[] encode(WeatherReport report) {
+	StringTable table = new StringTable();
+	table.addConditions(report);
+	Output out = new Output(256);
+	out.putInt(table.strings.size());
+	for (String string : table.strings)
+	    out.putString(string);
+	writeReport(out, table, report);
+	return Arrays.copyOf(out.buffer.array(), out.buffer.position());
+    }
+
+    /**
+     * Decodes a report written by encode().
+     * 
+     * @param buffer
+     *            the encoded report, read from its position
+     * @return the report
+     * @throws IOException
+     *             if the report is truncated or corrupt
+     */
+    static WeatherReport decode(ByteBuffer buffer) throws IOException {
+	try {
+	    String[] strings = getStrings(buffer);
+	    return readReport(buffer, strings, "Encoded report");
+	} catch (BufferUnderflowException e) {
+	    throw new IOException("Encoded report is truncated.");
+	} catch (IndexOutOfBoundsException e) {
+	    throw new IOException("Encoded report is corrupt.");
+	}
+    }
+
+    private static void writeReport(Output out, StringTable table,
+	    WeatherReport report) {
+	writeCondition(out, table, report.getCompactCurrentWeatherConditions());
+	List<CompactWeatherCondition> forecasts = report
+		.getCompactFutureWeatherConditions();
+	out.putShort((short) forecasts.size());
+	for (CompactWeatherCondition forecast : forecasts)
+	    writeCondition(out, table, forecast);
+    }
+
+    /**
+     * Reads a report, checking every value that is not simply a number.
+     * 
+     * @param name
+     *            the name of what is read, for the message of a corrupt one
+     * @throws IOException
+     *             if a value is out of range
+     */
+    private static WeatherReport readReport(ByteBuffer buffer,
+	    String[] strings, String name) throws IOException {
+	CompactWeatherCondition current = readCondition(buffer, strings, name);
+	short count = buffer.getShort();
+	if (count < 0)
+	    throw new IOException(name + " is corrupt.");
+	CompactWeatherCondition[] forecasts = new CompactWeatherCondition[count];
+	for (int j = 0; j < forecasts.length; j++)
+	    forecasts[j] = readCondition(buffer, strings, name);
+	return new WeatherReport(current, forecasts);
+    }
+
+    private static void writeCondition(Output out, StringTable table,
+	    CompactWeatherCondition condition) {
+	String[] text = condition.getText();
+	out.putByte(text == null ? 0 : FLAG_TEXT);
+	out.putString(condition.getLocation());
+	out.putInt(table.index(condition.getGeneralWeatherCondition()));
+	out.putInt(condition.getTempF());
+	out.putInt(condition.getTempC());
+	out.putByte((byte) (condition.getHumidity() == CompactWeatherCondition.MISSING ? -1
+		: condition.getHumidity()));
+	out.putByte((byte) (condition.getWindDirection() == null ? -1
+		: condition.getWindDirection().ordinal()));
+	out.putInt(condition.getWindSpeed());
+	out.putByte((byte) (condition.getDayOfWeek() == null ? 0 : condition
+		.getDayOfWeek().getValue()));
+	out.putInt(condition.getLowTemperature());
+	out.putInt(condition.getHighTemperature());
+	if (text != null) {
+	    for (String field : text)
+		out.putString(field);
+	}
+    }
+
+    private static CompactWeatherCondition readCondition(ByteBuffer buffer,
+	    String[] strings, String name) throws IOException {
+	byte flags = buffer.get();
+	String location = getString(buffer);
+	int conditionIndex = buffer.getInt();
+	int tempF = buffer.getInt();
+	int tempC = buffer.getInt();
+	byte humidity = buffer.get();
+	byte direction = buffer.get();
+	int windSpeed = buffer.getInt();
+	byte day = buffer.get();
+	int low = buffer.getInt();
+	int high = buffer.getInt();
+	if (direction < -1 || direction >= directions.length || day < 0
+		|| day > 7 || conditionIndex < -1
+		|| conditionIndex >= strings.length)
+	    throw new IOException(name + " is corrupt.");
+	String[] text = null;
+	if ((flags & FLAG_TEXT) != 0) {
+	    text = new String[TEXT_FIELDS];
+	    for (int i = 0; i < TEXT_FIELDS; i++)
+		text[i] = getString(buffer);
+	}
+
+	return CompactWeatherCondition.of(location,
+		conditionIndex < 0 ? null : strings[conditionIndex], tempF,
+		tempC, humidity < 0 ? CompactWeatherCondition.MISSING
+			: humidity, direction < 0 ? null
+			: directions[direction], windSpeed, day == 0 ? null
+			: DayOfWeek.of(day), low, high, text);
+    }
+
+    /**
+     * Reads a string table, without trusting its count. Every string takes
+     * at least its two byte length, so a count the rest of the buffer can not
+     * hold means the buffer is truncated.
+     */
+    private static String[] getStrings(ByteBuffer buffer) {
+	int count = buffer.getInt();
+	if (count < 0 || count > buffer.remaining() / 2)
+	    throw new BufferUnderflowException();
+	String[] strings = new String[count];
+	for (int i = 0; i < count; i++)
+	    strings[i] = getString(buffer);
+	return strings;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+	short length = buffer.getShort();
+	if (length < 0)
+	    return null;
+	byte[] bytes = new byte[length];
+	buffer.get(bytes);
+	return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The distinct strings of a snapshot, in the order they were added.
+     */
+    private static final class StringTable {
+	final List<String> strings = new ArrayList<String>();
+	final Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+	void add(String string) {
+	    if (string != null && !indexes.containsKey(string)) {
+		indexes.put(string, strings.size());
+		strings.add(string);
+	    }
+	}
+
+	void addConditions(WeatherReport report) {
+	    add(report.getCompactCurrentWeatherConditions()
+		    .getGeneralWeatherCondition());
+	    for (CompactWeatherCondition forecast : report
+		    .getCompactFutureWeatherConditions()) {
+		add(forecast.getGeneralWeatherCondition());
+	    }
+	}
+
+	int index(String string) {
+	    return string == null ? -1 : indexes.get(string);
+	}
+    }
+
+    /**
+     * A growable buffer to build a snapshot in.
+     */
+    private static final class Output {
+	ByteBuffer buffer;
+
+	Output() {
+	    this(64 * 1024);
+	}
+
+	Output(int capacity) {
+	    buffer = ByteBuffer.allocate(capacity);
+	}
+
+	void ensure(int bytes) {
+	    if (buffer.remaining() < bytes) {
+		int capacity = Math.max(buffer.capacity() * 2,
+			buffer.position() + bytes);
+		ByteBuffer bigger = ByteBuffer.allocate(capacity);
+		buffer.flip();
+		bigger.put(buffer);
+		buffer = bigger;
+	    }
+	}
+
+	void putByte(byte value) {
+	    ensure(1);
+	    buffer.put(value);
+	}
+
+	void putShort(short value) {
+	    ensure(2);
+	    buffer.putShort(value);
+	}
+
+	void putInt(int value) {
+	    ensure(4);
+	    buffer.putInt(value);
+	}
+
+	void putLong(long value) {
+	    ensure(8);
+	    buffer.putLong(value);
+	}
+
+	void putString(String value) {
+	    if (value == null) {
+		putShort((short) -1);
+		return;
+	    }
+	    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+	    if (bytes.length > Short.MAX_VALUE)
+		throw new IllegalArgumentException("String too long: "
+			+ value.length());
+	    putShort((short) bytes.length);
+	    ensure(bytes.length);
+	    buffer.put(bytes);
+	}
+    }
+}
\ No newline at end of file
@@ -0,0 +1,747 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPInputStream;
+
+import com.joshwalters.weather.WeatherLookupException.Category;
+
+/**
+ * Fetches weather feeds for every provider. HTTP feeds go through shared
+ * clients that keep their connections open between lookups, ask for gzip
+ * compressed responses, and send conditional requests so a feed that has not
+ * changed is answered with 304 Not Modified and the last report is reused.
+ * Feeds that are not served over HTTP, such as file: URLs, are read directly.
+ * <p>
+ * The read timeout of a fetch covers the whole response, its headers and its
+ * body, so a server that stops sending part way through the body can not hold
+ * a lookup forever.
+ * <p>
+ * A transport is thread safe and is normally shared by every WeatherLookup;
+ * see getDefault(). Timings and errors of every fetch are reported to its
+ * WeatherMetricsListener.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public class WeatherTransport {
+
+    /**
+     * The default number of feeds to remember for conditional requests.
+     */
+    public static final int DEFAULT_MAXIMUM_VALIDATORS = 10000;
+
+    /**
+     * The transport shared by WeatherLookup instances that are not given one.
+     */
+    private static final WeatherTransport defaultTransport = new WeatherTransport();
+
+    /**
+     * Stores the HTTP clients by connect timeout. Each client keeps its own
+     * pool of connections.
+     */
+    private final ConcurrentHashMap<Integer, HttpClient> clients = new ConcurrentHashMap<Integer, HttpClient>();
+
+    /**
+     * Stores the validators and last report of each feed, in least recently
+     * used order. Guarded by itself.
+     */
+    private final LinkedHashMap<String, Validator> validators;
+
+    /**
+     * Stores whether to ask for compressed responses.
+     */
+    private volatile boolean compression = true;
+
+    /**
+     * Stores whether to send conditional requests.
+     */
+    private volatile boolean conditionalRequests = true;
+
+    /**
+     * Receives the timings and errors of every fetch.
+     */
+    private volatile WeatherMetricsListener metricsListener = WeatherMetricsListener.NONE;
+
+    /**
+     * Makes a transport that remembers the default number of feeds.
+     */
+    public WeatherTransport() {
+	this(DEFAULT_MAXIMUM_VALIDATORS);
+    }
+
+    /**
+     * Makes a transport.
+     * 
+     * @param maximumValidators
+     *            the number of feeds to remember for conditional requests
+     */
+    public WeatherTransport(final int maximumValidators) {
+	if (maximumValidators < 0)
+	    throw new IllegalArgumentException(
+		    "Maximum validators can not be negative.");
+	this.validators = new LinkedHashMap<String, Validator>(16, 0.75f, true) {
+	    private static final long serialVersionUID = 1L;
+
+	    @Override
+	    protected boolean removeEldestEntry(
+		    Map.Entry<String, Validator> eldest) {
+		return size() > maximumValidators;
+	    }
+	};
+    }
+
+    /**
+     * @return the transport shared by WeatherLookup instances that are not
+     *         given one
+     */
+    public static WeatherTransport getDefault() {
+	return defaultTransport;
+    }
+
+    /**
+     * @return true if compressed responses are asked for
+     */
+    public boolean isCompression() {
+	return compression;
+    }
+
+    /**
+     * Sets whether to ask for gzip compressed responses. On by default.
+     * 
+     * @param compression
+     *            true to ask for compressed responses
+     */
+    public void setCompression(boolean compression) {
+	this.compression = compression;
+    }
+
+    /**
+     * @return true if conditional requests are sent
+     */
+    public boolean isConditionalRequests() {
+	return conditionalRequests;
+    }
+
+    /**
+     * Sets whether to send If-None-Match and If-Modified-Since with each
+     * request, reusing the last report when the feed has not changed. On by
+     * default.
+     * 
+     * @param conditionalRequests
+     *            true to send conditional requests
+     */
+    public void setConditionalRequests(boolean conditionalRequests) {
+	this.conditionalRequests = conditionalRequests;
+	if (!conditionalRequests) {
+	    synchronized (validators) {
+		validators.clear();
+	    }
+	}
+    }
+
+    /**
+     * @return the listener that receives timings and errors
+     */
+    public WeatherMetricsListener getMetricsListener() {
+	return metricsListener;
+    }
+
+    /**
+     * Sets the listener that receives the timings and errors of every fetch.
+     * 
+     * @param metricsListener
+     *            the listener, or null for none
+     */
+    public void setMetricsListener(WeatherMetricsListener metricsListener) {
+	this.metricsListener = metricsListener == null ? WeatherMetricsListener.NONE
+		: metricsListener;
+    }
+
+    /**
+     * Fetches and parses the feed for a zip code, blocking until it arrives.
+     * 
+     * @param provider
+     *            the provider
+     * @param zipCode
+     *            Zip code
+     * @param parserType
+     *            the way to parse the feed
+     * @param connectTimeout
+     *            the time to wait for a connection in milliseconds, 0 to wait
+     *            forever
+     * @param readTimeout
+     *            the time to wait for the whole response in milliseconds, 0
+     *            to wait forever
+     * @return the report
+     * @throws WeatherLookupException
+     */
+    public WeatherReport fetch(WeatherProvider provider, String zipCode,
+	    WeatherParserType parserType, int connectTimeout, int readTimeout)
+	    throws WeatherLookupException {
+	try {
+	    return fetchReport(provider, zipCode, parserType, connectTimeout,
+		    readTimeout);
+	} catch (WeatherLookupException e) {
+	    throw e.withStackTrace();
+	}
+    }
+
+    /**
+     * Fetches and parses the feed for a zip code, blocking until it arrives.
+     * Failures are thrown without a stack trace.
+     * 
+     * @see #fetch(WeatherProvider, String, WeatherParserType, int, int)
+     */
+    WeatherReport fetchReport(WeatherProvider provider, String zipCode,
+	    WeatherParserType parserType, int connectTimeout, int readTimeout)
+	    throws WeatherLookupException {
+	WeatherMetricsListener metrics = metricsListener;
+	long start = System.nanoTime();
+	try {
+	    WeatherReport report = fetch(provider, zipCode, parserType,
+		    connectTimeout, readTimeout, metrics, start);
+	    metrics.completed(provider.getName(), System.nanoTime() - start);
+	    return report;
+	} catch (WeatherLookupException e) {
+	    metrics.failed(provider.getName(), System.nanoTime() - start, e);
+	    throw e;
+	} catch (RuntimeException e) {
+	    metrics.failed(provider.getName(), System.nanoTime() - start, e);
+	    throw e;
+	}
+    }
+
+    private WeatherReport fetch(WeatherProvider provider, String zipCode,
+	    WeatherParserType parserType, int connectTimeout, int readTimeout,
+	    WeatherMetricsListener metrics, long start)
+	    throws WeatherLookupException {
+	URL url = provider.getFeedUrl(zipCode);
+	if (!isHttp(url))
+	    return fetchDirect(provider, url, parserType, connectTimeout,
+		    readTimeout, metrics, start);
+
+	String key = url.toString();
+	Validator validator = validator(key);
+	HttpResponse<InputStream> response;
+	try {
+	    response = client(connectTimeout).send(
+		    request(url, validator, readTimeout),
+		    HttpResponse.BodyHandlers.ofInputStream());
+	} catch (IOException e) {
+	    throw WeatherLookupException.fromIOException(e);
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw WeatherLookupException.withoutStackTrace(
+		    Category.INTERRUPTED, "Lookup interrupted.");
+	}
+
+	// The timeout of the request only covers the headers, so close the
+	// body if it is still being read when the read timeout runs out
+	MeteredInputStream in = new MeteredInputStream(response.body());
+	Deadline deadline = readTimeout > 0 ? new Deadline(in, start
+		+ TimeUnit.MILLISECONDS.toNanos(readTimeout)) : null;
+	try {
+	    if (response.statusCode() == 304 && validator != null) {
+		metrics.fetched(provider.getName(), System.nanoTime() - start,
+			0);
+		return validator.report;
+	    }
+	    checkStatus(response);
+	    WeatherReport report;
+	    try {
+		report = parse(provider, response, in, parserType, metrics,
+			start);
+	    } catch (WeatherLookupException e) {
+		// A closed body fails however the parser sees it
+		if (deadline != null && deadline.expired)
+		    throw Deadline.timedOut();
+		throw e;
+	    }
+	    if (deadline != null && deadline.expired)
+		throw Deadline.timedOut();
+	    remember(key, response, report);
+	    return report;
+	} finally {
+	    if (deadline != null)
+		deadline.cancel();
+	    closeQuietly(in);
+	}
+    }
+
+    /**
+     * Fetches and parses the feed for a zip code without blocking the calling
+     * thread. HTTP feeds are fetched with a non-blocking client and parsed on
+     * the executor, other feeds are fetched and parsed on the executor.
+     * 
+     * @param provider
+     *            the provider
+     * @param zipCode
+     *            Zip code
+     * @param parserType
+     *            the way to parse the feed
+     * @param connectTimeout
+     *            the time to wait for a connection in milliseconds, 0 to wait
+     *            forever
+     * @param readTimeout
+     *            the time to wait for the whole response in milliseconds, 0
+     *            to wait forever
+     * @param executor
+     *            runs the parsing and any blocking fetch
+     * @return a future that completes with the report, or completes
+     *         exceptionally with a WeatherLookupException; cancelling it
+     *         cancels the HTTP exchange
+     */
+    public CompletableFuture<WeatherReport> fetchAsync(
+	    final WeatherProvider provider, final String zipCode,
+	    final WeatherParserType parserType, final int connectTimeout,
+	    final int readTimeout, Executor executor) {
+	final CompletableFuture<WeatherReport> result = new CompletableFuture<WeatherReport>();
+	final WeatherMetricsListener metrics = metricsListener;
+	final long start = System.nanoTime();
+	result.whenComplete((report, error) -> {
+	    if (error == null)
+		metrics.completed(provider.getName(), System.nanoTime() - start);
+	    else if (!(error instanceof CancellationException))
+		metrics.failed(provider.getName(), System.nanoTime() - start,
+			error);
+	});
+
+	final URL url;
+	try {
+	    url = provider.getFeedUrl(zipCode);
+	} catch (WeatherLookupException e) {
+	    result.completeExceptionally(e);
+	    return result;
+	}
+
+	if (!isHttp(url)) {
+	    // Not HTTP, so do the blocking fetch on the executor
+	    executor.execute(() -> {
+		try {
+		    result.complete(fetchDirect(provider, url, parserType,
+			    connectTimeout, readTimeout, metrics, start));
+		} catch (WeatherLookupException e) {
+		    result.completeExceptionally(e);
+		} catch (RuntimeException e) {
+		    result.completeExceptionally(e);
+		}
+	    });
+	    return result;
+	}
+
+	final String key = url.toString();
+	final Validator validator = validator(key);
+	HttpRequest request;
+	try {
+	    request = request(url, validator, readTimeout);
+	} catch (WeatherLookupException e) {
+	    result.completeExceptionally(e);
+	    return result;
+	}
+
+	final CompletableFuture<HttpResponse<byte[]>> sent = client(
+		connectTimeout).sendAsync(request,
+		HttpResponse.BodyHandlers.ofByteArray());
+	// The timeout of the request only covers the headers, so give up on
+	// the exchange if the body has not arrived when the read timeout runs
+	// out
+	CompletableFuture<HttpResponse<byte[]>> received = sent;
+	if (readTimeout > 0)
+	    received = sent.copy().orTimeout(readTimeout,
+		    TimeUnit.MILLISECONDS);
+	received.whenCompleteAsync(
+		(response, error) -> {
+		    try {
+			if (error != null) {
+			    if (error instanceof CompletionException)
+				error = error.getCause();
+			    if (error instanceof TimeoutException) {
+				sent.cancel(true);
+				throw Deadline.timedOut();
+			    }
+			    if (error instanceof IOException)
+				throw WeatherLookupException
+					.fromIOException((IOException) error);
+			    throw WeatherLookupException.withoutStackTrace(
+				    Category.NETWORK, error);
+			}
+			if (response.statusCode() == 304 && validator != null) {
+			    metrics.fetched(provider.getName(),
+				    System.nanoTime() - start, 0);
+			    result.complete(validator.report);
+			    return;
+			}
+			checkStatus(response);
+			WeatherReport report = parse(provider, response,
+				new MeteredInputStream(new ByteArrayInputStream(
+					response.body())), parserType,
+				metrics, start);
+			remember(key, response, report);
+			result.complete(report);
+		    } catch (WeatherLookupException e) {
+			result.completeExceptionally(e);
+		    } catch (RuntimeException e) {
+			result.completeExceptionally(e);
+		    }
+		}, executor);
+
+	// Cancelling the result, as a hedged lookup does, ends the exchange
+	result.whenComplete((report, error) -> {
+	    if (result.isCancelled())
+		sent.cancel(true);
+	});
+	return result;
+    }
+
+    /**
+     * Reads a feed that is not served over HTTP.
+     */
+    private static WeatherReport fetchDirect(WeatherProvider provider,
+	    URL url, WeatherParserType parserType, int connectTimeout,
+	    int readTimeout, WeatherMetricsListener metrics, long start)
+	    throws WeatherLookupException {
+	MeteredInputStream in;
+	try {
+	    URLConnection connection = url.openConnection();
+	    connection.setConnectTimeout(connectTimeout);
+	    connection.setReadTimeout(readTimeout);
+	    in = new MeteredInputStream(connection.getInputStream());
+	} catch (IOException e) {
+	    throw WeatherLookupException.fromIOException(e);
+	}
+	try {
+	    return parse(provider, null, in, parserType, metrics, start);
+	} finally {
+	    closeQuietly(in);
+	}
+    }
+
+    /**
+     * Parses a feed, reporting the time spent reading it and the time spent
+     * parsing it separately. Reading starts at the start of the fetch and
+     * includes any time the parser spends waiting for more of the feed.
+     * 
+     * @param provider
+     *            the provider
+     * @param response
+     *            the HTTP response, or null if the feed is not from HTTP
+     * @param in
+     *            the body of the feed
+     * @param parserType
+     *            the way to parse the feed
+     * @param metrics
+     *            receives the timings
+     * @param start
+     *            the start of the fetch, from System.nanoTime()
+     * @return the report
+     * @throws WeatherLookupException
+     */
+    private static WeatherReport parse(WeatherProvider provider,
+	    HttpResponse<?> response, MeteredInputStream in,
+	    WeatherParserType parserType, WeatherMetricsListener metrics,
+	    long start) throws WeatherLookupException {
+	long parseStart = System.nanoTime();
+	boolean parsed = false;
+	try {
+	    WeatherReport report = provider.parse(response == null ? in
+		    : decode(response, in), parserType);
+	    parsed = true;
+	    return report;
+	} finally {
+	    long now = System.nanoTime();
+	    metrics.fetched(provider.getName(), parseStart - start
+		    + in.readNanos, in.bytes);
+	    if (parsed)
+		metrics.parsed(provider.getName(), now - parseStart
+			- in.readNanos);
+	}
+    }
+
+    private static boolean isHttp(URL url) {
+	String protocol = url.getProtocol();
+	return protocol.equals("http") || protocol.equals("https");
+    }
+
+    /**
+     * Builds the request for a feed.
+     * 
+     * @param url
+     *            the URL of the feed
+     * @param validator
+     *            the validators from the last response, or null
+     * @param readTimeout
+     *            the time to wait for the response in milliseconds
+     * @return the request
+     * @throws WeatherLookupException
+     */
+    private HttpRequest request(URL url, Validator validator, int readTimeout)
+	    throws WeatherLookupException {
+	HttpRequest.Builder builder;
+	try {
+	    builder = HttpRequest.newBuilder(url.toURI()).GET();
+	} catch (URISyntaxException e) {
+	    throw WeatherLookupException.withoutStackTrace(Category.BAD_KEY, e);
+	} catch (IllegalArgumentException e) {
+	    throw WeatherLookupException.withoutStackTrace(Category.BAD_KEY, e);
+	}
+	if (readTimeout > 0)
+	    builder.timeout(Duration.ofMillis(readTimeout));
+	if (compression)
+	    builder.header("Accept-Encoding", "gzip");
+	if (validator != null) {
+	    if (validator.etag != null)
+		builder.header("If-None-Match", validator.etag);
+	    if (validator.lastModified != null)
+		builder.header("If-Modified-Since", validator.lastModified);
+	}
+	return builder.build();
+    }
+
+    /**
+     * Gets the shared client for a connect timeout.
+     * 
+     * @param connectTimeout
+     *            the timeout in milliseconds, 0 to wait forever
+     * @return the client
+     */
+    private HttpClient client(int connectTimeout) {
+	HttpClient client = clients.get(connectTimeout);
+	if (client == null) {
+	    HttpClient.Builder builder = HttpClient.newBuilder()
+		    .version(HttpClient.Version.HTTP_1_1)
+		    .followRedirects(HttpClient.Redirect.NORMAL);
+	    if (connectTimeout > 0)
+		builder.connectTimeout(Duration.ofMillis(connectTimeout));
+	    client = builder.build();
+	    HttpClient existing = clients.putIfAbsent(connectTimeout, client);
+	    if (existing != null)
+		client = existing;
+	}
+	return client;
+    }
+
+    private static void checkStatus(HttpResponse<?> response)
+	    throws WeatherLookupException {
+	int status = response.statusCode();
+	if (status != 200) {
+	    // Client errors other than timeouts and throttling will not go
+	    // away by asking again
+	    Category category = Category.NETWORK;
+	    if (status == 408)
+		category = Category.TIMEOUT;
+	    else if (status >= 400 && status < 500 && status != 429)
+		category = Category.BAD_KEY;
+	    throw WeatherLookupException.withoutStackTrace(category,
+		    "Lookup failed. HTTP status " + status + ".");
+	}
+    }
+
+    /**
+     * Undoes any compression of a response body.
+     */
+    private static InputStream decode(HttpResponse<?> response, InputStream in)
+	    throws WeatherLookupException {
+	String encoding = response.headers().firstValue("Content-Encoding")
+		.orElse("");
+	if (!encoding.equalsIgnoreCase("gzip"))
+	    return in;
+	try {
+	    return new GZIPInputStream(in);
+	} catch (IOException e) {
+	    throw WeatherLookupException.fromIOException(e);
+	}
+    }
+
+    private Validator validator(String key) {
+	if (!conditionalRequests)
+	    return null;
+	synchronized (validators) {
+	    return validators.get(key);
+	}
+    }
+
+    /**
+     * Stores the validators of a response, if it has any, with its report.
+     */
+    private void remember(String key, HttpResponse<?> response,
+	    WeatherReport report) {
+	if (!conditionalRequests)
+	    return;
+	String etag = response.headers().firstValue("ETag").orElse(null);
+	String lastModified = response.headers().firstValue("Last-Modified")
+		.orElse(null);
+	synchronized (validators) {
+	    if (etag == null && lastModified == null)
+		validators.remove(key);
+	    else
+		validators.put(key, new Validator(etag, lastModified, report));
+	}
+    }
+
+    private static void closeQuietly(InputStream in) {
+	try {
+	    in.close();
+	} catch (IOException e) {
+	    // Nothing more can be done with the stream
+	}
+    }
+
+    /**
+     * Counts the bytes read from a stream and the time spent reading them.
+     * Only used by one thread at a time.
+     */
+    private static final class MeteredInputStream extends FilterInputStream {
+	long bytes;
+	long readNanos;
+
+	MeteredInputStream(InputStream in) {
+	    super(in);
+	}
+
+	@Override
+	public int read() throws IOException {
+	    long start = System.nanoTime();
+	    int b = in.read();
+	    readNanos += System.nanoTime() - start;
+	    if (b >= 0)
+		bytes++;
+	    return b;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length)
+		throws IOException {
+	    long start = System.nanoTime();
+	    int n = in.read(buffer, offset, length);
+	    readNanos += System.nanoTime() - start;
+	    if (n > 0)
+		bytes += n;
+	    return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+	    long skipped = in.skip(n);
+	    bytes += skipped;
+	    return skipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+	    return false;
+	}
+    }
+
+    /**
+     * Closes the body of a response when the read timeout of its fetch runs
+     * out. A reader blocked on the body then sees it end, and the fetch fails
+     * with a TIMEOUT once expired is set.
+     */
+    private static final class Deadline implements Runnable {
+	/**
+	 * Runs the deadlines of every transport. Cancelled deadlines are
+	 * removed at once, as nearly all of them are.
+	 */
+	private static final ScheduledThreadPoolExecutor timer = newTimer();
+
+	private final InputStream in;
+	private final ScheduledFuture<?> task;
+	volatile boolean expired;
+
+	/**
+	 * @param in
+	 *            the body to close
+	 * @param end
+	 *            the time to close it, from System.nanoTime()
+	 */
+	Deadline(InputStream in, long end) {
+	    this.in = in;
+	    this.task = timer.schedule(this, end - System.nanoTime(),
+		    TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void run() {
+	    expired = true;
+	    closeQuietly(in);
+	}
+
+	void cancel() {
+	    task.cancel(false);
+	}
+
+	static WeatherLookupException timedOut() {
+	    return WeatherLookupException.withoutStackTrace(Category.TIMEOUT,
+		    "Lookup timed out reading the feed.");
+	}
+
+	private static ScheduledThreadPoolExecutor newTimer() {
+	    ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(
+		    1, runnable -> {
+			Thread thread = new Thread(runnable, "weather-deadline");
+			thread.setDaemon(true);
+			return thread;
+		    });
+	    timer.setRemoveOnCancelPolicy(true);
+	    return timer;
+	}
+    }
+
+    /**
+     * The validators of the last response for a feed, and its report.
+     */
+    private static final class Validator {
+	final String etag;
+	final String lastModified;
+	final WeatherReport report;
+
+	Validator(String etag, String lastModified, WeatherReport report) {
+	    this.etag = etag;
+	    this.lastModified = lastModified;
+	    this.report = report;
+	}
+    }
+}
\ No newline at end of file
@@ -0,0 +1,330 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+/**
+ * Converts the units of weather values: wind directions in degrees to
+ * compass points, temperatures between Fahrenheit and Celsius, wind speeds
+ * between mph, km/h and m/s, and humidity to a percentage.
+ * <p>
+ * Compass points come from tables made once for every whole degree, and
+ * the wind and humidity texts the parsers set are made once and shared, so
+ * the conversions work on primitives and do not allocate. Both feed parsers
+ * use these, so the same weather gives the same text from either service.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public final class WeatherUnits {
+
+    /**
+     * Returned when a value can not be parsed, the same as
+     * CompactWeatherCondition.MISSING.
+     */
+    public static final int MISSING = CompactWeatherCondition.MISSING;
+
+    /**
+     * The units wind speeds are converted between.
+     */
+    public enum SpeedUnit {
+	/**
+	 * Miles per hour, as the feeds report.
+	 */
+	MPH(0.44704),
+
+	/**
+	 * Kilometres per hour.
+	 */
+	KPH(1 / 3.6),
+
+	/**
+	 * Metres per second.
+	 */
+	METERS_PER_SECOND(1);
+
+	private final double metersPerSecond;
+
+	private SpeedUnit(double metersPerSecond) {
+	    this.metersPerSecond = metersPerSecond;
+	}
+    }
+
+    private static final CompassDirection[] directions = CompassDirection
+	    .values();
+
+    /**
+     * The compass point of each whole degree, with 8 and with 16 points.
+     */
+    private static final CompassDirection[] compass8 = compassTable(8);
+    private static final CompassDirection[] compass16 = compassTable(16);
+
+    /**
+     * Stores the factor from each speed unit to each other.
+     */
+    private static final double[][] speedFactors = speedFactors();
+
+    /**
+     * Wind speeds below this have their wind texts shared.
+     */
+    private static final int SHARED_WIND_SPEEDS = 128;
+
+    /**
+     * Stores the shared wind texts, by direction and speed. Filled as they
+     * are first used, a race only makes an extra copy.
+     */
+    private static final String[][] windTexts = new String[directions.length][SHARED_WIND_SPEEDS];
+
+    /**
+     * Stores the humidity text of each percentage.
+     */
+    private static final String[] humidityTexts = new String[101];
+
+    static {
+	for (int i = 0; i < humidityTexts.length; i++)
+	    humidityTexts[i] = i + "%";
+    }
+
+    private WeatherUnits() {
+    }
+
+    /**
+     * Gets the compass point a wind direction is closest to, such as SW for
+     * 225 degrees. Each point covers the same arc centered on it, so with 8
+     * points N is from 337.5 up to 22.5 degrees.
+     * 
+     * @param degrees
+     *            the direction in degrees clockwise from north, any whole
+     *            number of turns is ignored
+     * @param points
+     *            8 to use only N, NE, E, SE, S, SW, W and NW, or 16
+     * @return the compass point
+     */
+    public static CompassDirection compass(int degrees, int points) {
+	int degree = Math.floorMod(degrees, 360);
+	if (points == 8)
+	    return compass8[degree];
+	if (points == 16)
+	    return compass16[degree];
+	throw new IllegalArgumentException("Compass must have 8 or 16 points.");
+    }
+
+    /**
+     * Gets the wind text the parsers set, such as "SW at 9 mph".
+     * 
+     * @param direction
+     *            the direction the wind comes from
+     * @param speed
+     *            the speed in mph
+     * @return the text, or null if the direction is null
+     */
+    public static String windCondition(CompassDirection direction, int speed) {
+	if (direction == null)
+	    return null;
+	if (speed < 0 || speed >= SHARED_WIND_SPEEDS)
+	    return direction.name() + " at " + speed + " mph";
+	String[] texts = windTexts[direction.ordinal()];
+	String text = texts[speed];
+	if (text == null) {
+	    text = direction.name() + " at " + speed + " mph";
+	    texts[speed] = text;
+	}
+	return text;
+    }
+
+    /**
+     * Converts a temperature in Fahrenheit to Celsius, rounded to the
+     * nearest degree.
+     * 
+     * @param fahrenheit
+     *            the temperature in Fahrenheit
+     * @return the temperature in Celsius
+     */
+    public static int fahrenheitToCelsius(int fahrenheit) {
+	// (f - 32) * 5 is never a half of 9, so rounding is never a tie
+	return (int) Math.round((fahrenheit - 32) * 5 / 9.0);
+    }
+
+    /**
+     * Converts a temperature in Celsius to Fahrenheit, rounded to the
+     * nearest degree.
+     * 
+     * @param celsius
+     *            the temperature in Celsius
+     * @return the temperature in Fahrenheit
+     */
+    public static int celsiusToFahrenheit(int celsius) {
+	return (int) Math.round(celsius * 9 / 5.0) + 32;
+    }
+
+    /**
+     * Converts a wind speed.
+     * 
+     * @param speed
+     *            the speed
+     * @param from
+     *            the unit of the speed
+     * @param to
+     *            the unit to convert to
+     * @return the speed in the new unit
+     */
+    public static double convertSpeed(double speed, SpeedUnit from,
+	    SpeedUnit to) {
+	return speed * speedFactors[from.ordinal()][to.ordinal()];
+    }
+
+    /**
+     * Converts a wind speed, rounded to a whole number.
+     * 
+     * @param speed
+     *            the speed
+     * @param from
+     *            the unit of the speed
+     * @param to
+     *            the unit to convert to
+     * @return the speed in the new unit
+     */
+    public static int convertSpeed(int speed, SpeedUnit from, SpeedUnit to) {
+	return (int) Math.round(speed * speedFactors[from.ordinal()][to
+		.ordinal()]);
+    }
+
+    /**
+     * Parses a humidity as the feeds and the parsers give it, such as "45",
+     * "45%" or "Humidity: 45%". A value with a decimal point, no percent sign
+     * and no more than 1, such as "0.45", is taken as a fraction.
+     * 
+     * @param text
+     *            the humidity
+     * @return the humidity as a whole percentage from 0 to 100, or MISSING
+     */
+    public static int parseHumidity(CharSequence text) {
+	if (text == null)
+	    return MISSING;
+	int end = text.length();
+	if (end > 0 && text.charAt(end - 1) == '%')
+	    end--;
+	boolean percent = end < text.length();
+	// Skip a label such as "Humidity: "
+	int start = end;
+	while (start > 0 && text.charAt(start - 1) != ' ')
+	    start--;
+
+	long whole = 0;
+	long fraction = 0;
+	long scale = 1;
+	int point = -1;
+	for (int i = start; i < end; i++) {
+	    char c = text.charAt(i);
+	    if (c == '.' && point < 0) {
+		point = i;
+	    } else if (c >= '0' && c <= '9' && i - start < 12) {
+		if (point < 0) {
+		    whole = whole * 10 + c - '0';
+		} else {
+		    fraction = fraction * 10 + c - '0';
+		    scale *= 10;
+		}
+	    } else {
+		return MISSING;
+	    }
+	}
+	if (start == end || point == start && end == start + 1)
+	    return MISSING;
+
+	double value = whole + (double) fraction / scale;
+	if (point >= 0 && !percent && value <= 1)
+	    value *= 100;
+	long rounded = Math.round(value);
+	return rounded > 100 ? MISSING : (int) rounded;
+    }
+
+    /**
+     * Gets the humidity text the parsers set, such as "45%".
+     * 
+     * @param percent
+     *            the humidity as a percentage
+     * @return the text, or null if the percentage is not from 0 to 100
+     */
+    public static String formatHumidity(int percent) {
+	if (percent < 0 || percent > 100)
+	    return null;
+	return humidityTexts[percent];
+    }
+
+    /**
+     * Rewrites a wind text from a feed, such as "SW at 9 mph", to the shared
+     * copy of the same text.
+     * 
+     * @param text
+     *            the wind text
+     * @return the shared text, or the text itself if it is not a compass
+     *         point and a speed in mph
+     */
+    static String normalizeWind(String text) {
+	if (text == null)
+	    return null;
+	int at = text.indexOf(" at ");
+	if (at <= 0 || !text.endsWith(" mph"))
+	    return text;
+	CompassDirection direction = null;
+	for (CompassDirection point : directions) {
+	    String name = point.name();
+	    if (name.length() == at && text.startsWith(name)) {
+		direction = point;
+		break;
+	    }
+	}
+	int speed = 0;
+	int end = text.length() - 4;
+	if (direction == null || end <= at + 4 || end - at - 4 > 3)
+	    return text;
+	for (int i = at + 4; i < end; i++) {
+	    char c = text.charAt(i);
+	    if (c < '0' || c > '9')
+		return text;
+	    speed = speed * 10 + c - '0';
+	}
+	return windCondition(direction, speed);
+    }
+
+    private static CompassDirection[] compassTable(int points) {
+	CompassDirection[] table = new CompassDirection[360];
+	int step = directions.length / points;
+	for (int degree = 0; degree < 360; degree++) {
+	    // Shift by half a point so each point is centered on its direction
+	    int point = (int) ((degree + 180.0 / points) * points / 360) % points;
+	    table[degree] = directions[point * step];
+	}
+	return table;
+    }
+
+    private static double[][] speedFactors() {
+	SpeedUnit[] units = SpeedUnit.values();
+	double[][] factors = new double[units.length][units.length];
+	for (SpeedUnit from : units)
+	    for (SpeedUnit to : units)
+		factors[from.ordinal()][to.ordinal()] = from == to ? 1
+			: from.metersPerSecond / to.metersPerSecond;
+	return factors;
+    }
+}
\ No newline at end of file
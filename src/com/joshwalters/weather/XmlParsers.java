@@ -0,0 +1,232 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * Makes the XML parsers used by the feed parsers.
+ * <p>
+ * The factories are made and configured once. Document builders are not
+ * thread safe, so each thread keeps its own and it is reset before every use.
+ * Both kinds of parser are set up for untrusted feeds: no DTDs or external
+ * entities are loaded, which also keeps a feed with a DOCTYPE from stalling
+ * on a network fetch of its DTD.
+ * <p>
+ * Neither kind prints anything. The streaming parser prints malformed UTF-8
+ * to stderr itself, whatever XMLReporter it is given, so UTF-8 feeds are
+ * decoded before it sees them and malformed bytes fail the parse instead.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+final class XmlParsers {
+
+    /**
+     * Shared factory for the streaming parser. Creating readers from a
+     * configured factory is thread safe.
+     */
+    private static final XMLInputFactory inputFactory = newInputFactory();
+
+    /**
+     * The most bytes looked at to find the encoding of a feed.
+     */
+    private static final int PEEK = 128;
+
+    /**
+     * Finds a well formed encoding in an XML declaration. A declaration
+     * damaged by malformed bytes has none, so the decoder rejects it.
+     */
+    private static final Pattern ENCODING = Pattern
+	    .compile("\\sencoding\\s*=\\s*([\"'])([A-Za-z][A-Za-z0-9._-]*)\\1");
+
+    private static final DocumentBuilderFactory builderFactory = newBuilderFactory();
+
+    /**
+     * Stores the document builder of each thread.
+     */
+    private static final ThreadLocal<DocumentBuilder> builders = new ThreadLocal<DocumentBuilder>();
+
+    /**
+     * Fails on errors instead of printing them, the caller reports them.
+     */
+    private static final ErrorHandler errorHandler = new ErrorHandler() {
+	public void warning(SAXParseException e) {
+	}
+
+	public void error(SAXParseException e) throws SAXException {
+	    throw e;
+	}
+
+	public void fatalError(SAXParseException e) throws SAXException {
+	    throw e;
+	}
+    };
+
+    private XmlParsers() {
+    }
+
+    /**
+     * Makes a streaming parser for a feed. A feed in UTF-8, as all the feeds
+     * are, is decoded by a decoder that reports malformed bytes, so they
+     * fail the parse without the parser printing them.
+     * 
+     * @param in
+     *            the feed
+     * @return the parser
+     * @throws XMLStreamException
+     *             if the start of the feed can not be read or parsed
+     */
+    static XMLStreamReader streamReader(InputStream in)
+	    throws XMLStreamException {
+	if (!in.markSupported())
+	    in = new BufferedInputStream(in);
+	try {
+	    if (!skipUtf8Start(in))
+		return inputFactory.createXMLStreamReader(in);
+	} catch (IOException e) {
+	    throw new XMLStreamException(e);
+	}
+	return inputFactory.createXMLStreamReader(new InputStreamReader(in,
+		StandardCharsets.UTF_8.newDecoder().onMalformedInput(
+			CodingErrorAction.REPORT).onUnmappableCharacter(
+			CodingErrorAction.REPORT)));
+    }
+
+    /**
+     * Checks whether a feed is in UTF-8, from its byte order mark or XML
+     * declaration, and skips a UTF-8 byte order mark, which a Reader would
+     * pass on as a character.
+     * 
+     * @param in
+     *            the feed, which must support mark()
+     * @return true if the feed is in UTF-8
+     * @throws IOException
+     *             if the feed can not be read
+     */
+    private static boolean skipUtf8Start(InputStream in) throws IOException {
+	byte[] start = new byte[PEEK];
+	in.mark(PEEK);
+	int length = 0;
+	while (length < PEEK) {
+	    int read = in.read(start, length, PEEK - length);
+	    if (read < 0)
+		break;
+	    length += read;
+	}
+	in.reset();
+
+	if (length >= 3 && (start[0] & 0xFF) == 0xEF
+		&& (start[1] & 0xFF) == 0xBB && (start[2] & 0xFF) == 0xBF) {
+	    in.skip(3);
+	    return true;
+	}
+	// UTF-16 and UTF-32 start with a byte order mark or a zero byte
+	if (length >= 2
+		&& (start[0] == 0 || start[1] == 0
+			|| (start[0] & 0xFF) == 0xFE || (start[0] & 0xFF) == 0xFF))
+	    return false;
+
+	// A feed without an encoding in its declaration is in UTF-8
+	String head = new String(start, 0, length, StandardCharsets.ISO_8859_1);
+	if (!head.startsWith("<?xml"))
+	    return true;
+	int end = head.indexOf('>');
+	Matcher matcher = ENCODING.matcher(end < 0 ? head : head.substring(0,
+		end));
+	return !matcher.find() || matcher.group(2).equalsIgnoreCase("UTF-8")
+		|| matcher.group(2).equalsIgnoreCase("UTF8");
+    }
+
+    /**
+     * Gets the document builder of the calling thread, reset to its first
+     * state. It must not be used once the thread calls this again.
+     * 
+     * @return the document builder
+     * @throws ParserConfigurationException
+     *             if a secure document builder can not be made
+     */
+    static DocumentBuilder documentBuilder()
+	    throws ParserConfigurationException {
+	DocumentBuilder builder = builders.get();
+	if (builder == null) {
+	    builder = builderFactory.newDocumentBuilder();
+	    builders.set(builder);
+	} else {
+	    builder.reset();
+	}
+	// Reset puts back the default handler, which prints to stderr
+	builder.setErrorHandler(errorHandler);
+	return builder;
+    }
+
+    private static XMLInputFactory newInputFactory() {
+	XMLInputFactory factory = XMLInputFactory.newInstance();
+	factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+	factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+		false);
+	return factory;
+    }
+
+    private static DocumentBuilderFactory newBuilderFactory() {
+	DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+	try {
+	    factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+	    factory.setFeature(
+		    "http://apache.org/xml/features/nonvalidating/load-external-dtd",
+		    false);
+	    factory.setFeature(
+		    "http://xml.org/sax/features/external-general-entities",
+		    false);
+	    factory.setFeature(
+		    "http://xml.org/sax/features/external-parameter-entities",
+		    false);
+	} catch (ParserConfigurationException e) {
+	    // Not the built in parser, the attributes below still apply
+	}
+	factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+	factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+	factory.setExpandEntityReferences(false);
+	factory.setXIncludeAware(false);
+	return factory;
+    }
+}
\ No newline at end of file
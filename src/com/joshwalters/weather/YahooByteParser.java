@@ -0,0 +1,780 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Parses the Yahoo weather feed by scanning its bytes for the few yweather
+ * elements a report is built from, without a full XML parse.
+ * <p>
+ * Only the attribute values that are used are decoded to strings. The scan
+ * still checks what the streaming parser would reject: that the feed is well
+ * formed UTF-8 with only characters XML allows, the XML declaration, that
+ * the tags are balanced, their names and namespace prefixes, and the
+ * references in text and values. Anything it does not expect, such as
+ * another encoding, malformed bytes, a DOCTYPE, entities in a value it needs,
+ * a bad number or a cut off feed, sends the feed to the streaming parser,
+ * which gives the same report or the same error as without the fast path.
+ * FastParserCheck in the benchmark folder compares the two on damaged feeds.
+ * <p>
+ * The feed is read into a buffer that each thread keeps between calls.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+final class YahooByteParser {
+
+    private static final int INITIAL_CAPACITY = 16 * 1024;
+
+    /**
+     * A buffer grown past this is not kept for the next feed.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+    private static final int MAX_ATTRIBUTES = 16;
+
+    private static final byte[] PREFIX = ascii("yweather:");
+    private static final byte[] NAMESPACE = ascii("xmlns:yweather");
+    private static final byte[] COMMENT = ascii("<!--");
+    private static final byte[] DOUBLE_HYPHEN = ascii("--");
+    private static final byte[] CDATA = ascii("<![CDATA[");
+    private static final byte[] CDATA_END = ascii("]]>");
+    private static final byte[] PI_END = ascii("?>");
+    private static final byte[] DECLARATION = ascii("<?xml");
+    private static final byte[] XML = ascii("xml");
+    private static final byte[] XMLNS = ascii("xmlns");
+    private static final byte[] XMLNS_PREFIX = ascii("xmlns:");
+
+    /**
+     * Reads eight bytes of a feed at a time, to skip the plain ASCII that
+     * most of a feed is.
+     */
+    private static final VarHandle LONGS = MethodHandles
+	    .byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    /**
+     * The entities XML defines without a DTD.
+     */
+    private static final byte[][] ENTITIES = { ascii("lt"), ascii("gt"),
+	    ascii("amp"), ascii("apos"), ascii("quot") };
+
+    /**
+     * Matches what follows "<?xml" in a declaration the streaming parser
+     * reads as UTF-8 XML 1.0.
+     */
+    private static final Pattern XML_DECLARATION = Pattern
+	    .compile("\\s+version\\s*=\\s*([\"'])1\\.0\\1"
+		    + "(\\s+encoding\\s*=\\s*([\"'])(?i:UTF-8)\\3)?"
+		    + "(\\s+standalone\\s*=\\s*([\"'])(yes|no)\\5)?\\s*");
+
+    /**
+     * Stores the parser of each thread.
+     */
+    private static final ThreadLocal<YahooByteParser> parsers = ThreadLocal
+	    .withInitial(YahooByteParser::new);
+
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+
+    /**
+     * Stores the start and end of the name and the value of each attribute of
+     * the current tag.
+     */
+    private final int[] attributes = new int[MAX_ATTRIBUTES * 4];
+    private int attributeCount;
+
+    /**
+     * Whether a value of the current tag has entities or characters the XML
+     * parser would replace.
+     */
+    private boolean needsDecoding;
+
+    /**
+     * Stores the start and length of the name of each open element.
+     */
+    private int[] openElements = new int[32];
+
+    /**
+     * Stores the start and end of each namespace prefix the root element
+     * declares. Prefixes declared deeper are left to the streaming parser.
+     */
+    private final int[] prefixes = new int[MAX_ATTRIBUTES * 2];
+    private int prefixCount;
+
+    /**
+     * Stores the last declaration that was checked, as every feed from a
+     * service has the same one.
+     */
+    private byte[] knownDeclaration = new byte[0];
+
+    private YahooByteParser() {
+    }
+
+    /**
+     * Parses the feed, falling back to the streaming parser when the scan
+     * can not be sure of the result.
+     * 
+     * @param in
+     *            the feed
+     * @return the report
+     * @throws WeatherLookupException
+     */
+    static WeatherReport parse(InputStream in) throws WeatherLookupException {
+	YahooByteParser parser = parsers.get();
+	try {
+	    parser.read(in);
+	    WeatherReport report = parser.scan();
+	    if (report != null)
+		return report;
+	    return YahooWeatherParser.parseStream(new ByteArrayInputStream(
+		    parser.buffer.array(), 0, parser.buffer.position()));
+	} catch (IOException e) {
+	    throw WeatherLookupException.fromIOException(e);
+	} finally {
+	    if (parser.buffer.capacity() > MAX_RETAINED_CAPACITY)
+		parser.buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+	}
+    }
+
+    /**
+     * Reads the whole feed into the buffer, growing it as needed.
+     */
+    private void read(InputStream in) throws IOException {
+	buffer.clear();
+	while (true) {
+	    if (!buffer.hasRemaining()) {
+		ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+		buffer.flip();
+		buffer = larger.put(buffer);
+	    }
+	    int read = in.read(buffer.array(), buffer.position(), buffer
+		    .remaining());
+	    if (read < 0)
+		return;
+	    buffer.position(buffer.position() + read);
+	}
+    }
+
+    /**
+     * Scans the feed in the buffer.
+     * 
+     * @return the report, or null if the streaming parser has to be used
+     */
+    private WeatherReport scan() {
+	byte[] bytes = buffer.array();
+	int end = buffer.position();
+
+	// Stores the weather conditions as they are parsed
+	WeatherCondition current = new WeatherCondition();
+	List<WeatherCondition> forecasts = new ArrayList<WeatherCondition>();
+
+	// Only the first of each element is used, as with the other parsers
+	boolean haveLocation = false;
+	boolean haveAtmosphere = false;
+	boolean haveWind = false;
+	boolean haveCondition = false;
+	int forecastCount = 0;
+
+	int pos = 0;
+	// Skip a UTF-8 byte order mark
+	if (end >= 3 && bytes[0] == (byte) 0xEF && bytes[1] == (byte) 0xBB
+		&& bytes[2] == (byte) 0xBF)
+	    pos = 3;
+	if (!isUtf8(bytes, pos, end) || !isWellFormedUtf8(bytes, pos, end))
+	    return null;
+
+	int start = pos;
+	int depth = 0;
+	boolean rootClosed = false;
+	prefixCount = 0;
+	try {
+	    while (true) {
+		int open = indexOf(bytes, (byte) '<', pos, end);
+		int textEnd = open < 0 ? end : open;
+		if (depth == 0 ? !isWhitespace(bytes, pos, textEnd)
+			: !isPlainText(bytes, pos, textEnd))
+		    return null;
+		if (open < 0)
+		    break;
+		if (open + 1 == end)
+		    return null;
+
+		byte next = bytes[open + 1];
+		if (next == '!') {
+		    if (startsWith(bytes, open, end, COMMENT)) {
+			// A comment can not have -- before its end
+			int hyphens = indexOf(bytes, DOUBLE_HYPHEN, open
+				+ COMMENT.length, end);
+			if (hyphens < 0 || hyphens + 2 == end
+				|| bytes[hyphens + 2] != '>')
+			    return null;
+			pos = hyphens + 3;
+		    } else if (depth > 0 && startsWith(bytes, open, end, CDATA)) {
+			pos = skipPast(bytes, open + CDATA.length, end,
+				CDATA_END);
+		    } else {
+			// A DOCTYPE can declare entities, leave it to the parser
+			return null;
+		    }
+		} else if (next == '?') {
+		    // Only the declaration may have the target xml
+		    int targetEnd = nameEnd(bytes, open + 2, end);
+		    if (!isNcName(bytes, open + 2, targetEnd)
+			    || targetEnd < end && bytes[targetEnd] > ' '
+			    || isXml(bytes, open + 2, targetEnd)
+			    && (open != start || !startsWith(bytes, open, end,
+				    DECLARATION)))
+			return null;
+		    pos = skipPast(bytes, open + 2, end, PI_END);
+		} else if (next == '/') {
+		    if (depth == 0)
+			return null;
+		    depth--;
+		    int nameEnd = nameEnd(bytes, open + 2, end);
+		    pos = skipWhitespace(bytes, nameEnd, end);
+		    if (pos == end || bytes[pos] != '>'
+			    || !sameName(bytes, open + 2, nameEnd, depth))
+			return null;
+		    pos++;
+		    if (depth == 0)
+			rootClosed = true;
+		} else {
+		    if (rootClosed)
+			return null;
+		    int nameEnd = nameEnd(bytes, open + 1, end);
+		    pos = readAttributes(bytes, nameEnd, end);
+		    if (pos < 0 || attributeCount > MAX_ATTRIBUTES)
+			return null;
+		    boolean empty = bytes[pos - 2] == '/';
+
+		    if (depth == 0) {
+			if (find(bytes, NAMESPACE) < 0)
+			    return null;
+			declarePrefixes(bytes);
+		    }
+		    if (!hasValidNames(bytes, open + 1, nameEnd))
+			return null;
+		    if (!empty)
+			push(open + 1, nameEnd, depth++);
+		    if (!startsWith(bytes, open + 1, nameEnd, PREFIX))
+			continue;
+		    if (needsDecoding)
+			return null;
+
+		    String name = new String(bytes, open + 1 + PREFIX.length,
+			    nameEnd - open - 1 - PREFIX.length,
+			    StandardCharsets.US_ASCII);
+		    if (name.equals("forecast")) {
+			// If first forecast, it is about todays forecast
+			if (forecastCount == 0) {
+			    current.setLowTemperature(attribute(bytes, "low"));
+			    current.setHighTemperature(attribute(bytes,
+				    "high"));
+			} else {
+			    WeatherCondition forecast = new WeatherCondition();
+			    forecast.setDayOfWeek(attribute(bytes, "day"));
+			    forecast.setLowTemperature(attribute(bytes, "low"));
+			    forecast.setHighTemperature(attribute(bytes,
+				    "high"));
+			    forecast.setGeneralWeatherCondition(attribute(
+				    bytes, "text"));
+			    forecasts.add(forecast);
+			}
+			forecastCount++;
+		    } else if (name.equals("location") && !haveLocation) {
+			haveLocation = true;
+			current.setLocation(attribute(bytes, "city"));
+		    } else if (name.equals("atmosphere") && !haveAtmosphere) {
+			haveAtmosphere = true;
+			current.setHumidity(YahooWeatherParser.humidity(attribute(
+				bytes, "humidity")));
+		    } else if (name.equals("wind") && !haveWind) {
+			haveWind = true;
+			current.setWindCondition(YahooWeatherParser
+				.windCondition(Integer.parseInt(attribute(
+					bytes, "direction")), Integer
+					.parseInt(attribute(bytes, "speed"))));
+		    } else if (name.equals("condition") && !haveCondition) {
+			haveCondition = true;
+			current.setGeneralWeatherCondition(attribute(bytes,
+				"text"));
+			current.setTempF(attribute(bytes, "temp"));
+			current.setTempC(YahooWeatherParser.celsius(current
+				.getTempF()));
+			current.setDayOfWeek(attribute(bytes, "date")
+				.split(",")[0]);
+		    }
+		}
+		if (pos < 0)
+		    return null;
+	    }
+	} catch (NumberFormatException e) {
+	    // The streaming parser reports it
+	    return null;
+	}
+
+	// A cut off feed or a feed without weather is left to the streaming
+	// parser, so it fails the same way
+	if (!rootClosed || current.areAllFieldsNull())
+	    return null;
+	return new WeatherReport(current, forecasts);
+    }
+
+    private void push(int nameStart, int nameEnd, int depth) {
+	if (depth * 2 == openElements.length)
+	    openElements = Arrays.copyOf(openElements, depth * 4);
+	openElements[depth * 2] = nameStart;
+	openElements[depth * 2 + 1] = nameEnd - nameStart;
+    }
+
+    /**
+     * Checks that an end tag closes the open element at a depth.
+     */
+    private boolean sameName(byte[] bytes, int nameStart, int nameEnd,
+	    int depth) {
+	int start = openElements[depth * 2];
+	int length = openElements[depth * 2 + 1];
+	if (nameEnd - nameStart != length)
+	    return false;
+	for (int i = 0; i < length; i++)
+	    if (bytes[nameStart + i] != bytes[start + i])
+		return false;
+	return true;
+    }
+
+    /**
+     * Reads the attributes of a start tag.
+     * 
+     * @return the position after the tag, or -1 if it is not well formed
+     */
+    private int readAttributes(byte[] bytes, int pos, int end) {
+	attributeCount = 0;
+	needsDecoding = false;
+	while (true) {
+	    int before = pos;
+	    pos = skipWhitespace(bytes, pos, end);
+	    if (pos >= end)
+		return -1;
+	    if (bytes[pos] == '>')
+		return pos + 1;
+	    if (bytes[pos] == '/')
+		return pos + 1 < end && bytes[pos + 1] == '>' ? pos + 2 : -1;
+	    // Attributes are separated by whitespace
+	    if (pos == before)
+		return -1;
+
+	    int nameStart = pos;
+	    pos = nameEnd(bytes, pos, end);
+	    if (pos == nameStart)
+		return -1;
+	    int nameEnd = pos;
+	    pos = skipWhitespace(bytes, pos, end);
+	    if (pos >= end || bytes[pos] != '=')
+		return -1;
+	    pos = skipWhitespace(bytes, pos + 1, end);
+	    if (pos >= end || (bytes[pos] != '"' && bytes[pos] != '\''))
+		return -1;
+	    int valueStart = pos + 1;
+	    int valueEnd = indexOf(bytes, bytes[pos], valueStart, end);
+	    if (valueEnd < 0)
+		return -1;
+	    for (int i = valueStart; i < valueEnd; i++) {
+		byte b = bytes[i];
+		if (b == '<')
+		    return -1;
+		if (b == '&') {
+		    i = referenceEnd(bytes, i, valueEnd);
+		    if (i < 0)
+			return -1;
+		    needsDecoding = true;
+		} else if (b == '\t' || b == '\n' || b == '\r') {
+		    needsDecoding = true;
+		}
+	    }
+	    if (attributeCount < MAX_ATTRIBUTES) {
+		int slot = attributeCount * 4;
+		attributes[slot] = nameStart;
+		attributes[slot + 1] = nameEnd;
+		attributes[slot + 2] = valueStart;
+		attributes[slot + 3] = valueEnd;
+	    }
+	    attributeCount++;
+	    pos = valueEnd + 1;
+	}
+    }
+
+    /**
+     * Gets an attribute of the current tag, as the DOM parser would.
+     * 
+     * @return the value, or an empty string if it is missing
+     */
+    private String attribute(byte[] bytes, String name) {
+	for (int i = 0; i < attributeCount; i++) {
+	    int slot = i * 4;
+	    int start = attributes[slot];
+	    if (attributes[slot + 1] - start != name.length())
+		continue;
+	    int j = 0;
+	    while (j < name.length() && bytes[start + j] == name.charAt(j))
+		j++;
+	    if (j == name.length())
+		return new String(bytes, attributes[slot + 2], attributes[slot + 3]
+			- attributes[slot + 2], StandardCharsets.UTF_8);
+	}
+	return "";
+    }
+
+    /**
+     * Checks that the XML declaration, if there is one, is for UTF-8 XML 1.0
+     * and written the way the parser requires.
+     */
+    private boolean isUtf8(byte[] bytes, int pos, int end) {
+	if (!startsWith(bytes, pos, end, DECLARATION))
+	    // Without a declaration the feed is UTF-8, unless it is UTF-16
+	    return end - pos < 2 || bytes[pos] > 0 && bytes[pos + 1] > 0;
+	int declarationEnd = indexOf(bytes, PI_END, pos, end);
+	if (declarationEnd < 0)
+	    return false;
+	if (is(bytes, pos, declarationEnd, knownDeclaration))
+	    return true;
+	int start = pos + DECLARATION.length;
+	if (!XML_DECLARATION.matcher(
+		new String(bytes, start, declarationEnd - start,
+			StandardCharsets.ISO_8859_1)).matches())
+	    return false;
+	knownDeclaration = Arrays.copyOfRange(bytes, pos, declarationEnd);
+	return true;
+    }
+
+    /**
+     * Checks that the feed is well formed UTF-8 with only the characters XML
+     * allows, as the streaming parser does, so values can be decoded without
+     * bad bytes becoming U+FFFD. Feeds are nearly all ASCII, which is checked
+     * a byte at a time without decoding.
+     */
+    private static boolean isWellFormedUtf8(byte[] bytes, int pos, int end) {
+	while (pos < end) {
+	    // Skip eight bytes at once if none is below space or above ASCII
+	    if (end - pos >= 8) {
+		long word = (long) LONGS.get(bytes, pos);
+		if (((word | word - ONES * ' ') & HIGH_BITS) == 0) {
+		    pos += 8;
+		    continue;
+		}
+	    }
+	    int b = bytes[pos];
+	    if (b >= 0) {
+		if (b < ' ' && b != '\t' && b != '\n' && b != '\r')
+		    return false;
+		pos++;
+		continue;
+	    }
+	    int length;
+	    int min;
+	    if ((b & 0xE0) == 0xC0) {
+		length = 2;
+		min = 0x80;
+	    } else if ((b & 0xF0) == 0xE0) {
+		length = 3;
+		min = 0x800;
+	    } else if ((b & 0xF8) == 0xF0) {
+		length = 4;
+		min = 0x10000;
+	    } else {
+		return false;
+	    }
+	    if (end - pos < length)
+		return false;
+	    int c = b & (0x7F >> length);
+	    for (int i = 1; i < length; i++) {
+		int next = bytes[pos + i];
+		if ((next & 0xC0) != 0x80)
+		    return false;
+		c = c << 6 | next & 0x3F;
+	    }
+	    // Overlong forms, surrogates, and code points XML or Unicode do not
+	    // have
+	    if (c < min || c > 0x10FFFF || c >= 0xD800 && c <= 0xDFFF
+		    || c == 0xFFFE || c == 0xFFFF)
+		return false;
+	    pos += length;
+	}
+	return true;
+    }
+
+    /**
+     * Checks text between tags the way the parser would: every reference is
+     * one XML defines without a DTD, and ]]> only ends a CDATA section.
+     */
+    private static boolean isPlainText(byte[] bytes, int pos, int end) {
+	for (int i = pos; i < end; i++) {
+	    // Skip eight bytes at once if none is & or >
+	    if (end - i >= 8) {
+		long word = (long) LONGS.get(bytes, i);
+		if (!hasByte(word, '&') && !hasByte(word, '>')) {
+		    i += 7;
+		    continue;
+		}
+	    }
+	    byte b = bytes[i];
+	    if (b == '&') {
+		i = referenceEnd(bytes, i, end);
+		if (i < 0)
+		    return false;
+	    } else if (b == '>' && i - pos >= 2 && bytes[i - 1] == ']'
+		    && bytes[i - 2] == ']') {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Checks whether any of eight bytes is a given byte.
+     */
+    private static boolean hasByte(long word, char b) {
+	long matches = word ^ ONES * b;
+	return ((matches - ONES) & ~matches & HIGH_BITS) != 0;
+    }
+
+    /**
+     * Finds the end of a reference to an entity XML defines without a DTD,
+     * or to a character XML allows.
+     * 
+     * @return the position of its semicolon, or -1 if it is not one
+     */
+    private static int referenceEnd(byte[] bytes, int pos, int end) {
+	int semicolon = indexOf(bytes, (byte) ';', pos + 1, Math.min(end,
+		pos + 12));
+	if (semicolon < 0)
+	    return -1;
+	if (bytes[pos + 1] != '#') {
+	    for (byte[] entity : ENTITIES)
+		if (is(bytes, pos + 1, semicolon, entity))
+		    return semicolon;
+	    return -1;
+	}
+
+	int radix = 10;
+	int digits = pos + 2;
+	if (digits < semicolon && bytes[digits] == 'x') {
+	    radix = 16;
+	    digits++;
+	}
+	if (digits == semicolon)
+	    return -1;
+	long c = 0;
+	for (int i = digits; i < semicolon; i++) {
+	    int digit = Character.digit((char) bytes[i], radix);
+	    if (digit < 0)
+		return -1;
+	    c = c * radix + digit;
+	}
+	return c == '\t' || c == '\n' || c == '\r' || c >= 0x20 && c <= 0xD7FF
+		|| c >= 0xE000 && c <= 0xFFFD || c >= 0x10000 && c <= 0x10FFFF ? semicolon
+		: -1;
+    }
+
+    /**
+     * Records the namespace prefixes the root element declares.
+     */
+    private void declarePrefixes(byte[] bytes) {
+	prefixCount = 0;
+	for (int i = 0; i < attributeCount; i++) {
+	    int start = attributes[i * 4];
+	    int end = attributes[i * 4 + 1];
+	    if (startsWith(bytes, start, end, XMLNS_PREFIX)) {
+		prefixes[prefixCount * 2] = start + XMLNS_PREFIX.length;
+		prefixes[prefixCount * 2 + 1] = end;
+		prefixCount++;
+	    }
+	}
+    }
+
+    /**
+     * Checks the names of the current tag the way a namespace aware parser
+     * does: every prefix is bound, declarations do not bind xml or xmlns or
+     * undeclare a prefix, and no attribute is given twice.
+     */
+    private boolean hasValidNames(byte[] bytes, int nameStart, int nameEnd) {
+	if (!isBound(bytes, nameStart, nameEnd))
+	    return false;
+	for (int i = 0; i < attributeCount; i++) {
+	    int slot = i * 4;
+	    int start = attributes[slot];
+	    int end = attributes[slot + 1];
+	    if (startsWith(bytes, start, end, XMLNS_PREFIX)) {
+		int prefix = start + XMLNS_PREFIX.length;
+		if (!isNcName(bytes, prefix, end) || is(bytes, prefix, end, XML)
+			|| is(bytes, prefix, end, XMLNS)
+			|| attributes[slot + 2] == attributes[slot + 3])
+		    return false;
+	    } else if (!isBound(bytes, start, end)) {
+		return false;
+	    }
+	    for (int j = 0; j < i; j++)
+		if (sameBytes(bytes, start, end, attributes[j * 4],
+			attributes[j * 4 + 1]))
+		    return false;
+	}
+	return true;
+    }
+
+    /**
+     * Checks that a name has at most one colon, and that its prefix, if it
+     * has one, is xml or declared on the root element.
+     */
+    private boolean isBound(byte[] bytes, int start, int end) {
+	int colon = indexOf(bytes, (byte) ':', start, end);
+	if (colon < 0)
+	    return isNcName(bytes, start, end);
+	if (!isNcName(bytes, start, colon) || !isNcName(bytes, colon + 1, end))
+	    return false;
+	if (is(bytes, start, colon, XML))
+	    return true;
+	for (int i = 0; i < prefixCount; i++)
+	    if (sameBytes(bytes, start, colon, prefixes[i * 2],
+		    prefixes[i * 2 + 1]))
+		return true;
+	return false;
+    }
+
+    /**
+     * Checks that a name has no colon and only the ASCII characters XML
+     * allows in names. Names with other characters are left to the parser.
+     */
+    private static boolean isNcName(byte[] bytes, int start, int end) {
+	if (start >= end)
+	    return false;
+	for (int i = start; i < end; i++) {
+	    byte b = bytes[i];
+	    if (b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b == '_')
+		continue;
+	    if (i == start || !(b >= '0' && b <= '9' || b == '-' || b == '.'))
+		return false;
+	}
+	return true;
+    }
+
+    /**
+     * Checks for the processing instruction target XML reserves, in any
+     * case.
+     */
+    private static boolean isXml(byte[] bytes, int start, int end) {
+	return end - start == 3 && (bytes[start] | 0x20) == 'x'
+		&& (bytes[start + 1] | 0x20) == 'm'
+		&& (bytes[start + 2] | 0x20) == 'l';
+    }
+
+    private int find(byte[] bytes, byte[] name) {
+	for (int i = 0; i < Math.min(attributeCount, MAX_ATTRIBUTES); i++) {
+	    int slot = i * 4;
+	    if (attributes[slot + 1] - attributes[slot] == name.length
+		    && startsWith(bytes, attributes[slot], attributes[slot + 1],
+			    name))
+		return i;
+	}
+	return -1;
+    }
+
+    private static int nameEnd(byte[] bytes, int pos, int end) {
+	while (pos < end) {
+	    byte b = bytes[pos];
+	    if (b <= ' ' && b >= 0 || b == '>' || b == '/' || b == '=')
+		break;
+	    pos++;
+	}
+	return pos;
+    }
+
+    private static int skipWhitespace(byte[] bytes, int pos, int end) {
+	while (pos < end && bytes[pos] <= ' ' && bytes[pos] >= 0)
+	    pos++;
+	return pos;
+    }
+
+    private static boolean isWhitespace(byte[] bytes, int pos, int end) {
+	return skipWhitespace(bytes, pos, end) == end;
+    }
+
+    private static int skipPast(byte[] bytes, int pos, int end, byte[] marker) {
+	int at = indexOf(bytes, marker, pos, end);
+	return at < 0 ? -1 : at + marker.length;
+    }
+
+    private static boolean is(byte[] bytes, int start, int end, byte[] text) {
+	return end - start == text.length && startsWith(bytes, start, end, text);
+    }
+
+    private static boolean sameBytes(byte[] bytes, int start, int end,
+	    int otherStart, int otherEnd) {
+	if (end - start != otherEnd - otherStart)
+	    return false;
+	for (int i = 0; i < end - start; i++)
+	    if (bytes[start + i] != bytes[otherStart + i])
+		return false;
+	return true;
+    }
+
+    private static boolean startsWith(byte[] bytes, int pos, int end,
+	    byte[] prefix) {
+	if (end - pos < prefix.length)
+	    return false;
+	for (int i = 0; i < prefix.length; i++)
+	    if (bytes[pos + i] != prefix[i])
+		return false;
+	return true;
+    }
+
+    private static int indexOf(byte[] bytes, byte b, int pos, int end) {
+	for (int i = pos; i < end; i++)
+	    if (bytes[i] == b)
+		return i;
+	return -1;
+    }
+
+    private static int indexOf(byte[] bytes, byte[] marker, int pos, int end) {
+	for (int i = indexOf(bytes, marker[0], pos, end); i >= 0; i = indexOf(
+		bytes, marker[0], i + 1, end))
+	    if (startsWith(bytes, i, end, marker))
+		return i;
+	return -1;
+    }
+
+    private static byte[] ascii(String text) {
+	return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
\ No newline at end of file
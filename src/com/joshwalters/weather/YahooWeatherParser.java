@@ -0,0 +1,332 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import com.joshwalters.weather.WeatherLookupException.Category;
+
+/**
+ * Parses the Yahoo weather feed into a WeatherReport.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+final class YahooWeatherParser {
+
+    /**
+     * The prefix of the weather elements in the feed.
+     */
+    private static final String PREFIX = "yweather";
+
+    private YahooWeatherParser() {
+    }
+
+    /**
+     * Parses the feed by building a DOM tree and searching it.
+     * 
+     * @param in
+     *            the feed
+     * @return the report
+     * @throws WeatherLookupException
+     */
+    static WeatherReport parseDom(InputStream in) throws WeatherLookupException {
+	// Stores the weather conditions as they are parsed
+	WeatherCondition current = new WeatherCondition();
+	List<WeatherCondition> forecasts = new ArrayList<WeatherCondition>();
+
+	try {
+	    // Reuse this thread's document builder
+	    DocumentBuilder builder = XmlParsers.documentBuilder();
+	    Document doc = builder.parse(in);
+
+	    // Get the current weather
+
+	    // Check to see if we can get the city that the zip code is from
+	    NodeList nodes = doc.getElementsByTagName("yweather:location");
+	    if (nodes.getLength() > 0) {
+		Element element = (Element) nodes.item(0);
+
+		// Get the location
+		current.setLocation(element
+			.getAttribute("city"));
+	    }
+
+	    // Check to see if we can get humidity
+	    nodes = doc.getElementsByTagName("yweather:atmosphere");
+	    if (nodes.getLength() > 0) {
+		Element element = (Element) nodes.item(0);
+
+		// Get the humidity
+		current.setHumidity(humidity(element
+			.getAttribute("humidity")));
+	    }
+
+	    // Check to see if we can get wind data
+	    nodes = doc.getElementsByTagName("yweather:wind");
+	    if (nodes.getLength() > 0) {
+		Element element = (Element) nodes.item(0);
+
+		// Convert the direction from degrees to N/S/E/W
+		int directionDegree = Integer.parseInt(element
+			.getAttribute("direction"));
+		int speed = Integer.parseInt(element.getAttribute("speed"));
+		current.setWindCondition(windCondition(directionDegree, speed));
+	    }
+
+	    // Get the temperature, day, and conditions
+	    nodes = doc.getElementsByTagName("yweather:condition");
+	    if (nodes.getLength() > 0) {
+		Element element = (Element) nodes.item(0);
+
+		// Get the general weather condition
+		current.setGeneralWeatherCondition(element
+			.getAttribute("text"));
+
+		// Get the temperature
+		current.setTempF(element.getAttribute("temp"));
+
+		// Convert to Celcius
+		current.setTempC(celsius(current.getTempF()));
+
+		// Get the date
+		String temp[] = element.getAttribute("date").split(",");
+		current.setDayOfWeek(temp[0]);
+	    }
+
+	    // Get the forecasts
+	    nodes = doc.getElementsByTagName("yweather:forecast");
+	    for (int i = 0; i < nodes.getLength(); i++) {
+		Element element = (Element) nodes.item(i);
+
+		// If first forecast, it is about todays forecast
+		if (i == 0) {
+		    // Get the low temperature
+		    current.setLowTemperature(element
+			    .getAttribute("low"));
+
+		    // Get the high temperature
+		    current.setHighTemperature(element
+			    .getAttribute("high"));
+		} else {
+		    // Stores the predicted weather condition
+		    WeatherCondition tempWeatherCondition = new WeatherCondition();
+
+		    // Get the date
+		    tempWeatherCondition.setDayOfWeek(element
+			    .getAttribute("day"));
+
+		    // Get the low temperature
+		    tempWeatherCondition.setLowTemperature(element
+			    .getAttribute("low"));
+
+		    // Get the high temperature
+		    tempWeatherCondition.setHighTemperature(element
+			    .getAttribute("high"));
+
+		    // Get the general weather condition
+		    tempWeatherCondition.setGeneralWeatherCondition(element
+			    .getAttribute("text"));
+
+		    // Add to the forecasts
+		    forecasts.add(tempWeatherCondition);
+		}
+	    }
+
+	    // Test to see if there was an error (all fields would be null)
+	    if (current.areAllFieldsNull()) {
+		throw WeatherLookupException.withoutStackTrace(
+			Category.EMPTY_PAYLOAD,
+			"There was an error when obtaining the data.");
+	    }
+
+	    return new WeatherReport(current, forecasts);
+	} catch (IOException e) {
+	    throw WeatherLookupException.fromIOException(e);
+	} catch (ParserConfigurationException e) {
+	    throw WeatherLookupException.withoutStackTrace(Category.PARSE, e);
+	} catch (SAXException e) {
+	    throw WeatherLookupException.withoutStackTrace(Category.PARSE, e);
+	} catch (NumberFormatException e) {
+	    throw WeatherLookupException.withoutStackTrace(Category.PARSE, e);
+	}
+    }
+
+    /**
+     * Parses the feed in a single pass, reading the weather elements as they
+     * go by. No tree is built.
+     * 
+     * @param in
+     *            the feed
+     * @return the report
+     * @throws WeatherLookupException
+     */
+    static WeatherReport parseStream(InputStream in)
+	    throws WeatherLookupException {
+	// Stores the weather conditions as they are parsed
+	WeatherCondition current = new WeatherCondition();
+	List<WeatherCondition> forecasts = new ArrayList<WeatherCondition>();
+
+	// Only the first of each element is used, as with the DOM parser
+	boolean haveLocation = false;
+	boolean haveAtmosphere = false;
+	boolean haveWind = false;
+	boolean haveCondition = false;
+	int forecastCount = 0;
+
+	try {
+	    XMLStreamReader reader = XmlParsers.streamReader(in);
+	    try {
+		while (reader.hasNext()) {
+		    if (reader.next() != XMLStreamConstants.START_ELEMENT
+			    || !PREFIX.equals(reader.getPrefix()))
+			continue;
+
+		    String name = reader.getLocalName();
+		    if (name.equals("forecast")) {
+			// If first forecast, it is about todays forecast
+			if (forecastCount == 0) {
+			    current.setLowTemperature(attribute(reader, "low"));
+			    current.setHighTemperature(attribute(reader,
+				    "high"));
+			} else {
+			    WeatherCondition forecast = new WeatherCondition();
+			    forecast.setDayOfWeek(attribute(reader, "day"));
+			    forecast.setLowTemperature(attribute(reader, "low"));
+			    forecast.setHighTemperature(attribute(reader,
+				    "high"));
+			    forecast.setGeneralWeatherCondition(attribute(
+				    reader, "text"));
+			    forecasts.add(forecast);
+			}
+			forecastCount++;
+		    } else if (name.equals("location") && !haveLocation) {
+			haveLocation = true;
+			current.setLocation(attribute(reader, "city"));
+		    } else if (name.equals("atmosphere") && !haveAtmosphere) {
+			haveAtmosphere = true;
+			current.setHumidity(humidity(attribute(reader,
+				"humidity")));
+		    } else if (name.equals("wind") && !haveWind) {
+			haveWind = true;
+			current.setWindCondition(windCondition(
+				Integer.parseInt(attribute(reader,
+					"direction")), Integer
+					.parseInt(attribute(reader, "speed"))));
+		    } else if (name.equals("condition") && !haveCondition) {
+			haveCondition = true;
+			current.setGeneralWeatherCondition(attribute(reader,
+				"text"));
+			current.setTempF(attribute(reader, "temp"));
+			current.setTempC(celsius(current.getTempF()));
+			current.setDayOfWeek(attribute(reader, "date").split(
+				",")[0]);
+		    }
+		}
+	    } finally {
+		reader.close();
+	    }
+	} catch (XMLStreamException e) {
+	    throw WeatherLookupException.withoutStackTrace(Category.PARSE, e);
+	} catch (NumberFormatException e) {
+	    throw WeatherLookupException.withoutStackTrace(Category.PARSE, e);
+	}
+
+	// Test to see if there was an error (all fields would be null)
+	if (current.areAllFieldsNull()) {
+	    throw WeatherLookupException.withoutStackTrace(
+		    Category.EMPTY_PAYLOAD,
+		    "There was an error when obtaining the data.");
+	}
+
+	return new WeatherReport(current, forecasts);
+    }
+
+    /**
+     * Gets an attribute of the current element, as the DOM parser would.
+     * 
+     * @param reader
+     *            the reader, positioned on a start element
+     * @param name
+     *            the attribute name
+     * @return the value, or an empty string if it is missing
+     */
+    private static String attribute(XMLStreamReader reader, String name) {
+	String value = reader.getAttributeValue(null, name);
+	return value == null ? "" : value;
+    }
+
+    /**
+     * Converts a temperature in Fahrenheit to Celsius.
+     * 
+     * @param tempF
+     *            the temperature in Fahrenheit
+     * @return the temperature in Celsius
+     */
+    static String celsius(String tempF) {
+	return String.valueOf(WeatherUnits.fahrenheitToCelsius(Integer
+		.parseInt(tempF)));
+    }
+
+    /**
+     * Adds the percent sign to the humidity, as a percentage.
+     * 
+     * @param humidity
+     *            the humidity attribute
+     * @return the humidity text
+     */
+    static String humidity(String humidity) {
+	int percent = WeatherUnits.parseHumidity(humidity);
+	if (percent == WeatherUnits.MISSING)
+	    return humidity + "%";
+	return WeatherUnits.formatHumidity(percent);
+    }
+
+    /**
+     * Builds the wind condition from the direction in degrees and the speed.
+     * 
+     * @param directionDegree
+     *            the direction the wind is coming from
+     * @param speed
+     *            the speed in mph
+     * @return the wind condition
+     */
+    static String windCondition(int directionDegree, int speed) {
+	return WeatherUnits.windCondition(WeatherUnits.compass(
+		directionDegree, 8), speed);
+    }
+}
\ No newline at end of file
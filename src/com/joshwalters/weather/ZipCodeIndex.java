@@ -0,0 +1,742 @@
+/*
+ *  WeatherLookup - Performs a weather lookup.
+ *      
+ *  Copyright (C) 2010 Josh Walters
+ *  URL: http://joshwalters.com
+ *  
+ *  This file is part of WeatherLookup.
+ *
+ *  WeatherLookup is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  WeatherLookup is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with WeatherLookup.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.joshwalters.weather;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An index of US zip codes and where they are, to pick the zip codes of a
+ * region: those starting with a prefix, those within a distance of a point,
+ * or the nearest few. The lists it returns can be given straight to
+ * WeatherLookup.lookupAll().
+ * <p>
+ * Zip codes are kept as ints in primitive arrays, with no object per zip
+ * code: sorted for exact and prefix queries, and as a k-d tree of points on
+ * the unit sphere for distance queries, so the 33,000 or so US zip codes
+ * take about 1 MB. Distances are great circle distances on a sphere of the
+ * Earth's mean radius. An index is never modified once built, so it can be
+ * shared between threads.
+ * 
+ * @author Josh Walters
+ * @version 2.0
+ */
+public final class ZipCodeIndex {
+
+    /**
+     * The mean radius of the Earth, in miles.
+     */
+    public static final double EARTH_RADIUS_MILES = 3958.8;
+
+    /**
+     * The number of zip codes.
+     */
+    private final int size;
+
+    /**
+     * Stores the zip codes in order, with their latitude and longitude in
+     * degrees and the position of their point in the tree.
+     */
+    private final int[] zipCodes;
+    private final float[] latitudes;
+    private final float[] longitudes;
+    private final int[] nodes;
+
+    /**
+     * Stores the tree: the node of a range is its middle, with the nodes
+     * before it on one side of its split and the nodes after it on the
+     * other. Each node is a point on the unit sphere, the zip code's
+     * position in zipCodes, and the axis it splits on.
+     */
+    private final float[] xs;
+    private final float[] ys;
+    private final float[] zs;
+    private final int[] entries;
+    private final byte[] axes;
+
+    private ZipCodeIndex(int[] zipCodes, float[] latitudes,
+	    float[] longitudes) {
+	size = zipCodes.length;
+	this.zipCodes = zipCodes;
+	this.latitudes = latitudes;
+	this.longitudes = longitudes;
+	nodes = new int[size];
+	xs = new float[size];
+	ys = new float[size];
+	zs = new float[size];
+	entries = new int[size];
+	axes = new byte[size];
+
+	float[][] points = new float[3][size];
+	for (int i = 0; i < size; i++) {
+	    double latitude = Math.toRadians(latitudes[i]);
+	    double longitude = Math.toRadians(longitudes[i]);
+	    points[0][i] = (float) (Math.cos(latitude) * Math.cos(longitude));
+	    points[1][i] = (float) (Math.cos(latitude) * Math.sin(longitude));
+	    points[2][i] = (float) Math.sin(latitude);
+	}
+	int[] order = new int[size];
+	for (int i = 0; i < size; i++)
+	    order[i] = i;
+	build(points, order, 0, size);
+	for (int node = 0; node < size; node++) {
+	    int entry = order[node];
+	    xs[node] = points[0][entry];
+	    ys[node] = points[1][entry];
+	    zs[node] = points[2][entry];
+	    entries[node] = entry;
+	    nodes[entry] = node;
+	}
+    }
+
+    /**
+     * Reads a gazetteer with one zip code per line, separated by tabs or
+     * commas: the zip code first, then the latitude and longitude in
+     * degrees. A header naming its columns is used to find the latitude and
+     * longitude, so the Census Bureau's ZCTA gazetteer files can be read as
+     * they are. Blank lines and lines starting with # are skipped. A zip
+     * code listed twice keeps its last position.
+     * 
+     * @param in
+     *            the gazetteer, not closed
+     * @return the index
+     * @throws IOException
+     *             if the gazetteer can not be read or has a bad line
+     */
+    public static ZipCodeIndex read(Reader in) throws IOException {
+	Builder builder = new Builder();
+	BufferedReader reader = new BufferedReader(in);
+	int latitudeColumn = 1;
+	int longitudeColumn = 2;
+	boolean first = true;
+	int lineNumber = 0;
+	String line;
+	while ((line = reader.readLine()) != null) {
+	    lineNumber++;
+	    line = line.trim();
+	    if (line.length() == 0 || line.startsWith("#"))
+		continue;
+	    String[] columns = line.split(line.indexOf('\t') >= 0 ? "\t"
+		    : ",");
+	    boolean header = first && parse(columns[0].trim()) < 0;
+	    first = false;
+	    if (header) {
+		for (int i = 1; i < columns.length; i++) {
+		    String name = columns[i].trim().toUpperCase();
+		    if (name.startsWith("LAT") || name.endsWith("LAT"))
+			latitudeColumn = i;
+		    else if (name.startsWith("LON") || name.endsWith("LONG")
+			    || name.startsWith("LNG"))
+			longitudeColumn = i;
+		}
+		continue;
+	    }
+
+	    try {
+		builder.add(columns[0].trim(), Double
+			.parseDouble(columns[latitudeColumn].trim()), Double
+			.parseDouble(columns[longitudeColumn].trim()));
+	    } catch (IndexOutOfBoundsException e) {
+		throw new IOException("Missing column on line " + lineNumber
+			+ ".");
+	    } catch (IllegalArgumentException e) {
+		throw new IOException(e.getMessage() + " on line "
+			+ lineNumber + ".");
+	    }
+	}
+	return builder.build();
+    }
+
+    /**
+     * Parses a zip code, such as "92614" or "92614-1234".
+     * 
+     * @param zipCode
+     *            the zip code, surrounding spaces are ignored
+     * @return the five digit zip code as a number, or -1 if it is not a zip
+     *         code
+     */
+    public static int parse(String zipCode) {
+	if (zipCode == null)
+	    return -1;
+	zipCode = zipCode.trim();
+	int length = zipCode.length();
+	if (length != 5 && length != 9
+		&& (length != 10 || zipCode.charAt(5) != '-'))
+	    return -1;
+	int value = 0;
+	for (int i = 0; i < length; i++) {
+	    char c = zipCode.charAt(i);
+	    if (i == 5 && length == 10)
+		continue;
+	    if (c < '0' || c > '9')
+		return -1;
+	    if (i < 5)
+		value = value * 10 + c - '0';
+	}
+	return value;
+    }
+
+    /**
+     * Formats a zip code parsed with parse().
+     * 
+     * @param zipCode
+     *            the zip code as a number
+     * @return the five digit zip code
+     */
+    public static String format(int zipCode) {
+	if (zipCode < 0 || zipCode > 99999)
+	    throw new IllegalArgumentException("Not a zip code: " + zipCode);
+	char[] digits = new char[5];
+	for (int i = 4; i >= 0; i--) {
+	    digits[i] = (char) ('0' + zipCode % 10);
+	    zipCode /= 10;
+	}
+	return new String(digits);
+    }
+
+    /**
+     * Normalizes a zip code to its five digits, so "92614-1234" and
+     * " 92614" both become "92614".
+     * 
+     * @param zipCode
+     *            the zip code
+     * @return the five digit zip code, or null if it is not a zip code
+     */
+    public static String normalize(String zipCode) {
+	int value = parse(zipCode);
+	return value < 0 ? null : format(value);
+    }
+
+    /**
+     * @return the number of zip codes
+     */
+    public int size() {
+	return size;
+    }
+
+    /**
+     * @param zipCode
+     *            Zip code
+     * @return true if the zip code is in the index
+     */
+    public boolean contains(String zipCode) {
+	return find(zipCode) >= 0;
+    }
+
+    /**
+     * @param zipCode
+     *            Zip code
+     * @return the latitude of the zip code in degrees, or NaN if it is not
+     *         in the index
+     */
+    public double getLatitude(String zipCode) {
+	int entry = find(zipCode);
+	return entry < 0 ? Double.NaN : latitudes[entry];
+    }
+
+    /**
+     * @param zipCode
+     *            Zip code
+     * @return the longitude of the zip code in degrees, or NaN if it is not
+     *         in the index
+     */
+    public double getLongitude(String zipCode) {
+	int entry = find(zipCode);
+	return entry < 0 ? Double.NaN : longitudes[entry];
+    }
+
+    /**
+     * Gets the distance between two zip codes.
+     * 
+     * @param from
+     *            a zip code
+     * @param to
+     *            another zip code
+     * @return the distance in miles, or NaN if either is not in the index
+     */
+    public double distance(String from, String to) {
+	int a = find(from);
+	int b = find(to);
+	if (a < 0 || b < 0)
+	    return Double.NaN;
+	int node = nodes[b];
+	return miles(chord2(nodes[a], xs[node], ys[node], zs[node]));
+    }
+
+    /**
+     * Gets the zip codes that start with a prefix, such as "926".
+     * 
+     * @param prefix
+     *            up to five digits, "" for every zip code
+     * @return the zip codes, in order
+     */
+    public List<String> withPrefix(String prefix) {
+	int length = prefix.length();
+	if (length > 5)
+	    throw new IllegalArgumentException("Prefix too long: " + prefix);
+	int value = 0;
+	for (int i = 0; i < length; i++) {
+	    char c = prefix.charAt(i);
+	    if (c < '0' || c > '9')
+		throw new IllegalArgumentException("Not a zip code prefix: "
+			+ prefix);
+	    value = value * 10 + c - '0';
+	}
+	int scale = 1;
+	for (int i = length; i < 5; i++)
+	    scale *= 10;
+	int from = lowerBound(value * scale);
+	int to = lowerBound((value + 1) * scale);
+	return new ZipCodeList(Arrays.copyOfRange(zipCodes, from, to));
+    }
+
+    /**
+     * Gets the zip codes within a distance of a zip code, including itself.
+     * 
+     * @param zipCode
+     *            Zip code
+     * @param miles
+     *            the distance
+     * @return the zip codes, nearest first, or an empty list if the zip code
+     *         is not in the index
+     */
+    public List<String> withinRadius(String zipCode, double miles) {
+	int entry = find(zipCode);
+	if (entry < 0)
+	    return new ZipCodeList(new int[0]);
+	int node = nodes[entry];
+	return withinRadius(xs[node], ys[node], zs[node], miles);
+    }
+
+    /**
+     * Gets the zip codes within a distance of a point.
+     * 
+     * @param latitude
+     *            the latitude in degrees
+     * @param longitude
+     *            the longitude in degrees
+     * @param miles
+     *            the distance
+     * @return the zip codes, nearest first
+     */
+    public List<String> withinRadius(double latitude, double longitude,
+	    double miles) {
+	double lat = Math.toRadians(latitude);
+	double lon = Math.toRadians(longitude);
+	return withinRadius(Math.cos(lat) * Math.cos(lon), Math.cos(lat)
+		* Math.sin(lon), Math.sin(lat), miles);
+    }
+
+    /**
+     * Gets the zip codes nearest to a zip code, starting with itself.
+     * 
+     * @param zipCode
+     *            Zip code
+     * @param count
+     *            the most zip codes to return
+     * @return the zip codes, nearest first, or an empty list if the zip code
+     *         is not in the index
+     */
+    public List<String> nearest(String zipCode, int count) {
+	int entry = find(zipCode);
+	if (entry < 0)
+	    return new ZipCodeList(new int[0]);
+	int node = nodes[entry];
+	return nearest(xs[node], ys[node], zs[node], count);
+    }
+
+    /**
+     * Gets the zip codes nearest to a point.
+     * 
+     * @param latitude
+     *            the latitude in degrees
+     * @param longitude
+     *            the longitude in degrees
+     * @param count
+     *            the most zip codes to return
+     * @return the zip codes, nearest first
+     */
+    public List<String> nearest(double latitude, double longitude, int count) {
+	double lat = Math.toRadians(latitude);
+	double lon = Math.toRadians(longitude);
+	return nearest(Math.cos(lat) * Math.cos(lon), Math.cos(lat)
+		* Math.sin(lon), Math.sin(lat), count);
+    }
+
+    private List<String> withinRadius(double x, double y, double z,
+	    double miles) {
+	if (miles < 0)
+	    throw new IllegalArgumentException("Distance must not be negative.");
+	// The straight line through the sphere to a point that far away
+	double angle = Math.min(miles / EARTH_RADIUS_MILES, Math.PI);
+	double chord = 2 * Math.sin(angle / 2);
+	Matches matches = new Matches(16);
+	withinRadius(0, size, x, y, z, chord * chord, matches);
+	return matches.sorted();
+    }
+
+    private void withinRadius(int from, int to, double x, double y,
+	    double z, double radius2, Matches matches) {
+	while (from < to) {
+	    int node = (from + to) >>> 1;
+	    double distance2 = chord2(node, x, y, z);
+	    if (distance2 <= radius2)
+		matches.add(node, distance2);
+	    double offset = offset(node, x, y, z);
+	    boolean before = offset <= 0;
+	    if (offset * offset <= radius2) {
+		// Both sides may have matches, search one and loop on the other
+		if (before)
+		    withinRadius(node + 1, to, x, y, z, radius2, matches);
+		else
+		    withinRadius(from, node, x, y, z, radius2, matches);
+	    }
+	    if (before)
+		to = node;
+	    else
+		from = node + 1;
+	}
+    }
+
+    private List<String> nearest(double x, double y, double z, int count) {
+	if (count < 0)
+	    throw new IllegalArgumentException("Count must not be negative.");
+	Nearest nearest = new Nearest(Math.min(count, size));
+	if (count > 0)
+	    nearest(0, size, x, y, z, nearest);
+	return nearest.sorted();
+    }
+
+    private void nearest(int from, int to, double x, double y, double z,
+	    Nearest nearest) {
+	if (from >= to)
+	    return;
+	int node = (from + to) >>> 1;
+	nearest.offer(node, chord2(node, x, y, z));
+	double offset = offset(node, x, y, z);
+	if (offset <= 0) {
+	    nearest(from, node, x, y, z, nearest);
+	    if (offset * offset <= nearest.worst())
+		nearest(node + 1, to, x, y, z, nearest);
+	} else {
+	    nearest(node + 1, to, x, y, z, nearest);
+	    if (offset * offset <= nearest.worst())
+		nearest(from, node, x, y, z, nearest);
+	}
+    }
+
+    /**
+     * Gets how far a point is past a node's split, negative if it is on the
+     * side of the nodes before it.
+     */
+    private double offset(int node, double x, double y, double z) {
+	switch (axes[node]) {
+	case 0:
+	    return x - xs[node];
+	case 1:
+	    return y - ys[node];
+	default:
+	    return z - zs[node];
+	}
+    }
+
+    /**
+     * Gets the square of the straight line distance from a node to a point.
+     */
+    private double chord2(int node, double x, double y, double z) {
+	double dx = xs[node] - x;
+	double dy = ys[node] - y;
+	double dz = zs[node] - z;
+	return dx * dx + dy * dy + dz * dz;
+    }
+
+    private static double miles(double chord2) {
+	return 2 * EARTH_RADIUS_MILES
+		* Math.asin(Math.min(1, Math.sqrt(chord2) / 2));
+    }
+
+    /**
+     * @return the position of a zip code in zipCodes, or -1
+     */
+    private int find(String zipCode) {
+	int value = parse(zipCode);
+	if (value < 0)
+	    return -1;
+	int entry = Arrays.binarySearch(zipCodes, value);
+	return entry < 0 ? -1 : entry;
+    }
+
+    /**
+     * @return the position of the first zip code not below a value
+     */
+    private int lowerBound(int value) {
+	int entry = Arrays.binarySearch(zipCodes, value);
+	return entry < 0 ? -entry - 1 : entry;
+    }
+
+    /**
+     * Orders a range of points into a tree, splitting each range at its
+     * middle on the axis the points are most spread along.
+     */
+    private void build(float[][] points, int[] order, int from, int to) {
+	while (to - from > 1) {
+	    int axis = 0;
+	    float widest = -1;
+	    for (int a = 0; a < 3; a++) {
+		float min = Float.POSITIVE_INFINITY;
+		float max = Float.NEGATIVE_INFINITY;
+		for (int i = from; i < to; i++) {
+		    float value = points[a][order[i]];
+		    min = Math.min(min, value);
+		    max = Math.max(max, value);
+		}
+		if (max - min > widest) {
+		    widest = max - min;
+		    axis = a;
+		}
+	    }
+	    int middle = (from + to) >>> 1;
+	    select(points[axis], order, from, to - 1, middle);
+	    axes[middle] = (byte) axis;
+	    build(points, order, from, middle);
+	    from = middle + 1;
+	}
+    }
+
+    /**
+     * Moves the point that belongs at a position of a range to it, with no
+     * larger point before it and no smaller point after it.
+     */
+    private static void select(float[] values, int[] order, int left,
+	    int right, int target) {
+	while (left < right) {
+	    float pivot = values[order[(left + right) >>> 1]];
+	    int i = left;
+	    int j = right;
+	    while (i <= j) {
+		while (values[order[i]] < pivot)
+		    i++;
+		while (values[order[j]] > pivot)
+		    j--;
+		if (i <= j) {
+		    int swap = order[i];
+		    order[i++] = order[j];
+		    order[j--] = swap;
+		}
+	    }
+	    if (target <= j)
+		right = j;
+	    else if (target >= i)
+		left = i;
+	    else
+		return;
+	}
+    }
+
+    /**
+     * Collects the zip codes of an index.
+     */
+    public static final class Builder {
+	private int[] zipCodes = new int[1024];
+	private double[] latitudes = new double[1024];
+	private double[] longitudes = new double[1024];
+	private int size;
+
+	/**
+	 * Adds a zip code. A zip code added twice keeps its last position.
+	 * 
+	 * @param zipCode
+	 *            Zip code
+	 * @param latitude
+	 *            the latitude in degrees
+	 * @param longitude
+	 *            the longitude in degrees
+	 * @return this builder
+	 */
+	public Builder add(String zipCode, double latitude, double longitude) {
+	    int value = parse(zipCode);
+	    if (value < 0)
+		throw new IllegalArgumentException("Not a zip code: "
+			+ zipCode);
+	    if (!(latitude >= -90 && latitude <= 90))
+		throw new IllegalArgumentException("Bad latitude: " + latitude);
+	    if (!(longitude >= -180 && longitude <= 180))
+		throw new IllegalArgumentException("Bad longitude: "
+			+ longitude);
+	    if (size == zipCodes.length) {
+		zipCodes = Arrays.copyOf(zipCodes, size * 2);
+		latitudes = Arrays.copyOf(latitudes, size * 2);
+		longitudes = Arrays.copyOf(longitudes, size * 2);
+	    }
+	    zipCodes[size] = value;
+	    latitudes[size] = latitude;
+	    longitudes[size] = longitude;
+	    size++;
+	    return this;
+	}
+
+	/**
+	 * @return the index of the zip codes added
+	 */
+	public ZipCodeIndex build() {
+	    // Sort by zip code, and by when added to keep the last of each
+	    long[] keys = new long[size];
+	    for (int i = 0; i < size; i++)
+		keys[i] = (long) zipCodes[i] << 32 | i;
+	    Arrays.sort(keys);
+	    int count = 0;
+	    for (int i = 0; i < size; i++) {
+		if (i + 1 == size || keys[i + 1] >>> 32 != keys[i] >>> 32)
+		    keys[count++] = keys[i];
+	    }
+
+	    int[] sortedZipCodes = new int[count];
+	    float[] sortedLatitudes = new float[count];
+	    float[] sortedLongitudes = new float[count];
+	    for (int i = 0; i < count; i++) {
+		int added = (int) keys[i];
+		sortedZipCodes[i] = zipCodes[added];
+		sortedLatitudes[i] = (float) latitudes[added];
+		sortedLongitudes[i] = (float) longitudes[added];
+	    }
+	    return new ZipCodeIndex(sortedZipCodes, sortedLatitudes,
+		    sortedLongitudes);
+	}
+    }
+
+    /**
+     * Collects the nodes within a radius.
+     */
+    private class Matches {
+	int[] nodes;
+	double[] distances;
+	int count;
+
+	Matches(int capacity) {
+	    nodes = new int[capacity];
+	    distances = new double[capacity];
+	}
+
+	void add(int node, double distance2) {
+	    if (count == nodes.length) {
+		nodes = Arrays.copyOf(nodes, count * 2);
+		distances = Arrays.copyOf(distances, count * 2);
+	    }
+	    nodes[count] = node;
+	    distances[count++] = distance2;
+	}
+
+	List<String> sorted() {
+	    Integer[] order = new Integer[count];
+	    for (int i = 0; i < count; i++)
+		order[i] = i;
+	    Arrays.sort(order, (a, b) -> {
+		int compare = Double.compare(distances[a], distances[b]);
+		return compare != 0 ? compare : Integer.compare(
+			entries[nodes[a]], entries[nodes[b]]);
+	    });
+	    int[] sorted = new int[count];
+	    for (int i = 0; i < count; i++)
+		sorted[i] = zipCodes[entries[nodes[order[i]]]];
+	    return new ZipCodeList(sorted);
+	}
+    }
+
+    /**
+     * Keeps the nearest nodes seen, in a heap with the farthest on top.
+     */
+    private final class Nearest extends Matches {
+	final int capacity;
+
+	Nearest(int capacity) {
+	    super(Math.max(capacity, 1));
+	    this.capacity = capacity;
+	}
+
+	/**
+	 * @return the square of the distance a node must be within to be
+	 *         kept
+	 */
+	double worst() {
+	    return count < capacity ? Double.POSITIVE_INFINITY : distances[0];
+	}
+
+	void offer(int node, double distance2) {
+	    if (count < capacity) {
+		int i = count++;
+		while (i > 0 && distances[(i - 1) / 2] < distance2) {
+		    nodes[i] = nodes[(i - 1) / 2];
+		    distances[i] = distances[(i - 1) / 2];
+		    i = (i - 1) / 2;
+		}
+		nodes[i] = node;
+		distances[i] = distance2;
+	    } else if (capacity > 0 && distance2 < distances[0]) {
+		int i = 0;
+		while (true) {
+		    int child = 2 * i + 1;
+		    if (child >= count)
+			break;
+		    if (child + 1 < count
+			    && distances[child + 1] > distances[child])
+			child++;
+		    if (distances[child] <= distance2)
+			break;
+		    nodes[i] = nodes[child];
+		    distances[i] = distances[child];
+		    i = child;
+		}
+		nodes[i] = node;
+		distances[i] = distance2;
+	    }
+	}
+    }
+
+    /**
+     * A list of zip codes backed by their numbers, formatted as they are
+     * read.
+     */
+    private static final class ZipCodeList extends AbstractList<String>
+	    implements RandomAccess {
+	private final int[] zipCodes;
+
+	ZipCodeList(int[] zipCodes) {
+	    this.zipCodes = zipCodes;
+	}
+
+	@Override
+	public String get(int index) {
+	    return format(zipCodes[index]);
+	}
+
+	@Override
+	public int size() {
+	    return zipCodes.length;
+	}
+    }
+}
\ No newline at end of file